@@ -0,0 +1,85 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks BlurCheckAwt.run() on the bundled images
+ * 
+ * run measures the blur check alone on an image decoded up front, and
+ * runStreaming the same in streaming mode. readAndRun includes decoding
+ * the file as BlurCheckAwt(File, ...) does (subsampled) and fullReadAndRun
+ * decodes every pixel with ImageIO.read for comparison.
+ * The debug messages of the checks are discarded with BlurCheckDiagnostics.NONE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlurCheckAwtBenchmark {
+	private static final int THRESHOLD = 1500;
+	
+	@Param({"cobweb/butterfly.jpg", "cobweb/nature.jpg", "cobweb/nature-blur.jpg", "cobweb/white_moth.jpg", "flower_blurred.png"})
+	public String image;
+	
+	private File file;
+	private BufferedImage decoded;
+	
+	@Setup
+	public void setUp() throws IOException, URISyntaxException {
+		file = new File(BlurCheckAwtBenchmark.class.getResource(image).toURI());
+		decoded = ImageIO.read(file);
+	}
+	
+	@Benchmark
+	public long run() {
+		BlurCheckAwt check = new BlurCheckAwt(decoded, THRESHOLD, false);
+		check.setDiagnostics(BlurCheckDiagnostics.NONE);
+		check.run();
+		return check.variance;
+	}
+	
+	@Benchmark
+	public long runStreaming() {
+		BlurCheckAwt check = new BlurCheckAwt(decoded, THRESHOLD, false);
+		check.setStreaming(true);
+		check.setDiagnostics(BlurCheckDiagnostics.NONE);
+		check.run();
+		return check.variance;
+	}
+	
+	@Benchmark
+	public long readAndRun() {
+		BlurCheckAwt check = new BlurCheckAwt(file, THRESHOLD, false);
+		check.setDiagnostics(BlurCheckDiagnostics.NONE);
+		check.run();
+		return check.variance;
+	}
+	
+	@Benchmark
+	public long fullReadAndRun() throws IOException {
+		BlurCheckAwt check = new BlurCheckAwt(ImageIO.read(file), THRESHOLD, false);
+		check.setDiagnostics(BlurCheckDiagnostics.NONE);
+		check.run();
+		return check.variance;
+	}
+}
@@ -0,0 +1,98 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the resize step of the blur check, the Graphics path
+ * (convertImageToGrey stretching to 500x500) against GreyResizer (area
+ * averaging to a long edge of 500)
+ * 
+ * The images are a uniform random texture of 8x8 blocks, 2000 pixels wide
+ * and cropped to each aspect ratio, and a bundled photo. As the texture
+ * looks the same everywhere its blur variance should not depend on the
+ * crop, GreyResizerTest.testAspectRatioStability checks how stable each
+ * path is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GreyResizeBenchmark {
+	private static final int THRESHOLD = 1500;
+	private static final int LONG_EDGE = 500;
+	
+	@Param({"texture 1:1", "texture 4:3", "texture 2:1", "texture 4:1", "cobweb/nature2.jpg"})
+	public String image;
+	
+	private BufferedImage source;
+	private BlurCheckAwt graphics;
+	private BlurCheckAwt areaAverage;
+	
+	@Setup
+	public void setUp() throws IOException, URISyntaxException {
+		if(image.startsWith("texture ")) {
+			String[] aspect = image.substring("texture ".length()).split(":");
+			source = texture(2000, 2000 * Integer.parseInt(aspect[1]) / Integer.parseInt(aspect[0]));
+		} else {
+			source = ImageIO.read(new File(GreyResizeBenchmark.class.getResource(image).toURI()));
+		}
+		graphics = newCheck(0);
+		areaAverage = newCheck(LONG_EDGE);
+	}
+	
+	@Benchmark
+	public BufferedImage graphics() {
+		return graphics.convertImageToGrey(source);
+	}
+	
+	@Benchmark
+	public BufferedImage areaAverage() {
+		return areaAverage.convertImageToGrey(source);
+	}
+	
+	private BlurCheckAwt newCheck(int longEdge) {
+		BlurCheckAwt check = new BlurCheckAwt(source, THRESHOLD, false) {
+			@Override
+			protected void dbg(String msg) {
+			}
+		};
+		check.setLongEdge(longEdge);
+		return check;
+	}
+	
+	private static BufferedImage texture(int width, int height) {
+		Random random = new Random(3);
+		int blocksAcross = (width + 7) / 8;
+		int[] blocks = new int[blocksAcross * ((height + 7) / 8)];
+		for(int i = 0; i < blocks.length; i++)
+			blocks[i] = random.nextInt(256);
+		BufferedImage texture = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels = ((DataBufferByte) texture.getRaster().getDataBuffer()).getData();
+		for(int y = 0; y < height; y++)
+			for(int x = 0; x < width; x++)
+				pixels[y * width + x] = (byte) blocks[(y / 8) * blocksAcross + x / 8];
+		return texture;
+	}
+}
@@ -0,0 +1,63 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks measuring the standard sharpness metrics of a working image in
+ * one pass against a separate pass for each metric
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SharpnessEngineBenchmark {
+	@Param({"cobweb/butterfly.jpg", "cobweb/nature-blur.jpg"})
+	public String image;
+	
+	private BufferedImage grey;
+	private SharpnessEngine onePass;
+	private SharpnessEngine[] passEach;
+	
+	@Setup
+	public void setUp() throws IOException, URISyntaxException {
+		BufferedImage source = ImageIO.read(new File(SharpnessEngineBenchmark.class.getResource(image).toURI()));
+		grey = new BlurCheckAwt(source, 1500, false).convertImageToGrey(source);
+		onePass = new SharpnessEngine();
+		passEach = new SharpnessEngine[SharpnessEngine.STANDARD_METRICS.size()];
+		for(int i = 0; i < passEach.length; i++)
+			passEach[i] = new SharpnessEngine(Collections.singletonList(SharpnessEngine.STANDARD_METRICS.get(i)));
+	}
+	
+	@Benchmark
+	public SharpnessMetrics onePass() {
+		return onePass.measure(grey);
+	}
+	
+	@Benchmark
+	public void passEach(Blackhole blackhole) {
+		for(SharpnessEngine engine : passEach)
+			blackhole.consume(engine.measure(grey));
+	}
+}
@@ -0,0 +1,107 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a single LineOfSight.calculateLOS() for each outcome
+ * 
+ * The surface is a flat 3km square at 1m, large enough that a ray looking
+ * up from the centre runs out of view distance before reaching the edge.
+ * A new LineOfSight is made for every call, as LineOfSight.Calculate does,
+ * so the cost of the exceptions for misses is included. The step size only
+ * affects the STEP traversal.
+ *
+ *  HIT - looking down 5 degrees, hits the surface about 23m away
+ *  MISS - looking up, no intersection within the view distance
+ *  OUT_OF_BOUNDS - looking up from near the edge, reaches the surface bounds
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineOfSightBenchmark {
+	private static final int SIZE = 1500;
+	private static final double CELL_SIZE = 2;
+	private static final double USER_HEIGHT = 2;
+	
+	public enum Scenario {
+		HIT, MISS, OUT_OF_BOUNDS
+	}
+	
+	@Param({"HIT", "MISS", "OUT_OF_BOUNDS"})
+	public Scenario scenario;
+	
+	@Param({"0.1", "0.5", "1.0"})
+	public double stepSize;
+	
+	@Param({"STEP", "GRID", "HIERARCHICAL", "BILINEAR", "ADAPTIVE"})
+	public LineOfSight.Traversal traversal;
+	
+	private Raster heightMap;
+	private double easting, northing, bearing, tilt;
+	private LineOfSightEvaluator evaluator;
+	private final LineOfSightResult result = new LineOfSightResult();
+	
+	@Setup
+	public void setUp() {
+		CellBuffer cells = CellBuffer.allocate(CellBuffer.Type.FLOAT, SIZE * SIZE, -9999);
+		for(int i = 0; i < SIZE * SIZE; i++)
+			cells.set(i, 1.0);
+		heightMap = new Raster(new Parameters(CELL_SIZE, SIZE, SIZE, 0, 0, -9999), cells);
+		heightMap.getMaxHeightPyramid();		// built once, not part of the measurement
+		heightMap.getMaxSlopeBlocks();
+		
+		double middle = SIZE * CELL_SIZE / 2;
+		easting = middle + 0.25;
+		northing = middle + 0.25;
+		bearing = 30;
+		switch (scenario) {
+		case HIT:
+			tilt = 5;
+			break;
+		case MISS:
+			tilt = -1;
+			break;
+		default:
+			easting = SIZE * CELL_SIZE - 100;
+			tilt = -1;
+			bearing = 80;
+		}
+		evaluator = new LineOfSightEvaluator(heightMap, traversal, stepSize, LineOfSight.TOLERANCE);
+	}
+	
+	@Benchmark
+	public int calculateLOS() {
+		LineOfSight los = new LineOfSight(heightMap, easting, northing, bearing, tilt, USER_HEIGHT);
+		los.setStepSize(stepSize);
+		los.setTraversal(traversal);
+		try {
+			return (int) los.calculateLOS()[0];
+		} catch (NoIntersectionException e) {
+			return LineOfSight.STATUS_NO_INTERSECTION;
+		} catch (ReachedSurfaceBoundsException e) {
+			return LineOfSight.STATUS_REACHED_SURFACE_BOUNDS;
+		} catch (StartPositionOutOfBoundsException e) {
+			return LineOfSight.STATUS_START_OUT_OF_BOUNDS;
+		}
+	}
+	
+	@Benchmark
+	public int evaluate() {
+		return evaluator.evaluate(easting, northing, bearing, tilt, USER_HEIGHT, result);
+	}
+}
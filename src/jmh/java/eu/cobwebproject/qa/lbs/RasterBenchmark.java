@@ -0,0 +1,88 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks parsing the ascii grid test resources into a Raster
+ *
+ * parseRate reports the parse throughput in MB/s as its megabytes counter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RasterBenchmark {
+	@Param({"surfaceModel_tiny.asc", "surfaceModel_tiny_rectangle.asc", "surfaceModel_flat_1m.asc"})
+	public String resource;
+	
+	@Param({"DOUBLE", "FLOAT", "SHORT"})
+	public CellBuffer.Type type;
+	
+	private URL url;
+	private double megabytes;		// size of the resource
+	
+	/**
+	 * Counts the megabytes parsed, which JMH reports per second
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Parsed {
+		public double megabytes;
+		
+		@Setup(Level.Iteration)
+		public void reset() {
+			megabytes = 0;
+		}
+	}
+	
+	@Setup
+	public void setUp() throws IOException {
+		url = RasterBenchmark.class.getResource(resource);
+		if(url == null)
+			throw new IllegalStateException("Missing benchmark resource " + resource);
+		
+		long bytes = 0;
+		InputStream in = url.openStream();
+		try {
+			byte[] buffer = new byte[1 << 16];
+			for(int read; (read = in.read(buffer)) >= 0; )
+				bytes += read;
+		} finally {
+			in.close();
+		}
+		megabytes = bytes / (1024.0 * 1024.0);
+	}
+	
+	@Benchmark
+	public Raster parse() throws IOException {
+		return new Raster(url, type);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public Raster parseRate(Parsed parsed) throws IOException {
+		Raster raster = new Raster(url, type);
+		parsed.megabytes += megabytes;
+		return raster;
+	}
+}
@@ -0,0 +1,70 @@
+package eu.cobwebproject.qa.rules;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.cobwebproject.qa.automaticvalidation.ValRange;
+import eu.cobwebproject.qa.lbs.SpatialAccuracy;
+
+/**
+ * Benchmarks validating columns of random survey rows with the column rules
+ * against calling ValRange and SpatialAccuracy for each row
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnRulesBenchmark {
+	@Param({"1000000"})
+	public int rows;
+	
+	private double[] values;
+	private double[] accuracy;
+	private int[] satellites;
+	private final RangeRule range = new RangeRule(-40, 50);
+	private final AccuracyRule accurate = new AccuracyRule(10, 4);
+	private final SpatialAccuracy spatialAccuracy = new SpatialAccuracy();
+	
+	@Setup
+	public void setUp() {
+		Random random = new Random(7);
+		values = new double[rows];
+		accuracy = new double[rows];
+		satellites = new int[rows];
+		for(int i = 0; i < rows; i++) {
+			values[i] = random.nextGaussian() * 30;
+			accuracy[i] = random.nextDouble() * 20;
+			satellites[i] = random.nextInt(12);
+		}
+	}
+	
+	@Benchmark
+	public BitSet scalar() {
+		BitSet passed = new BitSet(rows);
+		for(int i = 0; i < rows; i++) {
+			if(ValRange.valueInRange(values[i], -40, 50) && spatialAccuracy.isAccurate(accuracy[i], 10, satellites[i], 4))
+				passed.set(i);
+		}
+		return passed;
+	}
+	
+	@Benchmark
+	public BitSet columns() {
+		return Columns.all(range.apply(values), accurate.apply(accuracy, satellites));
+	}
+}
@@ -0,0 +1,139 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+/**
+* Blur check diagnostics that can be left on under load
+*
+* Messages and results are logged with java.util.logging, messages at FINE
+* and results at INFO with their values as parameters, so they cost little
+* unless the logger is enabled. The working images of one check in every
+* sampleEvery are JPEG encoded into a directory by a background thread, so
+* the checks don't wait for them. Each dump is named from the image, this
+* dumper and a sequence number, so concurrent checks of images with the same
+* name don't overwrite each other. When the writer falls behind, dumps beyond
+* the queue capacity are dropped rather than holding up the checks.
+*
+* Example Usage:
+*     AsyncDiagnostics diagnostics = new AsyncDiagnostics(new File("/var/tmp/blur"), 100, 16);
+*     test.setDiagnostics(diagnostics);
+*     test.run();
+*     ...
+*     diagnostics.close();
+*/
+public final class AsyncDiagnostics implements BlurCheckDiagnostics, Closeable {
+        private static final Logger LOG = Logger.getLogger(AsyncDiagnostics.class.getName());
+
+        private final File directory;
+        private final int sampleEvery;
+        private final String id = UUID.randomUUID().toString();	// tells dumpers apart, even in the same millisecond or on another host
+        private final ThreadPoolExecutor writer;
+        private final AtomicLong checks = new AtomicLong();
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicLong dumped = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+
+        /**
+         * @param directory Where to write the images, created if it doesn't exist
+         * @param sampleEvery Dump the images of one check in this many, 0 for none
+         * @param queueCapacity How many checks' images may wait to be written before more are dropped
+         */
+        public AsyncDiagnostics(File directory, int sampleEvery, int queueCapacity) {
+            this.directory = directory;
+            this.sampleEvery = Math.max(0, sampleEvery);
+            this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "blur-check-diagnostics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        @Override
+        public void message(String source, String message) {
+            if (LOG.isLoggable(Level.FINE))
+                LOG.log(Level.FINE, "{0}: {1}", new Object[] {source, message});
+        }
+
+        @Override
+        public void result(String source, BlurCheckRunnable check, long nanos) {
+            if (LOG.isLoggable(Level.INFO))
+                LOG.log(Level.INFO, "blur check source={0} variance={1} pass={2} estimated={3} micros={4}",
+                        new Object[] {source, check.variance, check.pass, check.estimated, nanos / 1000});
+        }
+
+        @Override
+        public boolean wantsImages(String source) {
+            return sampleEvery > 0 && checks.getAndIncrement() % sampleEvery == 0;
+        }
+
+        @Override
+        public void images(String source, final BufferedImage grey, final BufferedImage laplace) {
+            final String base = source.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + id + "-" + sequence.incrementAndGet();
+            try {
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!directory.isDirectory() && !directory.mkdirs())
+                                throw new IOException("Could not create " + directory);
+                            ImageIO.write(grey, "jpeg", new File(directory, base + "-grey.jpg"));
+                            ImageIO.write(laplace, "jpeg", new File(directory, base + "-laplace.jpg"));
+                            dumped.incrementAndGet();
+                        } catch (IOException e) {
+                            LOG.log(Level.WARNING, "Could not dump the images of " + base, e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * @return The number of checks whose images have been written
+         */
+        public long getDumped() {
+            return dumped.get();
+        }
+
+        /**
+         * @return The number of checks whose images were dropped as the writer was behind or closed
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Write the images already queued and stop, later images are dropped
+         *
+         * @throws IOException If interrupted while waiting for the writes
+         */
+        @Override
+        public void close() throws IOException {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for the diagnostic images to be written", e);
+            }
+        }
+}
@@ -2,13 +2,17 @@ package eu.cobwebproject.qa.automaticvalidation;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Vector;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
 
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
-import java.awt.Color;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferByte;
 import java.awt.image.Kernel;
+import java.awt.image.WritableRaster;
 
 import javax.imageio.ImageIO;
 
@@ -16,9 +20,15 @@ import javax.imageio.ImageIO;
 
 /**
 * Class to Check for Blurness of an image. The algorithm is as follows
-* 1. Greyscale and resize image
+* 1. Greyscale and resize image (to 500x500, or keeping the aspect ratio, see setLongEdge)
 * 2. Convolve around a Laplace kernel defined below
 * 3. Calculate variance of result and compare with user defined threshold
+*
+* In streaming mode (see setStreaming) steps 1-3 are done a row at a time, so
+* the greyscale and convolved images are never held whole. With a tile grid
+* (see setTileGrid) the variance of each region is mapped in the same pass.
+* With a fast decision (see setFastDecision) clearly sharp or blurred images
+* are decided in step 3 from a sample of the pixels.
 
 * Example Usage:
 *     test = new BlurCheckAwt(myimage, 1000, true);
@@ -30,21 +40,53 @@ import javax.imageio.ImageIO;
 */
 public class BlurCheckAwt extends BlurCheckRunnable {
         /*********/
+        /** Size of the working image that the blur is measured on */
+        public static final int WORKING_WIDTH = 500;
+        public static final int WORKING_HEIGHT = 500;
+
         private BufferedImage original;
+        private boolean streaming;
+        private int longEdge;			// 0 for the fixed working size
+        private double scale;			// 0 for the fixed working size
+        private SharpnessEngine sharpnessEngine;
+        private int tileCols;			// 0 for no blur map
+        private int tileRows;
+        private BlurCheckDiagnostics diagnostics;	// null to print messages and dump images in the working directory
+
+        /* The variance of each region of the working image after the test is run, null unless a tile grid is set */
+        public BlurMap blurMap;
+        /* The sharpness metrics of the working image after the test is run, null unless a SharpnessEngine is set */
+        public SharpnessMetrics metrics;
+        
+        /** Strata across and down the working image for a fast decision, one pixel is sampled from each per round */
+        private static final int STRATA = 16;
+        /** Seed for the fast decision sample, fixed so an image is always decided the same way */
+        private static final long SAMPLE_SEED = 0x436f62776562L;
+        /** Fraction of the pixels a fast decision may sample before the variance is calculated in full */
+        private static final int MAX_SAMPLE_DIVISOR = 16;
+
+        /** The sRGB red value getRGB gives for each grey level of a TYPE_BYTE_GRAY image (linear grey is gamma encoded) */
+        private static final int[] GREY_TO_RGB = greyToRgb();
         
-        /** use this for debug messages for now */
+        /** use this for debug messages for now, they go to the diagnostics if set */
         @Override
         protected void dbg(String msg){
-            System.out.println(msg);
+            if (diagnostics != null)
+                diagnostics.message(getSource(), msg);
+            else
+                System.out.println(msg);
         }
         
 
-        /** Theshold is the desired variance i.e. the higher the sharper ( 1500 is a good start) */ 
+        /**
+         * Theshold is the desired variance i.e. the higher the sharper ( 1500 is a good start)
+         *
+         * The file is decoded subsampled to about the working size, see SubsampledImageReader
+         */
         public BlurCheckAwt(File imageFile, int threshold, boolean debug){
             super(imageFile, threshold, debug);
             try {                
-                this.original=ImageIO.read(imageFile);
-                dbg("image size = " + original.getWidth() + " " + original.getHeight());
+                this.original=SubsampledImageReader.read(imageFile, WORKING_WIDTH, WORKING_HEIGHT);
             } catch (IOException e) {
                 e.printStackTrace();
             }               
@@ -62,30 +104,121 @@ public class BlurCheckAwt extends BlurCheckRunnable {
         	super(threshold, debug);            
             this.original = image; 
         }
+
+        /**
+         * A check of an encoded image held in memory, such as a request body, with no temporary file
+         *
+         * The image is decoded subsampled to about the working size, see SubsampledImageReader
+         *
+         * @param data The encoded image, which is not copied
+         * @param threshold The threshold value for sharpness (1500 is sensible)
+         * @param debug Whether to produce debugging outputs
+         * @return The check, ready to run
+         * @throws IOException If the data is not an image in a format ImageIO supports
+         */
+        public static BlurCheckAwt fromBytes(byte[] data, int threshold, boolean debug) throws IOException {
+            return new BlurCheckAwt(SubsampledImageReader.read(data, WORKING_WIDTH, WORKING_HEIGHT), threshold, debug);
+        }
+
+        /**
+         * A check of an encoded image held in a buffer, such as a message payload, with no temporary file
+         *
+         * @param data The encoded image, from its position to its limit, which are left as they are
+         * @param threshold The threshold value for sharpness (1500 is sensible)
+         * @param debug Whether to produce debugging outputs
+         * @return The check, ready to run
+         * @throws IOException If the data is not an image in a format ImageIO supports
+         */
+        public static BlurCheckAwt fromByteBuffer(ByteBuffer data, int threshold, boolean debug) throws IOException {
+            return new BlurCheckAwt(SubsampledImageReader.read(data, WORKING_WIDTH, WORKING_HEIGHT), threshold, debug);
+        }
+
+        /**
+         * A check of an encoded image read from a stream, cached in memory rather than a temporary file
+         *
+         * @param in The stream, which is read as far as the image goes and left open
+         * @param threshold The threshold value for sharpness (1500 is sensible)
+         * @param debug Whether to produce debugging outputs
+         * @return The check, ready to run
+         * @throws IOException If the stream can't be read or is not an image in a format ImageIO supports
+         */
+        public static BlurCheckAwt fromStream(InputStream in, int threshold, boolean debug) throws IOException {
+            return new BlurCheckAwt(SubsampledImageReader.read(in, WORKING_WIDTH, WORKING_HEIGHT), threshold, debug);
+        }
     
         /** Executes the test. Can run as a thread but should be quite fast anyway */
         @Override
         public void run() {
+            long start = System.nanoTime();
+            String source = getSource();
+            if (file != null && original != null)
+                dbg("image size = " + original.getWidth() + " " + original.getHeight());	// here so it reaches diagnostics set after construction
+            boolean images = diagnostics == null ? this.debug : diagnostics.wantsImages(source);
+            check(source, images);
+            if (diagnostics != null)
+                diagnostics.result(source, this, System.nanoTime() - start);
+        }
+
+        /**
+        * Run the check
+        *
+        * @param source The name of the image for the debug images
+        * @param images Whether to make the debug images, which needs the full calculation
+        */
+        private void check(String source, boolean images) {
+            int[] kernel = integerKernel(LAPLACE_KERNEL);
+            this.estimated = false;
+            if (this.streaming && !images && kernel != null) {
+                SharpnessEngine.Pass metricsPass = sharpnessEngine == null ? null : sharpnessEngine.newPass();
+                int[] size = getWorkingSize(original);
+                this.blurMap = newBlurMap(size[0], size[1]);
+                this.pass = getPassDecision(getStreamedVariance(original, kernel, metricsPass, blurMap));
+                if (metricsPass != null)
+                    this.metrics = metricsPass.result();
+                return;
+            }
             BufferedImage blackAndWhiteImage = convertImageToGrey(original);
-            BufferedImage laplaceImage = convolve(blackAndWhiteImage, LAPLACE_KERNEL);
-            if (this.debug) {
-            	String fileNameBase =  file == null ? "imagebuffer" : file.getName();
-                dump(blackAndWhiteImage, fileNameBase + "-grey.jpg");
-                dump(laplaceImage, fileNameBase + "-laplace.jpg");
+            if (this.fastDecision && !images && kernel != null && tileCols == 0 && sharpnessEngine == null) {
+                Boolean decision = getSampledDecision(blackAndWhiteImage, kernel);
+                if (decision != null) {
+                    this.pass = decision;
+                    return;
+                }
+            }
+            BufferedImage laplaceImage = null;
+            if (images || kernel == null) {
+                laplaceImage = convolve(blackAndWhiteImage, LAPLACE_KERNEL);
             }
-            this.pass = getPassDecision(laplaceImage);
+            if (images && diagnostics != null) {
+                diagnostics.images(source, blackAndWhiteImage, laplaceImage);
+            } else if (images) {
+                dump(blackAndWhiteImage, source + "-grey.jpg");
+                dump(laplaceImage, source + "-laplace.jpg");
+            }
+            // convolve and measure in one pass unless the kernel needs ConvolveOp's float arithmetic
+            this.blurMap = newBlurMap(blackAndWhiteImage.getWidth(), blackAndWhiteImage.getHeight());
+            this.pass = getPassDecision(kernel == null ? getVariance(laplaceImage, null, blurMap) : getVariance(blackAndWhiteImage, kernel, blurMap));
+            if (sharpnessEngine != null)
+                this.metrics = sharpnessEngine.measure(blackAndWhiteImage);
         }
 
         /** 
         * Preprocess image by 1. resizing it to 500x500 and 2. greyscaling it
         *
+        * If a long edge or scale has been set the image is instead area averaged
+        * to that size, keeping its aspect ratio (see GreyResizer).
+        *
         * @param img the input image
         * @return the output image
         */        
 
         public BufferedImage convertImageToGrey(BufferedImage img){
-            int newWidth = 500; // or img.getWidth()
-            int newHeight = 500; // or img.getHeight()
+            if (longEdge > 0 || scale > 0) {
+                int[] size = getWorkingSize(img);
+                return GreyResizer.resize(img, size[0], size[1]);
+            }
+            int newWidth = WORKING_WIDTH; // or img.getWidth()
+            int newHeight = WORKING_HEIGHT; // or img.getHeight()
             BufferedImage outImage = new BufferedImage(newHeight, newWidth, BufferedImage.TYPE_BYTE_GRAY);
             Graphics g = outImage.getGraphics();
             // resize: 
@@ -105,12 +238,17 @@ public class BlurCheckAwt extends BlurCheckRunnable {
             return op.filter(src, null);  //operating on image
         }
 
-        private boolean getPassDecision( BufferedImage img ){
-            this.variance = getVariance(img);
+        private boolean getPassDecision( long variance ){
+            this.variance = variance;
             dbg("Variance is : " + variance);
             return variance > threshold;
         }
 
+        /** The name of the image for diagnostics */
+        private String getSource(){
+            return file == null ? "imagebuffer" : file.getName();
+        }
+
         /** 
         * Write the image to disc
         *
@@ -128,42 +266,355 @@ public class BlurCheckAwt extends BlurCheckRunnable {
         }
 
         /** 
-        * Calculare variance of all pixels. Assumes greyscale i.e. R=G=B 
+        * Calculate variance of all pixels of a greyscale image, as the sRGB grey
+        * levels reported by getRGB, optionally convolving the image first
+        *
+        * The pixels are read straight from the image's byte buffer and the kernel
+        * is applied as ConvolveOp would (clamped to 0-255, EDGE_NO_OP), so no
+        * objects are created per pixel and no intermediate image is needed.
         *
-        * @param img The greyscaled image
+        * @param img The greyscaled image, TYPE_BYTE_GRAY
+        * @param kernel 3x3 kernel to convolve with, or null to use the pixels as they are
+        * @param map Where to add the rows for the blur map, or null
         * @return the variance of the image
         */
-        private long getVariance ( BufferedImage img ){
-            Vector<Integer> data = new Vector<Integer>(20000,5000);
-            long sum = 0;
-            long mean = 0;
-            long variance = 0;
-            // Populate vector<int> from image data -- greyscale implies R=G=B;
-            for (int i = 0; i < img.getWidth(); i++){
-                for (int j = 0; j < img.getHeight(); j++){
-                    Color c = new Color(img.getRGB(i, j));
-                    data.add( c.getRed() );
+        private long getVariance ( BufferedImage img, int[] kernel, BlurMap map ){
+            WritableRaster raster = img.getRaster();
+            if (img.getType() != BufferedImage.TYPE_BYTE_GRAY || !(raster.getSampleModel() instanceof ComponentSampleModel))
+                throw new IllegalArgumentException("Expected a TYPE_BYTE_GRAY image");
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            byte[] pixels = buffer.getData();
+            int stride = sampleModel.getScanlineStride();
+            int start = buffer.getOffset() + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            int width = img.getWidth();
+            int height = img.getHeight();
+
+            long[] sums = new long[2];
+            int[] values = map == null ? null : new int[width];
+            for (int y = 0; y < height; y++){
+                boolean edgeRow = y == 0 || y == height - 1;
+                addRow(pixels, start + y * stride, stride, width, edgeRow ? null : kernel, sums, values);
+                if (map != null)
+                    map.addRow(values);
+            }
+            return variance(sums, (long) width * height);
+        }
+
+        /** 
+        * Decide from a stratified random sample of the convolved pixels, if the
+        * sample is clear enough
+        *
+        * The working image is split into a grid of strata and a round samples one
+        * pixel from each, so every part of the image is represented. After each
+        * round the estimate is decided against the threshold (see
+        * VarianceEstimator), giving up once a fraction of the pixels have been
+        * sampled as the full calculation is then little slower.
+        *
+        * @param img The greyscaled image, TYPE_BYTE_GRAY
+        * @param kernel 3x3 kernel to convolve with
+        * @return whether the image passed, or null if the sample could not decide
+        */
+        private Boolean getSampledDecision ( BufferedImage img, int[] kernel ){
+            WritableRaster raster = img.getRaster();
+            if (img.getType() != BufferedImage.TYPE_BYTE_GRAY || !(raster.getSampleModel() instanceof ComponentSampleModel))
+                throw new IllegalArgumentException("Expected a TYPE_BYTE_GRAY image");
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            byte[] pixels = buffer.getData();
+            int stride = sampleModel.getScanlineStride();
+            int start = buffer.getOffset() + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            int width = img.getWidth();
+            int height = img.getHeight();
+            int across = Math.min(STRATA, width);
+            int down = Math.min(STRATA, height);
+
+            Random random = new Random(SAMPLE_SEED);
+            VarianceEstimator estimator = new VarianceEstimator(threshold);
+            long maxSamples = (long) width * height / MAX_SAMPLE_DIVISOR;
+            while (estimator.getCount() + across * down <= maxSamples){
+                for (int stratumY = 0; stratumY < down; stratumY++){
+                    int top = stratumY * height / down;
+                    int bottom = (stratumY + 1) * height / down;
+                    for (int stratumX = 0; stratumX < across; stratumX++){
+                        int left = stratumX * width / across;
+                        int right = (stratumX + 1) * width / across;
+                        int x = left + random.nextInt(right - left);
+                        int y = top + random.nextInt(bottom - top);
+                        boolean edge = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+                        int here = start + y * stride + x;
+                        estimator.add(GREY_TO_RGB[edge ? pixels[here] & 0xff : convolvePixel(pixels, here, stride, kernel)]);
+                    }
+                }
+                Boolean decision = estimator.decide();
+                if (decision != null){
+                    this.variance = Math.round(estimator.getVariance());
+                    this.estimated = true;
+                    dbg("Variance is estimated : " + variance + " +/- " + Math.round(estimator.getHalfWidth()) + " from " + estimator.getCount() + " pixels");
+                    return decision;
+                }
+            }
+            dbg("Sample of " + estimator.getCount() + " pixels is undecided, calculating in full");
+            return null;
+        }
+
+        /** 
+        * Calculate variance of the convolved working image without creating it
+        *
+        * The working image is sampled a row at a time (see GreyRowSampler) into a
+        * rolling window of three rows, the row being measured and the rows above
+        * and below it for the kernel, so only three rows of the working image are
+        * ever held. The sharpness metrics are measured from the same window.
+        *
+        * @param img The image, of any size and type
+        * @param kernel 3x3 kernel to convolve with
+        * @param metricsPass Where to add the rows for the sharpness metrics, or null
+        * @param map Where to add the rows for the blur map, or null
+        * @return the variance of the convolved working image
+        */
+        private long getStreamedVariance ( BufferedImage img, int[] kernel, SharpnessEngine.Pass metricsPass, BlurMap map ){
+            int[] size = getWorkingSize(img);
+            int width = size[0];
+            int height = size[1];
+            GreyRowSampler sampler = new GreyRowSampler(img, width, height);
+            byte[] window = new byte[3 * width];		// rows y - 1, y and y + 1
+
+            long[] sums = new long[2];
+            int[] values = map == null ? null : new int[width];
+            for (int y = -1; y < height; y++){
+                System.arraycopy(window, width, window, 0, 2 * width);
+                if (y + 1 < height)
+                    sampler.sampleRow(y + 1, window, 2 * width);
+                if (y >= 0) {
+                    boolean edgeRow = y == 0 || y == height - 1;
+                    addRow(window, width, width, width, edgeRow ? null : kernel, sums, values);
+                    if (map != null)
+                        map.addRow(values);
+                    if (metricsPass != null && !edgeRow)
+                        metricsPass.addRow(window, width, width, width);
                 }
             }
+            return variance(sums, (long) width * height);
+        }
 
-            //find mean
-            for ( int pix : data ){
+        /** 
+        * Add a row of the convolved image to the sums of its sRGB grey levels and their squares
+        *
+        * @param pixels The greyscale pixels
+        * @param row Index of the first pixel of the row
+        * @param stride The distance between rows
+        * @param width The number of pixels in the row
+        * @param kernel 3x3 kernel to convolve with, or null to use the pixels as they are
+        * @param sums The sum and the sum of squares to add to
+        * @param values Where to put the grey level of each pixel of the row, or null
+        */
+        private static void addRow ( byte[] pixels, int row, int stride, int width, int[] kernel, long[] sums, int[] values ){
+            long sum = 0;
+            long sumOfSquares = 0;
+            for (int x = 0; x < width; x++){
+                int grey;
+                if (kernel == null || x == 0 || x == width - 1) {
+                    grey = pixels[row + x] & 0xff;	// edges are copied unchanged
+                } else {
+                    grey = convolvePixel(pixels, row + x, stride, kernel);
+                }
+                int pix = GREY_TO_RGB[grey];
+                if (values != null)
+                    values[x] = pix;
                 sum += pix;
+                sumOfSquares += pix * pix;
             }
-            mean = sum  / data.size();
+            sums[0] += sum;
+            sums[1] += sumOfSquares;
+        }
+
+        /** 
+        * Convolve one pixel that has all its neighbours as ConvolveOp would
+        *
+        * @param pixels The greyscale pixels
+        * @param here Index of the pixel
+        * @param stride The distance between rows
+        * @param kernel 3x3 kernel to convolve with
+        * @return the grey level, clamped to 0-255
+        */
+        private static int convolvePixel ( byte[] pixels, int here, int stride, int[] kernel ){
+            int above = here - stride, below = here + stride;
+            // ConvolveOp convolves, so the kernel is applied rotated 180 degrees
+            int grey = kernel[8] * (pixels[above - 1] & 0xff) + kernel[7] * (pixels[above] & 0xff) + kernel[6] * (pixels[above + 1] & 0xff)
+                     + kernel[5] * (pixels[here - 1] & 0xff)  + kernel[4] * (pixels[here] & 0xff)  + kernel[3] * (pixels[here + 1] & 0xff)
+                     + kernel[2] * (pixels[below - 1] & 0xff) + kernel[1] * (pixels[below] & 0xff) + kernel[0] * (pixels[below + 1] & 0xff);
+            return grey < 0 ? 0 : grey > 255 ? 255 : grey;
+        }
 
-            //find variance
-            int temp = 0;
-            for(int pix :data)
-                temp += (mean-pix)*(mean-pix);
-            variance = temp/data.size();
+        /** 
+        * The variance from the sums of the grey levels and their squares, using the
+        * integer mean as the original calculation did
+        */
+        private long variance ( long[] sums, long size ){
+            long sum = sums[0];
+            long sumOfSquares = sums[1];
+            long mean = sum / size;
+            // sum of (mean - pix)^2, expanded so it can be accumulated in the same pass
+            long variance = (sumOfSquares - 2 * mean * sum + size * mean * mean) / size;
             
             dbg("Sum: " + sum);
-            dbg("Size: " + data.size());
+            dbg("Size: " + size);
             dbg("Mean: " + mean);
             dbg("Variance: " + variance);
 
             return variance;
         }
-}
 
+        /** A blur map for a working image, or null if there is no tile grid */
+        private BlurMap newBlurMap ( int width, int height ){
+            return tileCols > 0 ? new BlurMap(width, height, tileCols, tileRows) : null;
+        }
+
+        /**
+        * The size of the working image for an image
+        *
+        * @param img The image
+        * @return The width and height
+        */
+        private int[] getWorkingSize ( BufferedImage img ){
+            if (longEdge > 0)
+                return GreyResizer.scaledSize(img.getWidth(), img.getHeight(), longEdge);
+            if (scale > 0)
+                return GreyResizer.scaledSize(img.getWidth(), img.getHeight(), scale);
+            return new int[] {WORKING_WIDTH, WORKING_HEIGHT};
+        }
+
+        /**
+        * The kernel as integers, if all its weights are whole numbers
+        *
+        * @param kernel a 3x3 kernel
+        * @return the integer weights, or null if the kernel needs float arithmetic
+        */
+        private static int[] integerKernel(float[] kernel){
+            if (kernel.length != 9)
+                return null;
+            int[] weights = new int[9];
+            for (int i = 0; i < 9; i++){
+                weights[i] = (int) kernel[i];
+                if (weights[i] != kernel[i] || Math.abs(weights[i]) > 1 << 16)
+                    return null;
+            }
+            return weights;
+        }
+
+        private static int[] greyToRgb(){
+            BufferedImage levels = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+            for (int i = 0; i < 256; i++)
+                levels.getRaster().setSample(i, 0, 0, i);
+            int[] rgb = new int[256];
+            for (int i = 0; i < 256; i++)
+                rgb[i] = (levels.getRGB(i, 0) >> 16) & 0xff;
+            return rgb;
+        }
+
+        /**
+        * Stream the greyscale working image through the kernel a row at a time
+        * rather than creating it and the convolved image whole
+        *
+        * The working image is sampled nearest neighbour with an integer luma (see
+        * GreyRowSampler) rather than by drawImage, so the variance is a little
+        * different from the default. Ignored when the debug images are made, as
+        * they are needed whole, and for kernels with fractional weights.
+        *
+        * @param streaming Whether to stream, false by default
+        */
+        public void setStreaming(boolean streaming){
+            this.streaming = streaming;
+        }
+
+        /**
+        * Resize to fit a long edge, keeping the aspect ratio, rather than to 500x500
+        *
+        * The variance then no longer depends on the shape of the image. Images
+        * already smaller are not enlarged. Images read from a file are decoded at
+        * no less than 500x500 (see SubsampledImageReader), so a long edge much
+        * over 500 gains little for them. Thresholds tuned for the fixed size may
+        * need adjusting.
+        *
+        * @param longEdge The most pixels along the longer side, 0 for the fixed 500x500
+        */
+        public void setLongEdge(int longEdge){
+            this.longEdge = Math.max(0, longEdge);
+            this.scale = 0;
+        }
+
+        public int getLongEdge(){
+            return this.longEdge;
+        }
+
+        /**
+        * Resize by a factor, keeping the aspect ratio, rather than to 500x500
+        *
+        * @param scale The factor to scale by, 0 for the fixed 500x500
+        */
+        public void setScale(double scale){
+            this.scale = Math.max(0, scale);
+            this.longEdge = 0;
+        }
+
+        public double getScale(){
+            return this.scale;
+        }
+
+        /**
+        * Measure sharpness metrics of the working image as well as the variance,
+        * into metrics, when the test is run
+        *
+        * @param sharpnessEngine The engine to measure with, or null for none
+        */
+        public void setSharpnessEngine(SharpnessEngine sharpnessEngine){
+            this.sharpnessEngine = sharpnessEngine;
+        }
+
+        public SharpnessEngine getSharpnessEngine(){
+            return this.sharpnessEngine;
+        }
+
+        /**
+        * Map the variance of each region of the working image, into blurMap, when
+        * the test is run
+        *
+        * Summed-area tables are kept so any region's variance can be read, and
+        * the image is split into a grid of tiles for summary statistics. Fewer
+        * tiles are used if the working image is smaller than the grid.
+        *
+        * @param cols The number of tiles across, 0 for no map (the default)
+        * @param rows The number of tiles down
+        */
+        public void setTileGrid(int cols, int rows){
+            boolean map = cols > 0 && rows > 0;
+            this.tileCols = map ? cols : 0;
+            this.tileRows = map ? rows : 0;
+        }
+
+        public int getTileCols(){
+            return this.tileCols;
+        }
+
+        public int getTileRows(){
+            return this.tileRows;
+        }
+
+        /**
+        * Send messages, results and debug images to a diagnostics sink rather
+        * than printing the messages and writing the images to the working
+        * directory
+        *
+        * The sink decides which checks' images are made (see
+        * BlurCheckDiagnostics.wantsImages), the debug flag is then ignored.
+        *
+        * @param diagnostics The sink, or null for the standard output and working directory
+        */
+        public void setDiagnostics(BlurCheckDiagnostics diagnostics){
+            this.diagnostics = diagnostics;
+        }
+
+        public BlurCheckDiagnostics getDiagnostics(){
+            return this.diagnostics;
+        }
+}
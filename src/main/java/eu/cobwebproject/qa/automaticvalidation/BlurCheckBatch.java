@@ -0,0 +1,351 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+* Blur checks large batches of image files concurrently
+*
+* The work is pipelined in two stages on separate threads:
+* 1. Decode: read the file subsampled and greyscale/resize it to the working image
+* 2. Analyse: convolve with the Laplace kernel and measure the variance
+*
+* Decoding dominates, so there are more decode threads than analysis threads
+* by default. The stages are joined by a bounded queue, so decoders wait when
+* the analysis falls behind. Only the decode threads ever hold a full
+* resolution image, so memory use is bounded by the number of decode threads
+* whatever the size of the batch. Files are taken from the input one at a
+* time, so the input can be a lazy stream of any length.
+*
+* Each result is passed to a Listener as soon as it is ready, from the
+* analysis threads. BlurCheckReport writes results as CSV or JSON.
+*
+* Example Usage:
+*     BlurCheckBatch batch = new BlurCheckBatch(1500);
+*     BlurCheckReport report = BlurCheckReport.csv(new FileWriter("blur.csv"));
+*     batch.checkDirectory(new File("uploads"), report);
+*     report.close();
+*/
+public class BlurCheckBatch {
+        /** File extensions checkDirectory treats as images */
+        public static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif", ".bmp"};
+
+        /** The outcome of checking one file */
+        public static class Result {
+            public final File file;
+            /** Laplace variance value of the image, 0 if it could not be read, estimated with a fast decision */
+            public final long variance;
+            /** Whether the image passed the blur check threshold, null if it could not be read */
+            public final Boolean pass;
+            /** Time taken reading, decoding and resizing the image */
+            public final long decodeNanos;
+            /** Time taken measuring the blur */
+            public final long analysisNanos;
+            /** Why the image could not be read, null if it was checked */
+            public final Exception error;
+
+            Result(File file, long variance, Boolean pass, long decodeNanos, long analysisNanos, Exception error) {
+                this.file = file;
+                this.variance = variance;
+                this.pass = pass;
+                this.decodeNanos = decodeNanos;
+                this.analysisNanos = analysisNanos;
+                this.error = error;
+            }
+        }
+
+        /** Receives results as they are produced, must be safe to call from several threads at once */
+        public interface Listener {
+            void onResult(Result result);
+        }
+
+        private static final Decoded END = new Decoded(null, null, 0, null);		// tells an analysis thread to stop
+
+        private final int threshold;
+        private int decodeThreads;
+        private int analysisThreads;
+        private int queueCapacity;
+        private boolean fastDecision;
+        private BlurCheckDiagnostics diagnostics = BlurCheckDiagnostics.NONE;
+
+        /**
+         * Construct a batch checker, with decode threads for every core and an
+         * analysis thread for every four
+         *
+         * @param threshold The threshold value for sharpness (1500 is sensible)
+         */
+        public BlurCheckBatch(int threshold) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            this.threshold = threshold;
+            this.decodeThreads = cores;
+            this.analysisThreads = Math.max(1, cores / 4);
+            this.queueCapacity = 4 * analysisThreads;
+        }
+
+        /**
+         * Check every image in a directory (not its subdirectories)
+         *
+         * @param directory The directory of images, see IMAGE_EXTENSIONS
+         * @param listener Receives the result for each image
+         * @return The number of images checked
+         * @throws IOException If the directory can't be listed
+         * @throws InterruptedException If interrupted while waiting for the checks
+         */
+        public int checkDirectory(File directory, Listener listener) throws IOException, InterruptedException {
+            File[] files = directory.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    String name = file.getName().toLowerCase();
+                    for (String extension : IMAGE_EXTENSIONS) {
+                        if (name.endsWith(extension))
+                            return file.isFile();
+                    }
+                    return false;
+                }
+            });
+            if (files == null)
+                throw new IOException("Could not list " + directory);
+            Arrays.sort(files);
+            return check(Arrays.asList(files).iterator(), listener);
+        }
+
+        /**
+         * Check a stream of image files
+         *
+         * @param files The files to check, taken one at a time as the decoders are ready
+         * @param listener Receives the result for each file, in no particular order
+         * @return The number of files checked
+         * @throws InterruptedException If interrupted while waiting for the checks, the remaining files are not checked
+         * @throws RuntimeException If the listener throws, the remaining files are not checked
+         */
+        public int check(Iterator<File> files, Listener listener) throws InterruptedException {
+            Pipeline pipeline = new Pipeline(files, listener);
+            ExecutorService pool = Executors.newFixedThreadPool(decodeThreads + analysisThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "blur-check-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                Future<?>[] stages = new Future<?>[decodeThreads + analysisThreads];
+                for (int i = 0; i < decodeThreads; i++)
+                    stages[i] = pool.submit(pipeline.new Decoder());
+                for (int i = 0; i < analysisThreads; i++)
+                    stages[decodeThreads + i] = pool.submit(pipeline.new Analyser());
+                for (Future<?> stage : stages)
+                    stage.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Blur check failed", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+            if (pipeline.failure.get() != null)
+                throw pipeline.failure.get();
+            return pipeline.checked.get();
+        }
+
+        /**
+         * The state of one call to check, shared by its decode and analysis threads
+         */
+        private class Pipeline {
+            private final Iterator<File> files;
+            private final Listener listener;
+            private final BlockingQueue<Decoded> decoded = new ArrayBlockingQueue<Decoded>(queueCapacity);
+            private final AtomicInteger decoders = new AtomicInteger(decodeThreads);
+            private final AtomicInteger checked = new AtomicInteger();
+            private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+            Pipeline(Iterator<File> files, Listener listener) {
+                this.files = files;
+                this.listener = listener;
+            }
+
+            private File nextFile() {
+                synchronized (files) {
+                    return failure.get() == null && files.hasNext() ? files.next() : null;
+                }
+            }
+
+            /** Reads files and queues their working images until the files run out */
+            class Decoder implements Runnable {
+                @Override
+                public void run() {
+                    try {
+                        File file;
+                        while ((file = nextFile()) != null) {
+                            long start = System.nanoTime();
+                            BufferedImage grey = null;
+                            Exception error = null;
+                            try {
+                                BufferedImage image = SubsampledImageReader.read(file, BlurCheckAwt.WORKING_WIDTH, BlurCheckAwt.WORKING_HEIGHT);
+                                grey = newCheck(image).convertImageToGrey(image);
+                            } catch (IOException | RuntimeException e) {
+                                error = e;
+                            }
+                            decoded.put(new Decoded(file, grey, System.nanoTime() - start, error));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        if (decoders.decrementAndGet() == 0)
+                            endAnalysis();		// the last decoder to finish stops the analysers
+                    }
+                }
+
+                private void endAnalysis() {
+                    try {
+                        for (int i = 0; i < analysisThreads; i++)
+                            decoded.put(END);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            /** Checks the queued working images until the decoders have finished */
+            class Analyser implements Runnable {
+                @Override
+                public void run() {
+                    try {
+                        Decoded item;
+                        while ((item = decoded.take()) != END) {
+                            if (failure.get() != null)
+                                continue;			// keep draining so the decoders can finish
+                            Result result = analyse(item);
+                            checked.incrementAndGet();
+                            try {
+                                listener.onResult(result);
+                            } catch (RuntimeException e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                private Result analyse(Decoded item) {
+                    if (item.error != null)
+                        return new Result(item.file, 0, null, item.decodeNanos, 0, item.error);
+                    long start = System.nanoTime();
+                    try {
+                        BlurCheckAwt check = newCheck(item.grey);	// already the working size, so resizing is a copy
+                        check.setFastDecision(fastDecision);
+                        check.run();
+                        return new Result(item.file, check.variance, check.pass, item.decodeNanos, System.nanoTime() - start, null);
+                    } catch (RuntimeException e) {
+                        return new Result(item.file, 0, null, item.decodeNanos, System.nanoTime() - start, e);
+                    }
+                }
+            }
+        }
+
+        /** A check reporting to the batch's diagnostics, by default none as there would be thousands of messages */
+        private BlurCheckAwt newCheck(BufferedImage image) {
+            BlurCheckAwt check = new BlurCheckAwt(image, threshold, false);
+            check.setDiagnostics(diagnostics);
+            return check;
+        }
+
+        /** A decoded working image waiting for analysis */
+        private static class Decoded {
+            final File file;
+            final BufferedImage grey;
+            final long decodeNanos;
+            final Exception error;
+
+            Decoded(File file, BufferedImage grey, long decodeNanos, Exception error) {
+                this.file = file;
+                this.grey = grey;
+                this.decodeNanos = decodeNanos;
+                this.error = error;
+            }
+        }
+
+        /////////////////////////
+        // GETTERS AND SETTERS //
+        /////////////////////////
+
+        /**
+         * Set the number of threads reading and decoding images, each holds one full resolution image
+         *
+         * @param decodeThreads The number of decode threads
+         */
+        public void setDecodeThreads(int decodeThreads) {
+            this.decodeThreads = Math.max(1, decodeThreads);
+        }
+
+        public int getDecodeThreads() {
+            return this.decodeThreads;
+        }
+
+        /**
+         * Set the number of threads measuring blur
+         *
+         * @param analysisThreads The number of analysis threads
+         */
+        public void setAnalysisThreads(int analysisThreads) {
+            this.analysisThreads = Math.max(1, analysisThreads);
+        }
+
+        public int getAnalysisThreads() {
+            return this.analysisThreads;
+        }
+
+        /**
+         * Set how many decoded images may wait for analysis before the decoders wait
+         *
+         * @param queueCapacity The capacity of the queue between the stages
+         */
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = Math.max(1, queueCapacity);
+        }
+
+        public int getQueueCapacity() {
+            return this.queueCapacity;
+        }
+
+        /**
+         * Decide clearly sharp or blurred images from a sample of their pixels,
+         * see BlurCheckRunnable.setFastDecision
+         *
+         * @param fastDecision Whether to decide from a sample, false by default
+         */
+        public void setFastDecision(boolean fastDecision) {
+            this.fastDecision = fastDecision;
+        }
+
+        public boolean isFastDecision() {
+            return this.fastDecision;
+        }
+
+        /**
+         * Set where the checks' messages, results and debug images go, see AsyncDiagnostics
+         *
+         * @param diagnostics The sink, or null to discard them (the default)
+         */
+        public void setDiagnostics(BlurCheckDiagnostics diagnostics) {
+            this.diagnostics = diagnostics == null ? BlurCheckDiagnostics.NONE : diagnostics;
+        }
+
+        public BlurCheckDiagnostics getDiagnostics() {
+            return this.diagnostics;
+        }
+}
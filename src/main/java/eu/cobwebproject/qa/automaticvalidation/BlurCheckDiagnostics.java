@@ -0,0 +1,73 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+
+/**
+* Receives the diagnostics of blur checks, in place of printing them and
+* writing the working images to the current directory
+*
+* A check with no diagnostics set behaves as it always has: messages go to
+* standard out and, with debug on, the greyscale and Laplace images are
+* JPEG encoded into the working directory before the check finishes. Set a
+* sink to route them elsewhere, see BlurCheckAwt.setDiagnostics and
+* AsyncDiagnostics. The sink is called from the checking threads, so it must
+* be safe to use from several at once and should return quickly.
+*/
+public interface BlurCheckDiagnostics {
+
+        /** Discards all diagnostics */
+        BlurCheckDiagnostics NONE = new BlurCheckDiagnostics() {
+            @Override
+            public void message(String source, String message) {
+            }
+
+            @Override
+            public void result(String source, BlurCheckRunnable check, long nanos) {
+            }
+
+            @Override
+            public boolean wantsImages(String source) {
+                return false;
+            }
+
+            @Override
+            public void images(String source, BufferedImage grey, BufferedImage laplace) {
+            }
+        };
+
+        /**
+         * A debug message from a check
+         *
+         * @param source The file name of the image checked, or "imagebuffer"
+         * @param message The message
+         */
+        void message(String source, String message);
+
+        /**
+         * A check has finished
+         *
+         * @param source The file name of the image checked, or "imagebuffer"
+         * @param check The check, with its pass, variance and estimated results
+         * @param nanos The time the check took
+         */
+        void result(String source, BlurCheckRunnable check, long nanos);
+
+        /**
+         * Whether to make the working images of a check, asked as it starts so
+         * checks whose images are not wanted don't pay for them. Checks that
+         * make their images are calculated in full, not streamed or estimated.
+         *
+         * @param source The file name of the image checked, or "imagebuffer"
+         * @return Whether images should be passed to images
+         */
+        boolean wantsImages(String source);
+
+        /**
+         * The working images of a check that wantsImages, which the check does not change afterwards
+         *
+         * @param source The file name of the image checked, or "imagebuffer"
+         * @param grey The greyscale working image
+         * @param laplace The working image convolved with the Laplace kernel
+         */
+        void images(String source, BufferedImage grey, BufferedImage laplace);
+}
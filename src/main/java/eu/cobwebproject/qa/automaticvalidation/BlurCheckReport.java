@@ -0,0 +1,156 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+* Writes blur check results to a CSV or JSON report as they arrive
+*
+* Results are written one at a time, so a report can be given to several
+* BlurCheckBatch analysis threads at once. Close the report when the batch
+* is done to finish it and close the writer.
+*
+* Example Usage:
+*     BlurCheckReport report = BlurCheckReport.json(new FileWriter("blur.json"));
+*     try {
+*         new BlurCheckBatch(1500).checkDirectory(new File("uploads"), report);
+*     } finally {
+*         report.close();
+*     }
+*/
+public abstract class BlurCheckReport implements BlurCheckBatch.Listener, Closeable {
+        protected final Writer out;
+
+        protected BlurCheckReport(Writer out) {
+            this.out = out;
+        }
+
+        /**
+         * A report with a header line and a line for each file:
+         *     file,variance,pass,decodeMillis,analysisMillis,error
+         *
+         * @param out Where to write the report
+         * @return The report
+         */
+        public static BlurCheckReport csv(Writer out) {
+            return new BlurCheckReport(out) {
+                {
+                    write("file,variance,pass,decodeMillis,analysisMillis,error\n");
+                }
+
+                @Override
+                protected String format(BlurCheckBatch.Result result) {
+                    return csvField(result.file.getPath()) + ","
+                            + result.variance + ","
+                            + (result.pass == null ? "" : result.pass) + ","
+                            + millis(result.decodeNanos) + ","
+                            + millis(result.analysisNanos) + ","
+                            + (result.error == null ? "" : csvField(String.valueOf(result.error))) + "\n";
+                }
+            };
+        }
+
+        /**
+         * A report holding a JSON array with an object for each file, the
+         * array is finished when the report is closed
+         *
+         * @param out Where to write the report
+         * @return The report
+         */
+        public static BlurCheckReport json(Writer out) {
+            return new BlurCheckReport(out) {
+                private boolean first = true;
+
+                {
+                    write("[");
+                }
+
+                @Override
+                protected String format(BlurCheckBatch.Result result) {
+                    String separator = first ? "\n" : ",\n";
+                    first = false;
+                    return separator + "{\"file\":" + jsonString(result.file.getPath())
+                            + ",\"variance\":" + result.variance
+                            + ",\"pass\":" + result.pass
+                            + ",\"decodeMillis\":" + millis(result.decodeNanos)
+                            + ",\"analysisMillis\":" + millis(result.analysisNanos)
+                            + ",\"error\":" + (result.error == null ? "null" : jsonString(String.valueOf(result.error))) + "}";
+                }
+
+                @Override
+                protected String end() {
+                    return "\n]\n";
+                }
+            };
+        }
+
+        /**
+         * @param result The result to report
+         * @return The text for the result, called with the lock held
+         */
+        protected abstract String format(BlurCheckBatch.Result result);
+
+        /**
+         * @return The text that finishes the report
+         */
+        protected String end() {
+            return "";
+        }
+
+        @Override
+        public synchronized void onResult(BlurCheckBatch.Result result) {
+            write(format(result));
+        }
+
+        /**
+         * Finishes the report and closes the writer
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                out.write(end());
+            } finally {
+                out.close();
+            }
+        }
+
+        protected void write(String text) {
+            try {
+                out.write(text);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write blur check report", e);
+            }
+        }
+
+        private static String millis(long nanos) {
+            return String.valueOf(nanos / 1000000.0);
+        }
+
+        private static String csvField(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+                return value;
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+
+        private static String jsonString(String value) {
+            StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                case '"':  quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    else
+                        quoted.append(c);
+                }
+            }
+            return quoted.append('"').toString();
+        }
+}
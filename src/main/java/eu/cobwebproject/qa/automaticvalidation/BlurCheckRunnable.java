@@ -26,6 +26,7 @@ public abstract class BlurCheckRunnable implements Runnable {
         /* Check this after the test is run for the result. This is null if process has not yet been "run()" */
         public Boolean pass; //Whether the image passed blur check threshold
         public long variance; //Laplace variance value of the image
+        public boolean estimated; //Whether the variance was estimated from a sample, see setFastDecision
         
         
         /*********/
@@ -34,6 +35,7 @@ public abstract class BlurCheckRunnable implements Runnable {
         protected BufferedImage bufImg; 
         protected int threshold;
         protected boolean debug;
+        protected boolean fastDecision;
 
         /** Executes the test. Can run as a thread but should be quite fast anyway */
         public abstract void run();
@@ -57,4 +59,25 @@ public abstract class BlurCheckRunnable implements Runnable {
 			this.threshold = threshold;
             this.debug = debug;
 		}
+
+        /**
+         * Decide from a sample of the pixels when the image is clearly sharp or blurred
+         *
+         * The variance is estimated from a stratified random sample of pixels,
+         * growing until a confidence interval around it is entirely above or
+         * below the threshold, and calculated in full only if that does not
+         * happen soon. The variance is then an estimate (see estimated), and
+         * an image within the interval of the threshold may rarely be decided
+         * differently from the full calculation. The sample is seeded, so an
+         * image is always decided the same way.
+         *
+         * @param fastDecision Whether to decide from a sample, false by default
+         */
+        public void setFastDecision(boolean fastDecision) {
+            this.fastDecision = fastDecision;
+        }
+
+        public boolean isFastDecision() {
+            return this.fastDecision;
+        }
 }
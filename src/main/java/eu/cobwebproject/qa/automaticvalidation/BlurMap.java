@@ -0,0 +1,205 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.util.Arrays;
+
+/**
+* The blur of each region of a working image, to find partially blurred photos
+*
+* A single variance for the whole frame fails a sharp subject on a soft
+* background and passes a photo with one smeared region. The map keeps
+* summed-area tables of the convolved grey levels and their squares, so the
+* variance of any rectangle costs four lookups, and splits the image into a
+* grid of tiles for summary statistics.
+*
+* Variances are calculated as BlurCheckAwt calculates the global one, so the
+* whole image has the same variance as the check and tiles can be compared
+* with the same threshold.
+*
+* Example Usage:
+*     test.setTileGrid(8, 8);
+*     test.run();
+*     if (!test.pass && test.blurMap.getMaximum() > 1500) { //.. part of the photo is sharp
+*/
+public final class BlurMap {
+        private final int width;
+        private final int height;
+        private final int cols;
+        private final int rows;
+        private final long[] tables;		// (width + 1) x (height + 1) corners, the sum and sum of squares above and left of each
+        private int rowsAdded;
+
+        /**
+         * Start a map, the rows of the convolved image are then added in order
+         *
+         * @param width The width of the working image
+         * @param height The height of the working image
+         * @param cols The number of tiles across, at most the width
+         * @param rows The number of tiles down, at most the height
+         */
+        BlurMap(int width, int height, int cols, int rows) {
+            this.width = width;
+            this.height = height;
+            this.cols = Math.max(1, Math.min(cols, width));
+            this.rows = Math.max(1, Math.min(rows, height));
+            this.tables = new long[2 * (width + 1) * (height + 1)];
+        }
+
+        /**
+         * Add the next row of the convolved image
+         *
+         * @param values The grey levels of the row
+         */
+        void addRow(int[] values) {
+            int above = 2 * rowsAdded * (width + 1) + 2;
+            int here = above + 2 * (width + 1);
+            long sum = 0;
+            long sumOfSquares = 0;
+            for (int x = 0; x < width; x++) {
+                int value = values[x];
+                sum += value;
+                sumOfSquares += value * value;
+                tables[here + 2 * x] = tables[above + 2 * x] + sum;
+                tables[here + 2 * x + 1] = tables[above + 2 * x + 1] + sumOfSquares;
+            }
+            rowsAdded++;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return The number of tiles across
+         */
+        public int getCols() {
+            return cols;
+        }
+
+        /**
+         * @return The number of tiles down
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * The variance of a rectangle of the working image
+         *
+         * @param x The left of the rectangle
+         * @param y The top of the rectangle
+         * @param regionWidth The width of the rectangle
+         * @param regionHeight The height of the rectangle
+         * @return The variance of the convolved grey levels in it, 0 if it is empty
+         * @throws IndexOutOfBoundsException If the rectangle is not inside the image
+         */
+        public long getVariance(int x, int y, int regionWidth, int regionHeight) {
+            if (x < 0 || y < 0 || regionWidth < 0 || regionHeight < 0 || x + regionWidth > width || y + regionHeight > height)
+                throw new IndexOutOfBoundsException("Region " + x + "," + y + " " + regionWidth + "x" + regionHeight + " is outside " + width + "x" + height);
+            long size = (long) regionWidth * regionHeight;
+            if (size == 0)
+                return 0;
+            int topLeft = 2 * (y * (width + 1) + x);
+            int topRight = topLeft + 2 * regionWidth;
+            int bottomLeft = topLeft + 2 * regionHeight * (width + 1);
+            int bottomRight = bottomLeft + 2 * regionWidth;
+            long sum = tables[bottomRight] - tables[bottomLeft] - tables[topRight] + tables[topLeft];
+            long sumOfSquares = tables[bottomRight + 1] - tables[bottomLeft + 1] - tables[topRight + 1] + tables[topLeft + 1];
+            long mean = sum / size;
+            return (sumOfSquares - 2 * mean * sum + size * mean * mean) / size;
+        }
+
+        /**
+         * The variance of a tile, tiles split the image as evenly as whole pixels allow
+         *
+         * @param col The tile column
+         * @param row The tile row
+         * @return The variance of the tile
+         */
+        public long getTileVariance(int col, int row) {
+            int left = (int) ((long) col * width / cols);
+            int top = (int) ((long) row * height / rows);
+            int right = (int) ((long) (col + 1) * width / cols);
+            int bottom = (int) ((long) (row + 1) * height / rows);
+            return getVariance(left, top, right - left, bottom - top);
+        }
+
+        /**
+         * @return The variance of every tile, a row of tiles at a time
+         */
+        public long[] getTileVariances() {
+            long[] variances = new long[cols * rows];
+            for (int row = 0; row < rows; row++)
+                for (int col = 0; col < cols; col++)
+                    variances[row * cols + col] = getTileVariance(col, row);
+            return variances;
+        }
+
+        /**
+         * @return The variance of the blurriest tile
+         */
+        public long getMinimum() {
+            return sortedTileVariances()[0];
+        }
+
+        /**
+         * @return The variance of the sharpest tile
+         */
+        public long getMaximum() {
+            long[] variances = sortedTileVariances();
+            return variances[variances.length - 1];
+        }
+
+        /**
+         * @return The median tile variance, the mean of the middle two for an even number of tiles
+         */
+        public long getMedian() {
+            long[] variances = sortedTileVariances();
+            int middle = variances.length / 2;
+            return variances.length % 2 == 1 ? variances[middle] : (variances[middle - 1] + variances[middle]) / 2;
+        }
+
+        /**
+         * @return The mean tile variance
+         */
+        public double getMean() {
+            double total = 0;
+            for (long variance : getTileVariances())
+                total += variance;
+            return total / (cols * rows);
+        }
+
+        /**
+         * @param threshold The threshold for sharpness, as for the blur check
+         * @return The fraction of tiles with a variance above the threshold
+         */
+        public double getFractionAbove(long threshold) {
+            int above = 0;
+            for (long variance : getTileVariances()) {
+                if (variance > threshold)
+                    above++;
+            }
+            return above / (double) (cols * rows);
+        }
+
+        private long[] sortedTileVariances() {
+            long[] variances = getTileVariances();
+            Arrays.sort(variances);
+            return variances;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            long[] variances = getTileVariances();
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++)
+                    text.append(col == 0 ? "" : " ").append(variances[row * cols + col]);
+                text.append('\n');
+            }
+            return text.toString();
+        }
+}
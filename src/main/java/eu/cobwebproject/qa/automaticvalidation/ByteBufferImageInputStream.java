@@ -0,0 +1,64 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+* An ImageInputStream reading an image already in memory
+*
+* ImageIO.createImageInputStream has no stream for a ByteBuffer, and for an
+* InputStream over a byte array it caches what it reads, in a temporary file
+* unless caching is turned off. This reads straight from the buffer instead,
+* heap or direct, so an image held in a request body or message payload is
+* decoded without being copied or written to disk. The buffer's position and
+* limit are left as they are.
+*
+* Example Usage:
+*     BufferedImage image = SubsampledImageReader.read(new ByteBufferImageInputStream(ByteBuffer.wrap(body)), 500, 500);
+*/
+public final class ByteBufferImageInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer buffer;		// shares the caller's bytes, from their position to their limit
+
+        /**
+         * @param buffer The encoded image, from its position to its limit
+         */
+        public ByteBufferImageInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.slice();
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= buffer.limit())
+                return -1;
+            return buffer.get((int) streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            if (off < 0 || len < 0 || off + len > b.length || off + len < 0)
+                throw new IndexOutOfBoundsException("off " + off + ", len " + len + " for " + b.length + " bytes");
+            bitOffset = 0;
+            if (len == 0)
+                return 0;
+            if (streamPos >= buffer.limit())
+                return -1;
+            int count = (int) Math.min(len, buffer.limit() - streamPos);
+            buffer.position((int) streamPos);
+            buffer.get(b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        /**
+         * @return The number of bytes in the stream
+         */
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+}
@@ -0,0 +1,140 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+
+/**
+* Resizes images to greyscale by area averaging, in integer arithmetic
+*
+* Each output pixel is the mean of the source pixels it covers, weighted by
+* how much of each it covers, so every source pixel counts and none are
+* counted twice. Where the sizes divide exactly this is a plain box filter.
+* The weights are whole numbers (lengths measured in units of 1/width and
+* 1/height of a source pixel), so the result is exact and rounded once.
+*
+* The source is converted to grey a row at a time with GreyRowSampler, and
+* each source row is averaged across once, so the working memory is a few
+* rows whatever the size of the image.
+*
+* Example Usage:
+*     int[] size = GreyResizer.scaledSize(image.getWidth(), image.getHeight(), 500);
+*     BufferedImage grey = GreyResizer.resize(image, size[0], size[1]);
+*/
+public final class GreyResizer {
+
+        private GreyResizer() {
+        }
+
+        /**
+         * The size that fits an image to a long edge, keeping its aspect ratio
+         *
+         * Images already smaller are left their own size, enlarging them would only blur them.
+         *
+         * @param width The image width
+         * @param height The image height
+         * @param longEdge The most pixels wanted along the longer side
+         * @return The width and height
+         */
+        public static int[] scaledSize(int width, int height, int longEdge) {
+            int longest = Math.max(width, height);
+            if (longest <= longEdge)
+                return new int[] {width, height};
+            return scaledSize(width, height, longEdge / (double) longest);
+        }
+
+        /**
+         * The size of an image scaled by a factor, at least a pixel each way
+         *
+         * @param width The image width
+         * @param height The image height
+         * @param scale The factor to scale by
+         * @return The width and height
+         */
+        public static int[] scaledSize(int width, int height, double scale) {
+            return new int[] {(int) Math.max(1, Math.round(width * scale)), (int) Math.max(1, Math.round(height * scale))};
+        }
+
+        /**
+         * Resize an image to greyscale by area averaging
+         *
+         * @param image The image, of any size and type
+         * @param width The width wanted
+         * @param height The height wanted
+         * @return The resized image, TYPE_BYTE_GRAY
+         */
+        public static BufferedImage resize(BufferedImage image, int width, int height) {
+            int sourceWidth = image.getWidth();
+            int sourceHeight = image.getHeight();
+            BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            byte[] pixels = ((DataBufferByte) out.getRaster().getDataBuffer()).getData();
+
+            GreyRowSampler sampler = new GreyRowSampler(image, sourceWidth, sourceHeight);
+            Weights weights = new Weights(sourceWidth, width);
+            byte[] grey = new byte[sourceWidth];
+            int[] across = new int[width];		// the last source row averaged across
+            int acrossRow = -1;
+            long[] sums = new long[width];
+            long area = (long) sourceWidth * sourceHeight;
+
+            for (int y = 0; y < height; y++) {
+                // the output row covers [top, bottom) where source row r covers [r * height, (r + 1) * height)
+                long top = (long) y * sourceHeight;
+                long bottom = top + sourceHeight;
+                Arrays.fill(sums, 0);
+                for (int row = (int) (top / height); (long) row * height < bottom; row++) {
+                    long overlap = Math.min(bottom, (row + 1L) * height) - Math.max(top, (long) row * height);
+                    if (row != acrossRow) {
+                        sampler.sampleRow(row, grey, 0);
+                        weights.averageAcross(grey, across);
+                        acrossRow = row;
+                    }
+                    for (int x = 0; x < width; x++)
+                        sums[x] += across[x] * overlap;
+                }
+                for (int x = 0; x < width; x++)
+                    pixels[y * width + x] = (byte) ((sums[x] + area / 2) / area);
+            }
+            return out;
+        }
+
+        /**
+         * How much of each source column each output column covers, worked out
+         * once so averaging a row across is just multiplying and adding
+         */
+        private static class Weights {
+            final int[] first;			// first[x] to first[x + 1] are the entries for output column x
+            final int[] cols;
+            final int[] overlaps;
+
+            Weights(int sourceWidth, int width) {
+                first = new int[width + 1];
+                cols = new int[sourceWidth + width];
+                overlaps = new int[sourceWidth + width];
+                int entry = 0;
+                for (int x = 0; x < width; x++) {
+                    // output column x covers [left, right) where source column c covers [c * width, (c + 1) * width)
+                    long left = (long) x * sourceWidth;
+                    long right = left + sourceWidth;
+                    first[x] = entry;
+                    for (int col = (int) (left / width); (long) col * width < right; col++) {
+                        cols[entry] = col;
+                        overlaps[entry++] = (int) (Math.min(right, (col + 1L) * width) - Math.max(left, (long) col * width));
+                    }
+                }
+                first[width] = entry;
+            }
+
+            /**
+             * Sum a row of grey levels into the output columns, weighted by overlap, without dividing
+             */
+            void averageAcross(byte[] grey, int[] across) {
+                for (int x = 0; x < across.length; x++) {
+                    int sum = 0;
+                    for (int entry = first[x]; entry < first[x + 1]; entry++)
+                        sum += (grey[cols[entry]] & 0xff) * overlaps[entry];
+                    across[x] = sum;
+                }
+            }
+        }
+}
@@ -0,0 +1,201 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+* Samples an image scaled to a working size as rows of 8 bit grey, one row at a time
+*
+* Rows and columns are picked nearest neighbour, at the centre of each
+* working pixel, and colour is converted to luma with the integer
+* approximation (77r + 150g + 29b + 128) >> 8, composited over black where
+* the image is transparent. Only the pixels sampled are read, so a row costs
+* the working width whatever the size of the image.
+*
+* Interleaved byte and packed int images, which are what ImageIO decodes to,
+* are read straight from their data buffers. Anything else is read through
+* getRGB.
+*/
+final class GreyRowSampler {
+        private static final int GENERIC = 0;
+        private static final int BYTES = 1;
+        private static final int INTS = 2;
+
+        private final BufferedImage image;
+        private final int width;
+        private final int[] rows;
+        private final int[] cols;
+        private final int kind;
+        private final byte[] bytes;
+        private final int[] ints;
+        private final int start;
+        private final int stride;
+        private final int pixelStride;
+        private final int[] bands;		// byte offsets (BYTES) or shifts (INTS) of red, green, blue and alpha, or of the grey
+
+        /**
+         * @param image The image to sample
+         * @param width The width of the working image
+         * @param height The height of the working image
+         */
+        GreyRowSampler(BufferedImage image, int width, int height) {
+            this.image = image;
+            this.width = width;
+            this.rows = positions(image.getHeight(), height);
+            this.cols = positions(image.getWidth(), width);
+
+            WritableRaster raster = image.getRaster();
+            SampleModel sampleModel = raster.getSampleModel();
+            ColorModel colorModel = image.getColorModel();
+            int[] bandOffsets = null;
+            int[] shifts = null;
+            if (sampleModel instanceof ComponentSampleModel && raster.getDataBuffer() instanceof DataBufferByte)
+                bandOffsets = byteBands((ComponentSampleModel) sampleModel, colorModel);
+            else if (sampleModel instanceof SinglePixelPackedSampleModel && raster.getDataBuffer() instanceof DataBufferInt)
+                shifts = intBands(colorModel);
+
+            if (bandOffsets != null) {
+                ComponentSampleModel components = (ComponentSampleModel) sampleModel;
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                this.kind = BYTES;
+                this.bytes = buffer.getData();
+                this.ints = null;
+                this.start = buffer.getOffset() + components.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+                this.stride = components.getScanlineStride();
+                this.pixelStride = components.getPixelStride();
+                this.bands = bandOffsets;
+            } else if (shifts != null) {
+                SinglePixelPackedSampleModel packed = (SinglePixelPackedSampleModel) sampleModel;
+                DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                this.kind = INTS;
+                this.bytes = null;
+                this.ints = buffer.getData();
+                this.start = buffer.getOffset() + packed.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+                this.stride = packed.getScanlineStride();
+                this.pixelStride = 1;
+                this.bands = shifts;
+            } else {
+                this.kind = GENERIC;
+                this.bytes = null;
+                this.ints = null;
+                this.start = 0;
+                this.stride = 0;
+                this.pixelStride = 0;
+                this.bands = null;
+            }
+        }
+
+        /**
+         * Sample a row of the working image
+         *
+         * @param y The row of the working image
+         * @param out Where to put the grey levels of the row
+         * @param offset Where the row starts in out
+         */
+        void sampleRow(int y, byte[] out, int offset) {
+            int sourceRow = rows[y];
+            switch (kind) {
+            case BYTES:
+                int row = start + sourceRow * stride;
+                if (bands.length == 1) {
+                    for (int x = 0; x < width; x++)
+                        out[offset + x] = bytes[row + cols[x] * pixelStride + bands[0]];
+                } else {
+                    for (int x = 0; x < width; x++) {
+                        int pixel = row + cols[x] * pixelStride;
+                        int alpha = bands.length > 3 ? bytes[pixel + bands[3]] & 0xff : 0xff;
+                        out[offset + x] = (byte) luma(bytes[pixel + bands[0]] & 0xff, bytes[pixel + bands[1]] & 0xff, bytes[pixel + bands[2]] & 0xff, alpha);
+                    }
+                }
+                break;
+            case INTS:
+                row = start + sourceRow * stride;
+                for (int x = 0; x < width; x++) {
+                    int pixel = ints[row + cols[x]];
+                    int alpha = bands.length > 3 ? (pixel >>> bands[3]) & 0xff : 0xff;
+                    out[offset + x] = (byte) luma((pixel >>> bands[0]) & 0xff, (pixel >>> bands[1]) & 0xff, (pixel >>> bands[2]) & 0xff, alpha);
+                }
+                break;
+            default:
+                for (int x = 0; x < width; x++) {
+                    int argb = image.getRGB(cols[x], sourceRow);
+                    out[offset + x] = (byte) luma((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, argb >>> 24);
+                }
+            }
+        }
+
+        /**
+         * The grey level of a colour, over black if it is transparent
+         */
+        static int luma(int red, int green, int blue, int alpha) {
+            int grey = (77 * red + 150 * green + 29 * blue + 128) >> 8;
+            return alpha == 0xff ? grey : (grey * alpha + 127) / 255;
+        }
+
+        /**
+         * The source position at the centre of each working position
+         *
+         * @param from The source width or height
+         * @param to The working width or height
+         * @return The source column or row of each working column or row
+         */
+        static int[] positions(int from, int to) {
+            int[] positions = new int[to];
+            for (int i = 0; i < to; i++)
+                positions[i] = (int) ((2L * i + 1) * from / (2L * to));
+            return positions;
+        }
+
+        /**
+         * Offsets of the bands of 8 bit sRGB or grey pixels, null if the pixels are something else
+         */
+        private static int[] byteBands(ComponentSampleModel sampleModel, ColorModel colorModel) {
+            int bandCount = sampleModel.getNumBands();
+            for (int size : sampleModel.getSampleSize()) {
+                if (size != 8)
+                    return null;
+            }
+            for (int bank : sampleModel.getBankIndices()) {
+                if (bank != 0)
+                    return null;		// banded, not interleaved
+            }
+            if (colorModel.isAlphaPremultiplied() || colorModel.getNumComponents() != bandCount)
+                return null;
+            ColorSpace colorSpace = colorModel.getColorSpace();
+            boolean grey = bandCount == 1 && colorSpace.getType() == ColorSpace.TYPE_GRAY;
+            boolean rgb = (bandCount == 3 && !colorModel.hasAlpha() || bandCount == 4 && colorModel.hasAlpha()) && colorSpace.isCS_sRGB();
+            if (!grey && !rgb)
+                return null;
+            int[] offsets = new int[bandCount];
+            for (int band = 0; band < bandCount; band++)
+                offsets[band] = sampleModel.getOffset(0, 0, band) - sampleModel.getOffset(0, 0);
+            return offsets;
+        }
+
+        /**
+         * Shifts of the red, green, blue (and alpha) bytes of packed 8 bit sRGB pixels, null if the pixels are something else
+         */
+        private static int[] intBands(ColorModel colorModel) {
+            if (!(colorModel instanceof DirectColorModel) || colorModel.isAlphaPremultiplied() || !colorModel.getColorSpace().isCS_sRGB())
+                return null;
+            DirectColorModel direct = (DirectColorModel) colorModel;
+            int[] masks = direct.hasAlpha()
+                    ? new int[] {direct.getRedMask(), direct.getGreenMask(), direct.getBlueMask(), direct.getAlphaMask()}
+                    : new int[] {direct.getRedMask(), direct.getGreenMask(), direct.getBlueMask()};
+            int[] shifts = new int[masks.length];
+            for (int band = 0; band < masks.length; band++) {
+                shifts[band] = Integer.numberOfTrailingZeros(masks[band]);
+                if (masks[band] != 0xff << shifts[band])
+                    return null;
+            }
+            return shifts;
+        }
+}
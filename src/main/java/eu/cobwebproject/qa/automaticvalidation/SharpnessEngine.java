@@ -0,0 +1,179 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+* Measures several sharpness metrics of a greyscale image in one pass
+*
+* Each pixel's 3x3 neighbourhood is read once and every metric is updated
+* from it, so measuring four metrics costs little more than measuring one,
+* rather than four runs over the image. The sums are kept in integers, so
+* the results don't depend on the order rows are added.
+*
+* Example Usage:
+*     SharpnessEngine engine = new SharpnessEngine();
+*     SharpnessMetrics metrics = engine.measure(greyImage);
+*     if (metrics.get(SharpnessMetric.TENENGRAD) > 900 && metrics.get(SharpnessMetric.LAPLACIAN_VARIANCE) > 150) { // sharp
+*/
+public final class SharpnessEngine {
+        /** The standard metrics, measured by default */
+        public static final List<SharpnessMetric> STANDARD_METRICS = Collections.unmodifiableList(Arrays.asList(
+                SharpnessMetric.LAPLACIAN_VARIANCE, SharpnessMetric.TENENGRAD, SharpnessMetric.MODIFIED_LAPLACIAN, SharpnessMetric.LAPLACIAN8_VARIANCE));
+
+        private final List<SharpnessMetric> metrics;
+
+        /**
+         * Construct an engine measuring the standard metrics
+         */
+        public SharpnessEngine() {
+            this(STANDARD_METRICS);
+        }
+
+        /**
+         * Construct an engine measuring a set of metrics
+         *
+         * @param metrics The metrics to measure
+         */
+        public SharpnessEngine(List<SharpnessMetric> metrics) {
+            this.metrics = Collections.unmodifiableList(new ArrayList<SharpnessMetric>(metrics));
+        }
+
+        public List<SharpnessMetric> getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * Measure a greyscale image
+         *
+         * @param grey The image, TYPE_BYTE_GRAY
+         * @return The metrics
+         * @throws IllegalArgumentException If the image is not TYPE_BYTE_GRAY
+         */
+        public SharpnessMetrics measure(BufferedImage grey) {
+            WritableRaster raster = grey.getRaster();
+            if (grey.getType() != BufferedImage.TYPE_BYTE_GRAY || !(raster.getSampleModel() instanceof ComponentSampleModel))
+                throw new IllegalArgumentException("Expected a TYPE_BYTE_GRAY image");
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            int start = buffer.getOffset() + sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            return measure(buffer.getData(), start, sampleModel.getScanlineStride(), grey.getWidth(), grey.getHeight());
+        }
+
+        /**
+         * Measure greyscale pixels in a byte buffer
+         *
+         * @param pixels The grey levels
+         * @param offset Index of the top left pixel
+         * @param stride The distance between rows
+         * @param width The width in pixels
+         * @param height The height in pixels
+         * @return The metrics
+         */
+        public SharpnessMetrics measure(byte[] pixels, int offset, int stride, int width, int height) {
+            Pass pass = newPass();
+            for (int y = 1; y < height - 1; y++)
+                pass.addRow(pixels, offset + y * stride, stride, width);
+            return pass.result();
+        }
+
+        /**
+         * Start measuring an image a row at a time
+         */
+        Pass newPass() {
+            return new Pass();
+        }
+
+        /**
+         * The sums of one measurement, added to a row at a time
+         *
+         * The kernel variances are summed in the order of kernels, Tenengrad and
+         * the modified Laplacian once each however many times they are asked for.
+         */
+        final class Pass {
+            private final int[][] kernels;
+            private final long[] kernelSums;
+            private final long[] kernelSquares;
+            private final boolean tenengrad = metrics.contains(SharpnessMetric.TENENGRAD);
+            private final boolean modifiedLaplacian = metrics.contains(SharpnessMetric.MODIFIED_LAPLACIAN);
+            private long tenengradSum;
+            private long modifiedLaplacianSum;
+            private long pixelCount;
+
+            Pass() {
+                List<int[]> weights = new ArrayList<int[]>();
+                for (SharpnessMetric metric : metrics) {
+                    if (metric.kind == SharpnessMetric.Kind.KERNEL_VARIANCE)
+                        weights.add(metric.kernel);
+                }
+                kernels = weights.toArray(new int[weights.size()][]);
+                kernelSums = new long[kernels.length];
+                kernelSquares = new long[kernels.length];
+            }
+
+            /**
+             * Add the pixels of a row that have all their neighbours
+             *
+             * @param pixels The grey levels
+             * @param row Index of the first pixel of the row, there must be a row above and below it
+             * @param stride The distance between rows
+             * @param width The number of pixels in the row
+             */
+            void addRow(byte[] pixels, int row, int stride, int width) {
+                long tenengradRow = 0;
+                long modifiedLaplacianRow = 0;
+                for (int x = 1; x < width - 1; x++) {
+                    int above = row + x - stride, here = row + x, below = row + x + stride;
+                    int p0 = pixels[above - 1] & 0xff, p1 = pixels[above] & 0xff, p2 = pixels[above + 1] & 0xff;
+                    int p3 = pixels[here - 1] & 0xff,  p4 = pixels[here] & 0xff,  p5 = pixels[here + 1] & 0xff;
+                    int p6 = pixels[below - 1] & 0xff, p7 = pixels[below] & 0xff, p8 = pixels[below + 1] & 0xff;
+                    for (int i = 0; i < kernels.length; i++) {
+                        int[] k = kernels[i];
+                        long response = k[0] * p0 + k[1] * p1 + k[2] * p2 + k[3] * p3 + k[4] * p4 + k[5] * p5 + k[6] * p6 + k[7] * p7 + k[8] * p8;
+                        kernelSums[i] += response;
+                        kernelSquares[i] += response * response;
+                    }
+                    if (tenengrad) {
+                        int gx = (p2 + 2 * p5 + p8) - (p0 + 2 * p3 + p6);
+                        int gy = (p6 + 2 * p7 + p8) - (p0 + 2 * p1 + p2);
+                        tenengradRow += gx * gx + gy * gy;
+                    }
+                    if (modifiedLaplacian)
+                        modifiedLaplacianRow += Math.abs(2 * p4 - p3 - p5) + Math.abs(2 * p4 - p1 - p7);
+                }
+                tenengradSum += tenengradRow;
+                modifiedLaplacianSum += modifiedLaplacianRow;
+                pixelCount += Math.max(0, width - 2);
+            }
+
+            /**
+             * @return The metrics of the rows added so far, all 0 if there were none
+             */
+            SharpnessMetrics result() {
+                double[] values = new double[metrics.size()];
+                int kernel = 0;
+                for (int i = 0; i < values.length && pixelCount > 0; i++) {
+                    switch (metrics.get(i).kind) {
+                    case KERNEL_VARIANCE:
+                        double mean = kernelSums[kernel] / (double) pixelCount;
+                        values[i] = kernelSquares[kernel] / (double) pixelCount - mean * mean;
+                        kernel++;
+                        break;
+                    case TENENGRAD:
+                        values[i] = tenengradSum / (double) pixelCount;
+                        break;
+                    case MODIFIED_LAPLACIAN:
+                        values[i] = modifiedLaplacianSum / (double) pixelCount;
+                        break;
+                    }
+                }
+                return new SharpnessMetrics(metrics, values);
+            }
+        }
+}
@@ -0,0 +1,68 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.util.Arrays;
+
+/**
+* A focus measure that SharpnessEngine can compute, the higher the sharper
+*
+* The standard measures are constants, and any 3x3 integer kernel can be
+* measured by the variance of its response with kernelVariance. All are
+* measured on the raw grey levels of the pixels that have all eight
+* neighbours, with no clamping.
+*/
+public final class SharpnessMetric {
+        enum Kind { KERNEL_VARIANCE, TENENGRAD, MODIFIED_LAPLACIAN }
+
+        /** Variance of the 4 neighbour Laplacian */
+        public static final SharpnessMetric LAPLACIAN_VARIANCE = kernelVariance("laplacianVariance", new int[] {0, 1, 0, 1, -4, 1, 0, 1, 0});
+        /** Variance of the 8 neighbour Laplacian, which also responds to diagonal detail */
+        public static final SharpnessMetric LAPLACIAN8_VARIANCE = kernelVariance("laplacian8Variance", new int[] {1, 1, 1, 1, -8, 1, 1, 1, 1});
+        /** Tenengrad, the mean squared Sobel gradient magnitude (gradient energy) */
+        public static final SharpnessMetric TENENGRAD = new SharpnessMetric("tenengrad", Kind.TENENGRAD, null);
+        /** Modified Laplacian, the mean of |2p - left - right| + |2p - up - down| */
+        public static final SharpnessMetric MODIFIED_LAPLACIAN = new SharpnessMetric("modifiedLaplacian", Kind.MODIFIED_LAPLACIAN, null);
+
+        private final String name;
+        final Kind kind;
+        final int[] kernel;
+
+        private SharpnessMetric(String name, Kind kind, int[] kernel) {
+            this.name = name;
+            this.kind = kind;
+            this.kernel = kernel;
+        }
+
+        /**
+         * A metric measuring the variance of the response to a 3x3 kernel
+         *
+         * @param name The name of the metric
+         * @param kernel The weights in row-major order, applied as written (not rotated)
+         * @return The metric
+         * @throws IllegalArgumentException If the kernel is not 3x3 or has weights beyond +/-65536
+         */
+        public static SharpnessMetric kernelVariance(String name, int[] kernel) {
+            if (kernel.length != 9)
+                throw new IllegalArgumentException("Expected a 3x3 kernel, not " + kernel.length + " weights");
+            for (int weight : kernel) {
+                if (Math.abs(weight) > 1 << 16)
+                    throw new IllegalArgumentException("Kernel weight " + weight + " is too large");
+            }
+            return new SharpnessMetric(name, Kind.KERNEL_VARIANCE, kernel.clone());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The kernel weights, or null if this is not a kernel variance
+         */
+        public int[] getKernel() {
+            return kernel == null ? null : kernel.clone();
+        }
+
+        @Override
+        public String toString() {
+            return kind == Kind.KERNEL_VARIANCE ? name + Arrays.toString(kernel) : name;
+        }
+}
@@ -0,0 +1,53 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.util.List;
+
+/**
+* The values of the sharpness metrics measured on an image, see SharpnessEngine
+*/
+public final class SharpnessMetrics {
+        private final List<SharpnessMetric> metrics;
+        private final double[] values;
+
+        SharpnessMetrics(List<SharpnessMetric> metrics, double[] values) {
+            this.metrics = metrics;
+            this.values = values;
+        }
+
+        /**
+         * @param metric The metric
+         * @return Its value
+         * @throws IllegalArgumentException If the metric was not measured
+         */
+        public double get(SharpnessMetric metric) {
+            int index = metrics.indexOf(metric);
+            if (index < 0)
+                throw new IllegalArgumentException(metric + " was not measured");
+            return values[index];
+        }
+
+        /**
+         * @return The metrics measured, in the order of toArray
+         */
+        public List<SharpnessMetric> getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * @return The values as a vector, in the order of getMetrics
+         */
+        public double[] toArray() {
+            return values.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("{");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    text.append(", ");
+                text.append(metrics.get(i).getName()).append('=').append(values[i]);
+            }
+            return text.append('}').toString();
+        }
+}
@@ -0,0 +1,162 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+* Reads images at roughly the resolution they will be used at
+*
+* ImageIO.read decodes every pixel of a photo, only for the blur check to
+* shrink it to 500x500 straight away, so most of the time and memory goes on
+* pixels that are thrown away. Here the reader is asked to subsample the
+* source instead, keeping every n-th pixel so the result is still at least
+* the size asked for. Where the codec can decode straight to greyscale (JPEG
+* can, skipping the colour channels) it is asked to, so a 12 megapixel photo
+* is never held in memory as 36MB of colour.
+*
+* Images already in memory, or arriving on a stream, are read without
+* temporary files, see ByteBufferImageInputStream.
+*
+* Example Usage:
+*     BufferedImage image = SubsampledImageReader.read(new File("photo.jpg"), 500, 500);
+*/
+public final class SubsampledImageReader {
+
+        private SubsampledImageReader() {
+        }
+
+        /**
+         * Read an image file, subsampled to no less than a minimum size
+         *
+         * @param file The image file
+         * @param minWidth The width the image must be at least, unless it is smaller to start with
+         * @param minHeight The height the image must be at least, unless it is smaller to start with
+         * @return The image, greyscale if the codec could decode it that way
+         * @throws IOException If the file can't be read or is not in a format ImageIO supports
+         */
+        public static BufferedImage read(File file, int minWidth, int minHeight) throws IOException {
+            ImageInputStream in = ImageIO.createImageInputStream(file);
+            if (in == null)
+                throw new IOException("Could not open " + file);
+            return readFully(in, file.toString(), minWidth, minHeight);
+        }
+
+        /**
+         * Read an encoded image held in memory, subsampled to no less than a minimum size
+         *
+         * @param data The encoded image, from its position to its limit, which are left as they are
+         * @param minWidth The width the image must be at least, unless it is smaller to start with
+         * @param minHeight The height the image must be at least, unless it is smaller to start with
+         * @return The image, greyscale if the codec could decode it that way
+         * @throws IOException If the data is not an image in a format ImageIO supports
+         */
+        public static BufferedImage read(ByteBuffer data, int minWidth, int minHeight) throws IOException {
+            return readFully(new ByteBufferImageInputStream(data), "byte buffer", minWidth, minHeight);
+        }
+
+        /**
+         * Read an encoded image held in memory, subsampled to no less than a minimum size
+         *
+         * @param data The encoded image, which is not copied
+         * @param minWidth The width the image must be at least, unless it is smaller to start with
+         * @param minHeight The height the image must be at least, unless it is smaller to start with
+         * @return The image, greyscale if the codec could decode it that way
+         * @throws IOException If the data is not an image in a format ImageIO supports
+         */
+        public static BufferedImage read(byte[] data, int minWidth, int minHeight) throws IOException {
+            return read(ByteBuffer.wrap(data), minWidth, minHeight);
+        }
+
+        /**
+         * Read an encoded image from a stream, subsampled to no less than a minimum size
+         *
+         * What has been read is cached in memory, not in a temporary file as
+         * ImageIO would by default, as the reader may need to seek back.
+         *
+         * @param in The stream, which is read as far as the image goes and left open
+         * @param minWidth The width the image must be at least, unless it is smaller to start with
+         * @param minHeight The height the image must be at least, unless it is smaller to start with
+         * @return The image, greyscale if the codec could decode it that way
+         * @throws IOException If the stream can't be read or is not an image in a format ImageIO supports
+         */
+        public static BufferedImage read(InputStream in, int minWidth, int minHeight) throws IOException {
+            return readFully(new MemoryCacheImageInputStream(in), "input stream", minWidth, minHeight);
+        }
+
+        /**
+         * Read an image from a stream, subsampled to no less than a minimum size
+         *
+         * @param in The stream, which is left open
+         * @param minWidth The width the image must be at least, unless it is smaller to start with
+         * @param minHeight The height the image must be at least, unless it is smaller to start with
+         * @return The image, greyscale if the codec could decode it that way, or null if no reader
+         *         recognises the format (as ImageIO.read)
+         * @throws IOException If the image can't be read
+         */
+        public static BufferedImage read(ImageInputStream in, int minWidth, int minHeight) throws IOException {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+                return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling(reader.getWidth(0), minWidth), subsampling(reader.getHeight(0), minHeight), 0, 0);
+                ImageTypeSpecifier grey = greyType(reader);
+                if (grey != null)
+                    param.setDestinationType(grey);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        /**
+        * Read an image from a stream that is closed afterwards, failing if it is not an image
+        */
+        private static BufferedImage readFully(ImageInputStream in, String source, int minWidth, int minHeight) throws IOException {
+            try {
+                BufferedImage image = read(in, minWidth, minHeight);
+                if (image == null)
+                    throw new IOException("Unsupported image format: " + source);
+                return image;
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+        * The largest period that still leaves at least min of size pixels
+        *
+        * @param size The size of the source along an axis
+        * @param min The minimum size wanted along that axis
+        * @return The subsampling period, 1 to keep every pixel
+        */
+        static int subsampling(int size, int min) {
+            return min <= 0 ? 1 : Math.max(1, size / min);
+        }
+
+        /**
+        * The 8 bit greyscale destination the reader offers for the image, if any
+        */
+        private static ImageTypeSpecifier greyType(ImageReader reader) throws IOException {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            while (types.hasNext()) {
+                ImageTypeSpecifier type = types.next();
+                if (type.getBufferedImageType() == BufferedImage.TYPE_BYTE_GRAY)
+                    return type;
+            }
+            return null;
+        }
+}
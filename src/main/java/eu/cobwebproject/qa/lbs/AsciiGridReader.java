@@ -0,0 +1,280 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming reader for Arc ASCII grids
+ *
+ * Reads the grid through a fixed size buffer from a channel and parses
+ * numbers directly from the bytes, so reading the cells creates no
+ * objects. The header keys may come in any order, in any case and
+ * separated by any whitespace. Both the corner (xllcorner, yllcorner)
+ * and centre (xllcenter, yllcenter) forms of the origin are understood
+ * and NODATA_value is optional. The cells are read in row-major order
+ * regardless of how they are split across lines.
+ */
+final class AsciiGridReader {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final double DEFAULT_NO_DATA = -9999;
+	private static final int MAX_TOKEN = 64;
+	private static final int MAX_FAST_DIGITS = 15;		// below 2^53 so the mantissa is exact as a double
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final ReadableByteChannel channel;
+	private final byte[] bytes = new byte[BUFFER_SIZE];
+	private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	private final byte[] token = new byte[MAX_TOKEN];	// the current token, kept for slow path parsing and errors
+	private int tokenLength;
+	private int position;
+	private int limit;
+	private long offset;		// bytes consumed before the start of the buffer
+	private Parameters params;	// from the header, once it has been read
+
+	/**
+	 * @param channel The channel to read the grid from, this is not closed by the reader
+	 */
+	AsciiGridReader(ReadableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Reads the header of the grid
+	 *
+	 * @return The parameters from the header
+	 * @throws IOException If there is a problem reading the channel or the header is invalid
+	 */
+	Parameters readHeader() throws IOException {
+		double nCols = Double.NaN, nRows = Double.NaN, x = Double.NaN, y = Double.NaN, cellSize = Double.NaN;
+		double noData = DEFAULT_NO_DATA;
+		boolean xCenter = false, yCenter = false;
+
+		while (skipWhitespace() && isLetter(peek())) {
+			String key = readKey();
+			double value = readNumber();
+			if(key.equals("ncols")) {
+				nCols = value;
+			} else if(key.equals("nrows")) {
+				nRows = value;
+			} else if(key.equals("xllcorner") || key.equals("xllcenter")) {
+				x = value;
+				xCenter = key.endsWith("center");
+			} else if(key.equals("yllcorner") || key.equals("yllcenter")) {
+				y = value;
+				yCenter = key.endsWith("center");
+			} else if(key.equals("cellsize")) {
+				cellSize = value;
+			} else if(key.equals("nodata_value")) {
+				noData = value;
+			} else {
+				throw new IOException("Unsupported ascii grid header key: " + key);
+			}
+		}
+
+		if(Double.isNaN(nCols) || Double.isNaN(nRows) || Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(cellSize))
+			throw new IOException("Ascii grid header must have ncols, nrows, xllcorner, yllcorner and cellsize");
+		if(xCenter)
+			x -= cellSize / 2;	// centre of the lower left cell to its corner
+		if(yCenter)
+			y -= cellSize / 2;
+		params = new Parameters(cellSize, dimension("ncols", nCols), dimension("nrows", nRows), x, y, noData);
+		return params;
+	}
+
+	/**
+	 * Checks a number of columns or rows is a positive int
+	 */
+	private static int dimension(String key, double value) throws IOException {
+		if(value <= 0 || value > Integer.MAX_VALUE || value != Math.rint(value))
+			throw new IOException("Ascii grid " + key + " must be a whole number from 1 to " + Integer.MAX_VALUE + ", not " + value);
+		return (int) value;
+	}
+
+	/**
+	 * Reads the cells of the grid, which must follow the header
+	 *
+	 * @param cells The sink to put every cell of the grid to, in row-major order
+	 * @return The sink
+	 * @throws IOException If there is a problem reading the channel, a cell is invalid or there are too few cells
+	 * @throws IllegalStateException If the header has not been read
+	 */
+	<T extends CellSink> T readCells(T cells) throws IOException {
+		if(params == null)
+			throw new IllegalStateException("The header must be read before the cells");
+		long size = (long) params.getnCols() * params.getnRows();
+		for(long i = 0; i < size; i++) {
+			if(!skipWhitespace())
+				throw new IOException("Expected " + size + " cells in ascii grid but found " + i);
+			cells.put(i, readNumber());
+		}
+		return cells;
+	}
+
+	/**
+	 * @return the number of bytes consumed from the channel so far
+	 */
+	long getBytesRead() {
+		return offset + position;
+	}
+
+	/**
+	 * Parses the next token as a number
+	 *
+	 * Numbers with up to 15 significant digits and small exponents are converted
+	 * exactly from the digits, longer ones fall back to Double.parseDouble
+	 */
+	private double readNumber() throws IOException {
+		if(!skipWhitespace())
+			throw new IOException("Unexpected end of ascii grid at byte " + getBytesRead());
+
+		tokenLength = 0;
+		int c = nextTokenByte();
+		boolean negative = c == '-';
+		if(c == '-' || c == '+')
+			c = nextTokenByte();
+
+		long mantissa = 0;
+		int digits = 0;			// digits in the mantissa, including leading zeros
+		int exponent = 0;
+		boolean any = false;
+		while (isDigit(c)) {
+			mantissa = mantissa * 10 + (c - '0');
+			digits++;
+			any = true;
+			c = nextTokenByte();
+		}
+		if(c == '.') {
+			c = nextTokenByte();
+			while (isDigit(c)) {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				exponent--;
+				any = true;
+				c = nextTokenByte();
+			}
+		}
+		if(any && (c == 'e' || c == 'E')) {
+			c = nextTokenByte();
+			boolean negativeExponent = c == '-';
+			if(c == '-' || c == '+')
+				c = nextTokenByte();
+			int value = 0;
+			boolean anyExponent = false;
+			while (isDigit(c)) {
+				value = Math.min(value * 10 + (c - '0'), 10000);	// clamp, anything this large is out of range anyway
+				anyExponent = true;
+				c = nextTokenByte();
+			}
+			any = anyExponent;
+			exponent += negativeExponent ? -value : value;
+		}
+		if(!any || !(c < 0 || isWhitespace(c)))
+			throw new IOException("Invalid number in ascii grid at byte " + getBytesRead() + ": " + tokenAsString());
+		if(c >= 0)
+			tokenLength--;		// the terminating whitespace is not part of the number
+
+		if(digits <= MAX_FAST_DIGITS && exponent >= -22 && exponent <= 22) {
+			// both operands are exact so the result is correctly rounded
+			double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+		if(tokenLength > MAX_TOKEN)
+			throw new IOException("Number too long in ascii grid at byte " + getBytesRead());
+		return Double.parseDouble(tokenAsString());
+	}
+
+	/**
+	 * Reads a header key, lower cased
+	 */
+	private String readKey() throws IOException {
+		StringBuilder key = new StringBuilder();
+		int c;
+		while ((c = next()) >= 0 && !isWhitespace(c))
+			key.append(Character.toLowerCase((char) c));
+		return key.toString();
+	}
+
+	/**
+	 * Consumes the next byte, recording it in the token
+	 */
+	private int nextTokenByte() throws IOException {
+		int c = next();
+		if(c >= 0) {
+			if(tokenLength < MAX_TOKEN)
+				token[tokenLength] = (byte) c;
+			tokenLength++;
+		}
+		return c;
+	}
+
+	private String tokenAsString() {
+		return new String(token, 0, Math.min(tokenLength, MAX_TOKEN), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Skips whitespace
+	 *
+	 * @return false if the end of the channel was reached
+	 */
+	private boolean skipWhitespace() throws IOException {
+		while (true) {
+			if(position == limit && !fill())
+				return false;
+			if(!isWhitespace(bytes[position]))
+				return true;
+			position++;
+		}
+	}
+
+	private int peek() {
+		return bytes[position] & 0xff;
+	}
+
+	/**
+	 * Consumes the next byte
+	 *
+	 * @return the byte, or -1 at the end of the channel
+	 */
+	private int next() throws IOException {
+		if(position == limit && !fill())
+			return -1;
+		return bytes[position++] & 0xff;
+	}
+
+	/**
+	 * Refills the buffer from the channel
+	 *
+	 * @return false if the end of the channel was reached
+	 */
+	private boolean fill() throws IOException {
+		offset += limit;
+		position = 0;
+		limit = 0;
+		buffer.clear();
+		int read;
+		do {
+			read = channel.read(buffer);
+		} while (read == 0);
+		if(read < 0)
+			return false;
+		limit = read;
+		return true;
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+}
@@ -0,0 +1,355 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact binary raster format, for rasters that are read many times
+ *
+ * Converting an ascii grid once means later runs can memory map the file
+ * instead of parsing it, so opening a raster takes the same time whatever
+ * its size, cells are read straight from the page cache and processes on
+ * the same host share the same physical memory.
+ *
+ * The file is a fixed HEADER_SIZE byte header followed by the cells in
+ * row-major order. Everything is little-endian. The header holds:
+ *
+ *  0 magic "CQAR"           4 format version (int)
+ *  8 cell type (int)       12 nCols (int)
+ * 16 nRows (int)           24 cellSize (double)
+ * 32 xlCorner (double)     40 ylCorner (double)
+ * 48 noData (double)       56 scale of SHORT cells (double)
+ * 64 offset of SHORT cells (double)
+ *
+ * The cell type is the ordinal of CellBuffer.Type and cells are 8 byte
+ * doubles, 4 byte floats or 2 byte shorts encoded as in CellBuffer.
+ *
+ * Example Usage:
+ *     BinaryRasterFile.convert(new File("dsm.asc"), new File("dsm.bin"), CellBuffer.Type.FLOAT);	// once
+ *     Raster heightMap = BinaryRasterFile.map(new File("dsm.bin"));
+ *
+ * or convert from the command line:
+ *     java eu.cobwebproject.qa.lbs.BinaryRasterFile dsm.asc dsm.bin FLOAT
+ *
+ * A raster can have up to MAX_CELLS cells. Mapping is limited to
+ * Integer.MAX_VALUE cells, larger rasters are read a tile at a time with
+ * TiledCells.
+ */
+public final class BinaryRasterFile {
+	public static final int HEADER_SIZE = 128;
+	public static final int MAGIC = 0x52415143;		// "CQAR" read little-endian
+	public static final int VERSION = 1;
+	/** Most cells a binary raster can hold, 2^40 keeps every byte offset well within a long */
+	public static final long MAX_CELLS = 1L << 40;
+
+	private static final int MAX_CHUNK_BYTES = 1 << 30;	// a single mapping can't exceed 2GB, so map in 1GB chunks
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private BinaryRasterFile() {
+	}
+
+	/**
+	 * Writes a raster in the binary format
+	 *
+	 * SHORT cells use the scale and offset of the raster if it is already stored as
+	 * SHORT, otherwise the CellBuffer defaults.
+	 *
+	 * @param raster The raster to write
+	 * @param file The file to write to, this is replaced if it exists
+	 * @param type The encoding to write the cells with
+	 * @throws IOException If there is a problem writing the file or the raster has unsupported dimensions
+	 * @throws IllegalArgumentException If a cell value can't be stored as SHORT
+	 */
+	public static void write(Raster raster, File file, CellBuffer.Type type) throws IOException {
+		Parameters params = raster.getParams();
+		double scale = CellBuffer.DEFAULT_SHORT_SCALE;
+		double offset = CellBuffer.DEFAULT_SHORT_OFFSET;
+		if(raster.getCells() instanceof CellBuffer.ShortCells) {
+			scale = ((CellBuffer.ShortCells) raster.getCells()).getScale();
+			offset = ((CellBuffer.ShortCells) raster.getCells()).getOffset();
+		}
+
+		cellCount(params, raster);	// before anything is written
+		int nCols = params.getnCols();
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			CellWriter writer = new CellWriter(out, params, type, scale, offset);
+			for(int row = 0; row < params.getnRows(); row++) {
+				for(int col = 0; col < nCols; col++)
+					writer.put((long) row * nCols + col, raster.getCell(col, row));
+			}
+			writer.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Converts an ascii grid to the binary format
+	 *
+	 * The cells are written as they are parsed, so this needs very little
+	 * memory whatever the size of the grid.
+	 *
+	 * @param asciiGrid The ascii grid to convert
+	 * @param file The file to write to, this is replaced if it exists
+	 * @param type The encoding to write the cells with, SHORT uses the CellBuffer defaults
+	 * @throws IOException If there is a problem reading the grid or writing the file, or the grid has unsupported dimensions
+	 * @throws IllegalArgumentException If a cell value can't be stored as SHORT
+	 */
+	public static void convert(File asciiGrid, File file, CellBuffer.Type type) throws IOException {
+		FileInputStream in = new FileInputStream(asciiGrid);
+		try {
+			AsciiGridReader reader = new AsciiGridReader(in.getChannel());
+			Parameters params = reader.readHeader();
+			cellCount(params, asciiGrid);	// before anything is written
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				CellWriter writer = new CellWriter(out, params, type, CellBuffer.DEFAULT_SHORT_SCALE, CellBuffer.DEFAULT_SHORT_OFFSET);
+				reader.readCells(writer);
+				writer.flush();
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens a binary raster by memory mapping it
+	 *
+	 * Nothing is read until cells are looked up, and the returned raster does
+	 * not use the heap for its cells. The file must not be modified while mapped.
+	 *
+	 * @param file The binary raster file
+	 * @return The mapped raster
+	 * @throws IOException If the file can't be read, is not a binary raster or has more than Integer.MAX_VALUE cells
+	 */
+	public static Raster map(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			Header header = readHeader(channel, file);
+			if(header.cellCount > Integer.MAX_VALUE)
+				throw new IOException(file + " has too many cells to map, open it with TiledCells");
+
+			long cellBytes = header.cellCount * header.cellSize;
+			if(channel.size() < HEADER_SIZE + cellBytes)
+				throw new IOException(file + " is truncated, expected " + (HEADER_SIZE + cellBytes) + " bytes");
+
+			// chunks hold a power of two number of cells, so indexing is a shift and a mask
+			int chunkShift = Integer.numberOfTrailingZeros(MAX_CHUNK_BYTES / header.cellSize);
+			long chunkBytes = (long) header.cellSize << chunkShift;
+			ByteBuffer[] chunks = new ByteBuffer[(int) ((cellBytes + chunkBytes - 1) / chunkBytes)];
+			for(int i = 0; i < chunks.length; i++) {
+				long position = HEADER_SIZE + i * chunkBytes;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkBytes, cellBytes - i * chunkBytes))
+								   .order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return new Raster(file.getPath(), header.params, new MappedCells(header, chunks, chunkShift));
+		} finally {
+			in.close();		// the mappings stay valid after the channel is closed
+		}
+	}
+
+	/**
+	 * Converts an ascii grid to the binary format from the command line
+	 *
+	 * @param args input ascii grid, output binary raster and optionally the cell type (FLOAT by default)
+	 * @throws IOException If there is a problem reading or writing the rasters
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("Usage: BinaryRasterFile <input.asc> <output.bin> [DOUBLE|FLOAT|SHORT]");
+			System.exit(1);
+		}
+		CellBuffer.Type type = args.length > 2 ? CellBuffer.Type.valueOf(args[2].toUpperCase()) : CellBuffer.Type.FLOAT;
+
+		long start = System.currentTimeMillis();
+		convert(new File(args[0]), new File(args[1]), type);
+		System.out.println("Converted " + args[0] + " to " + args[1] + " (" + type + ") in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Reads and validates the header of a binary raster
+	 */
+	static Header readHeader(FileChannel channel, File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if(channel.read(buffer, buffer.position()) < 0)
+				throw new IOException(file + " is too short to be a binary raster");
+		}
+		if(buffer.getInt(0) != MAGIC)
+			throw new IOException(file + " is not a binary raster");
+		if(buffer.getInt(4) != VERSION)
+			throw new IOException(file + " has unsupported binary raster version " + buffer.getInt(4));
+		int type = buffer.getInt(8);
+		if(type < 0 || type >= CellBuffer.Type.values().length)
+			throw new IOException(file + " has unknown cell type " + type);
+
+		Parameters params = new Parameters(buffer.getDouble(24), buffer.getInt(12), buffer.getInt(16),
+										   buffer.getDouble(32), buffer.getDouble(40), buffer.getDouble(48));
+		return new Header(params, CellBuffer.Type.values()[type], cellCount(params, file), buffer.getDouble(56), buffer.getDouble(64));
+	}
+
+	/**
+	 * The number of cells of a raster, checking the format can hold them
+	 *
+	 * @param params The parameters of the raster
+	 * @param source The raster or file, for the error message
+	 * @throws IOException If the dimensions are not positive or there are more than MAX_CELLS cells
+	 */
+	private static long cellCount(Parameters params, Object source) throws IOException {
+		long cellCount = (long) params.getnCols() * params.getnRows();
+		if(params.getnCols() <= 0 || params.getnRows() <= 0 || cellCount > MAX_CELLS)
+			throw new IOException(source + " has unsupported dimensions " + params.getnCols() + "x" + params.getnRows());
+		return cellCount;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Appends cells to a binary raster file, they must be put in index order
+	 */
+	private static final class CellWriter implements CellSink {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private final CellBuffer.Type type;
+		private final double scale;
+		private final double offset;
+		private final double noData;
+		private long next;
+
+		/**
+		 * Truncates the file and writes the header, the dimensions must already be checked
+		 */
+		CellWriter(RandomAccessFile file, Parameters params, CellBuffer.Type type, double scale, double offset) throws IOException {
+			this.channel = file.getChannel();
+			this.type = type;
+			this.scale = scale;
+			this.offset = offset;
+			this.noData = params.getnoData();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, type.ordinal());
+			header.putInt(12, params.getnCols());
+			header.putInt(16, params.getnRows());
+			header.putDouble(24, params.getcellSize());
+			header.putDouble(32, params.getxlCorner());
+			header.putDouble(40, params.getylCorner());
+			header.putDouble(48, noData);
+			header.putDouble(56, scale);
+			header.putDouble(64, offset);
+			file.setLength(0);
+			writeFully(channel, header);
+		}
+
+		@Override
+		public void put(long index, double value) throws IOException {
+			if(index != next++)
+				throw new IllegalStateException("Cells must be written in order");
+			if(buffer.remaining() < 8)
+				flush();
+			switch (type) {
+			case FLOAT:
+				buffer.putFloat((float) value);
+				break;
+			case SHORT:
+				buffer.putShort(CellBuffer.ShortCells.encode(value, scale, offset, noData));
+				break;
+			default:
+				buffer.putDouble(value);
+			}
+		}
+
+		/**
+		 * Writes out any buffered cells
+		 */
+		void flush() throws IOException {
+			buffer.flip();
+			writeFully(channel, buffer);
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * The parsed header of a binary raster
+	 */
+	static final class Header {
+		final Parameters params;
+		final CellBuffer.Type type;
+		final long cellCount;
+		final int cellSize;		// bytes per cell
+		final double scale;
+		final double offset;
+
+		Header(Parameters params, CellBuffer.Type type, long cellCount, double scale, double offset) {
+			this.params = params;
+			this.type = type;
+			this.cellCount = cellCount;
+			this.cellSize = type == CellBuffer.Type.DOUBLE ? 8 : type == CellBuffer.Type.FLOAT ? 4 : 2;
+			this.scale = scale;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Read only cells backed by memory mapped chunks of the file
+	 */
+	static final class MappedCells extends CellBuffer {
+		private final ByteBuffer[] chunks;
+		private final int chunkShift;
+		private final int chunkMask;
+		private final int byteShift;
+		private final CellBuffer.Type type;
+		private final double scale;
+		private final double offset;
+		private final double noData;
+
+		MappedCells(Header header, ByteBuffer[] chunks, int chunkShift) {
+			super(header.cellCount);
+			this.chunks = chunks;
+			this.chunkShift = chunkShift;
+			this.chunkMask = (1 << chunkShift) - 1;
+			this.byteShift = Integer.numberOfTrailingZeros(header.cellSize);
+			this.type = header.type;
+			this.scale = header.scale;
+			this.offset = header.offset;
+			this.noData = header.params.getnoData();
+		}
+
+		@Override
+		public double get(int index) {
+			ByteBuffer chunk = chunks[index >>> chunkShift];
+			int position = (index & chunkMask) << byteShift;
+			switch (type) {
+			case FLOAT:
+				return chunk.getFloat(position);
+			case SHORT:
+				return ShortCells.decode(chunk.getShort(position), scale, offset, noData);
+			default:
+				return chunk.getDouble(position);
+			}
+		}
+
+		@Override
+		public void set(int index, double value) {
+			throw new UnsupportedOperationException("Memory mapped rasters are read only");
+		}
+
+		@Override
+		public Type getType() {
+			return type;
+		}
+	}
+}
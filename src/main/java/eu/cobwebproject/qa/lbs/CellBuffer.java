@@ -0,0 +1,204 @@
+package eu.cobwebproject.qa.lbs;
+
+/**
+ * Storage for the cell values of a raster as a single contiguous
+ * row-major primitive array
+ *
+ * Cells are addressed by index (row * nCols + col). Three encodings
+ * are available, chosen when the raster is loaded:
+ *
+ * DOUBLE - 8 bytes per cell, values are stored exactly
+ * FLOAT - 4 bytes per cell, values are rounded to float precision
+ * SHORT - 2 bytes per cell, values are stored as offset + scale * n
+ *         for a 16 bit n. The no data value is stored as a reserved n.
+ */
+public abstract class CellBuffer implements CellSink {
+
+	/**
+	 * The available cell encodings
+	 */
+	public enum Type {
+		DOUBLE, FLOAT, SHORT
+	}
+
+	/** Default resolution of SHORT cells, 10cm */
+	public static final double DEFAULT_SHORT_SCALE = 0.1;
+	/** Default offset of SHORT cells, together with the scale this covers -276.7m to 6276.7m */
+	public static final double DEFAULT_SHORT_OFFSET = 3000;
+
+	protected final long size;
+
+	protected CellBuffer(long size) {
+		this.size = size;
+	}
+
+	/**
+	 * Gets the value of a cell
+	 *
+	 * @param index The cell index (row * nCols + col)
+	 * @return The value of the cell
+	 */
+	public abstract double get(int index);
+
+	/**
+	 * Sets the value of a cell
+	 *
+	 * @param index The cell index (row * nCols + col)
+	 * @param value The new value of the cell
+	 * @throws IllegalArgumentException If the value cannot be represented by this buffer
+	 */
+	public abstract void set(int index, double value);
+
+	/**
+	 * Sets the value of a cell as it is read, the index must be below size()
+	 */
+	@Override
+	public void put(long index, double value) {
+		set((int) index, value);
+	}
+
+	/**
+	 * @return The encoding of the cells
+	 */
+	public abstract Type getType();
+
+	/**
+	 * @return The number of cells in the buffer, only tiled buffers hold more than Integer.MAX_VALUE
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Allocates a new buffer, using the default scale and offset for SHORT
+	 *
+	 * @param type The encoding of the cells
+	 * @param size The number of cells
+	 * @param noData The no data value of the raster
+	 * @return The new buffer
+	 */
+	public static CellBuffer allocate(Type type, int size, double noData) {
+		switch (type) {
+		case FLOAT:
+			return new FloatCells(size);
+		case SHORT:
+			return new ShortCells(size, DEFAULT_SHORT_SCALE, DEFAULT_SHORT_OFFSET, noData);
+		default:
+			return new DoubleCells(size);
+		}
+	}
+
+	/**
+	 * Allocates a new SHORT buffer with a custom resolution and range
+	 *
+	 * @param size The number of cells
+	 * @param scale The resolution of the cell values
+	 * @param offset The value stored as zero
+	 * @param noData The no data value of the raster
+	 * @return The new buffer
+	 */
+	public static CellBuffer allocateShort(int size, double scale, double offset, double noData) {
+		return new ShortCells(size, scale, offset, noData);
+	}
+
+	static final class DoubleCells extends CellBuffer {
+		private final double[] cells;
+
+		DoubleCells(int size) {
+			super(size);
+			this.cells = new double[size];
+		}
+
+		@Override
+		public double get(int index) {
+			return cells[index];
+		}
+
+		@Override
+		public void set(int index, double value) {
+			cells[index] = value;
+		}
+
+		@Override
+		public Type getType() {
+			return Type.DOUBLE;
+		}
+	}
+
+	static final class FloatCells extends CellBuffer {
+		private final float[] cells;
+
+		FloatCells(int size) {
+			super(size);
+			this.cells = new float[size];
+		}
+
+		@Override
+		public double get(int index) {
+			return cells[index];
+		}
+
+		@Override
+		public void set(int index, double value) {
+			cells[index] = (float) value;
+		}
+
+		@Override
+		public Type getType() {
+			return Type.FLOAT;
+		}
+	}
+
+	static final class ShortCells extends CellBuffer {
+		static final short NO_DATA = Short.MIN_VALUE;	// reserved for the no data value
+
+		private final short[] cells;
+		private final double scale;
+		private final double offset;
+		private final double noData;
+
+		ShortCells(int size, double scale, double offset, double noData) {
+			super(size);
+			this.cells = new short[size];
+			this.scale = scale;
+			this.offset = offset;
+			this.noData = noData;
+		}
+
+		@Override
+		public double get(int index) {
+			return decode(cells[index], scale, offset, noData);
+		}
+
+		@Override
+		public void set(int index, double value) {
+			cells[index] = encode(value, scale, offset, noData);
+		}
+
+		@Override
+		public Type getType() {
+			return Type.SHORT;
+		}
+
+		double getScale() {
+			return scale;
+		}
+
+		double getOffset() {
+			return offset;
+		}
+
+		static double decode(short value, double scale, double offset, double noData) {
+			return value == NO_DATA ? noData : offset + scale * value;
+		}
+
+		static short encode(double value, double scale, double offset, double noData) {
+			if(value == noData)
+				return NO_DATA;
+			long scaled = Math.round((value - offset) / scale);
+			if(scaled <= NO_DATA || scaled > Short.MAX_VALUE)
+				throw new IllegalArgumentException("Value " + value + " out of range for short cells with scale " + scale + " and offset " + offset);
+			return (short) scaled;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.IOException;
+
+/**
+ * Receives the cells of a raster as they are read, see AsciiGridReader
+ *
+ * Cells are put once each, in row-major index order, so a sink can
+ * either store them or stream them straight out.
+ */
+interface CellSink {
+
+	/**
+	 * Receives the value of the next cell
+	 *
+	 * @param index The cell index (row * nCols + col)
+	 * @param value The value of the cell
+	 * @throws IOException If the sink can't take the cell
+	 */
+	void put(long index, double value) throws IOException;
+}
@@ -20,6 +20,15 @@ package eu.cobwebproject.qa.lbs;
  * Alternatively, you can call a throw away version using the 
  * static convenience method LineOfSight.Calculate(...) which
  * will return the results directly given the input parameters
+ * 
+ * The height map can be any SurfaceModel, usually a Raster.
+ * 
+ * To calculate Line of Sight for many observations at once use
+ * LineOfSightBatch, which reports failures with the STATUS_ codes
+ * below instead of exceptions and runs in parallel. To share one
+ * calculator between threads (for instance a web service handling
+ * requests against one raster) use LineOfSightEvaluator, which is
+ * immutable and writes into a reusable LineOfSightResult.
  *  
  * Algorithmic Details:
  * 
@@ -31,6 +40,32 @@ package eu.cobwebproject.qa.lbs;
  * When the visible height is less than or equal to the surface
  * height then we return resulting position information  
  * 
+ * Alternatively, the GRID traversal (see setTraversal) visits each
+ * raster cell crossed by the ray exactly once, in order, and solves
+ * the ray height at the cell entry and exit analytically. This
+ * gives the exact intersection with the (un-interpolated) surface
+ * and does work proportional to the number of cells crossed rather
+ * than the distance divided by the step size.
+ * 
+ * The HIERARCHICAL traversal gives the same results as GRID, but uses
+ * a max-height pyramid of the raster (see MaxHeightPyramid) to jump
+ * over whole blocks of cells that are lower than the ray. Rays that
+ * pass high over the terrain, such as near-horizontal rays over large
+ * rasters, then take time logarithmic rather than linear in distance.
+ * 
+ * The ADAPTIVE traversal samples the surface as STEP does, but uses the
+ * largest height step between neighbouring cells (see MaxSlopeBlocks)
+ * and the margin of the ray over the surface to jump as far as it safely
+ * can, taking a step of the step size only where it can't. The crossing
+ * is then bisected to the tolerance, see setTolerance.
+ * 
+ * The other traversals treat each cell as flat. The BILINEAR traversal
+ * instead interpolates the surface bilinearly between the cell centres
+ * and solves the exact intersection with it in each half cell crossed (a
+ * quadratic), so coarse rasters such as 5m DEMs give smooth results
+ * without a small step size. The height of the eye is then also taken
+ * from the interpolated surface.
+ * 
  * This is a re-implemented and slightly modified version of 
  * of Sam Meek's original Line Of Sight calculation class.
  * 
@@ -43,8 +78,34 @@ package eu.cobwebproject.qa.lbs;
 public class LineOfSight {
 	public static final double VIEW_DISTANCE = 1000; // arbitrary limit in vision distance to limit iterations - 0.5km
 	public static final double STEP_SIZE = 0.1; // step size for LOS approximation algorithm
+	public static final double TOLERANCE = 0.01; // distance the ADAPTIVE traversal refines intersections to
 	
-	private Raster heightMap;
+	/**
+	 * The strategies available for walking the ray across the height map
+	 */
+	public enum Traversal {
+		/** Fixed increments of the step size down the ray (the original algorithm) */
+		STEP,
+		/** Visit every cell crossed by the ray exactly once, independent of step size */
+		GRID,
+		/** As GRID, but skip blocks of cells the ray passes over using a MaxHeightPyramid */
+		HIERARCHICAL,
+		/** Intersect the surface interpolated bilinearly between cell centres exactly, independent of step size */
+		BILINEAR,
+		/** As STEP, but jump where the ray is safely above the surface and bisect to the tolerance */
+		ADAPTIVE
+	}
+	
+	/** The ray intersected the surface */
+	public static final int STATUS_HIT = 0;
+	/** The ray did not intersect the surface within VIEW_DISTANCE (NoIntersectionException) */
+	public static final int STATUS_NO_INTERSECTION = 1;
+	/** The ray left the extent of the raster before intersecting (ReachedSurfaceBoundsException) */
+	public static final int STATUS_REACHED_SURFACE_BOUNDS = 2;
+	/** The eye position is not covered by the raster (StartPositionOutOfBoundsException) */
+	public static final int STATUS_START_OUT_OF_BOUNDS = 3;
+	
+	private SurfaceModel heightMap;
 	private double userHeight;
 	private double bearing;
 	private double tilt;
@@ -52,6 +113,9 @@ public class LineOfSight {
 	private double currentEasting;
 	private double[] currentResult;
 	private double stepSize;
+	private double tolerance;
+	private Traversal traversal;
+	private RayTracer tracer;		// built on demand for the current height map and traversal settings
 
 	/**
 	 * Construct a new LineOfSight check object
@@ -63,7 +127,7 @@ public class LineOfSight {
 	 * @param tilt Tilt of the eye in degrees, 0 is horizontal, 90 is pointing at ground 
 	 * @param userHeight Height of the phone/eye
 	 */
-	public LineOfSight(Raster heightMap, double easting, double northing, double bearing, double tilt, double userHeight) {
+	public LineOfSight(SurfaceModel heightMap, double easting, double northing, double bearing, double tilt, double userHeight) {
 		this.heightMap = heightMap;
 		this.userHeight = userHeight;
 		this.tilt = tilt;
@@ -71,7 +135,10 @@ public class LineOfSight {
 		this.currentEasting = easting;
 		this.currentNorthing = northing;
 		this.stepSize = STEP_SIZE;
+		this.tolerance = TOLERANCE;
+		this.traversal = Traversal.STEP;
 		this.currentResult = null;
+		this.tracer = null;
 	}
 	
 	/**
@@ -94,105 +161,23 @@ public class LineOfSight {
 		if(currentResult != null) 
 			return currentResult;						// return a cached result if there is one
 		
-		if(!isCurrentPositionInBounds()) {				// check that we are in the heightmap coverage area
-			throw new StartPositionOutOfBoundsException("Position " + currentEasting + "," + currentNorthing + " is out of bounds of the heightmap");
-		}
-		
-		double distance = userHeight; 				// start the distance down the line at userHeight
-		double delta = stepSize; 						// step size for the algorithm
-		double scanLimit = VIEW_DISTANCE; 			// draw distance
-		double theta = getBearingAsRadians();			// convert heading to height map radians
-		
-		double eyeHeight = userHeight + getSurfaceHeightForPoint(currentNorthing, currentEasting);
-		
-		while (distance < scanLimit) {					// scan down in step size until scan limit
-			double x = Math.cos(theta) * distance;		// x displacement
-			double y = Math.sin(theta) * distance; 	// y displacement
-						 
-			// use the tilt to calculate ray height at this distance
-			double visionHeight = getRayHeight(distance, eyeHeight);
-			// get the height from the surface map at this displacement
-			double surfaceHeight = getSurfaceHeightForPoint(currentNorthing + y, currentEasting + x);
-			
-			if(visionHeight <= surfaceHeight) {			// intersection test
-				currentResult = new double[]{distance, eyeHeight, currentEasting + x, currentNorthing + y, surfaceHeight}; 
-				return currentResult;
-			}
-			distance += delta;							// step the distance
-		}
-		
-		throw new NoIntersectionException("Did not intersect surface within view distance " + VIEW_DISTANCE + "m");
+		if(tracer == null)
+			tracer = new RayTracer(heightMap, traversal, stepSize, tolerance);
 		
-	}
-
-	////////////////////////////
-	// PRIVATE UTIL FUNCTIONS //
-	////////////////////////////
-	
-	/**
-	 * Gets the Y Cell index for a world northing coordinate
-	 * 
-	 * @param northing The Northing in world coordinates
-	 * @return the col index of the Y cell containing that northing
-	 */
-	private int getYCell(double northing) {
-		double localY = northing - heightMap.getParams().getylCorner();	
-		int cellIndex = (int) Math.ceil(localY / heightMap.getParams().getcellSize());
-		return heightMap.getParams().getnRows() - cellIndex; // reverse indexing, need to use nrows for the reversing of a northing value. 
-	}
-	
-	/**
-	 * Gets the X Cell index for a world easting coordinate
-	 *  
-	 * @param easting Easting of the point in world coordinates
-	 * @return Easting as an array coordinate
-	 */
-	private int getXCell(double easting){
-		double localX = easting - heightMap.getParams().getxlCorner();
-		int cellIndex = (int) Math.floor((localX / heightMap.getParams().getcellSize()));
-		return cellIndex; // apparently no reverse indexing.. (it's because ascii index from lower left corner)
-	}
-	
-	/**
-	 * Reads the surface model and returns the height for a given point in world coordinates
-	 * Does not perform any interpolation within the cells
-	 * 
-	 * @param northing world northing coord
-	 * @param easting world easting coord
-	 * @return height from the cell for this coord
-	 * @throws ReachedSurfaceBoundsException If the world point is beyond the bounds of the raster extent
-	 */
-	private double getSurfaceHeightForPoint(double northing, double easting) throws ReachedSurfaceBoundsException {
-		try {	
-			return heightMap.getXY(getXCell(easting),getYCell(northing));
-		} catch (ArrayIndexOutOfBoundsException e) {
-			// Tried to look outside height map extent
-			throw new ReachedSurfaceBoundsException(e.getMessage());
+		double[] result = new double[5];
+		switch (tracer.trace(currentEasting, currentNorthing, bearing, tilt, userHeight, result, 0)) {
+		case STATUS_HIT:
+			currentResult = result;
+			return currentResult;
+		case STATUS_START_OUT_OF_BOUNDS:
+			throw new StartPositionOutOfBoundsException("Position " + currentEasting + "," + currentNorthing + " is out of bounds of the heightmap");
+		case STATUS_REACHED_SURFACE_BOUNDS:
+			// the tracer reports the cell outside the raster
+			throw new ReachedSurfaceBoundsException(tracer.outOfBoundsMessage((int) result[0], (int) result[1]));
+		default:
+			throw new NoIntersectionException("Did not intersect surface within view distance " + VIEW_DISTANCE + "m");
 		}
 	}
-	
-	/**
-	 * Convert the current compass bearing to an angle from y = 0 to index the height map
-
-	 * @return the angle to index the heightmap in radians as a double
-	 */
-	private double getBearingAsRadians() {
-		return Math.toRadians(360.0 - (bearing-90.0));
-	}
-	
-	/**
-	 * Gets the height of a ray from the eye at current tilt and given height and distance
-	 * @param distance the horizontal distance down the ray
-	 * @param eyeHeight the starting height of the ray origin
-	 * @return the vertical height of the line of sight ray
-	 */
-	private double getRayHeight(double distance, double eyeHeight) {
-		return (distance * Math.tan(Math.toRadians(-tilt))) + eyeHeight;
-	}
-	
-	private boolean isCurrentPositionInBounds() {
-		return heightMap.isPointInBounds(currentEasting, currentNorthing);
-	}
  
 	//////////////////////////////////
 	// STATIC CONVENIENCE FUNCTIONS //
@@ -212,7 +197,7 @@ public class LineOfSight {
 	 * @throws ReachedSurfaceBoundsException If tried to look beyond the bounds of the raster extent
 	 * @throws StartPositionOutOfBoundsException If starting position not covered by raster  
 	 */
-	public static double[] Calculate(Raster heightMap, double easting, double northing, double bearing, double tilt, double userHeight) throws ReachedSurfaceBoundsException, NoIntersectionException, StartPositionOutOfBoundsException {
+	public static double[] Calculate(SurfaceModel heightMap, double easting, double northing, double bearing, double tilt, double userHeight) throws ReachedSurfaceBoundsException, NoIntersectionException, StartPositionOutOfBoundsException {
 		LineOfSight los = new LineOfSight(heightMap, easting, northing, bearing, tilt, userHeight);
 		return los.calculateLOS();
 	}
@@ -236,9 +221,10 @@ public class LineOfSight {
 	// GETTERS AND SETTERS //
 	/////////////////////////
 	
-	public void setHeightMap(Raster heightMap) {
+	public void setHeightMap(SurfaceModel heightMap) {
 		this.heightMap = heightMap;
 		this.currentResult = null;
+		this.tracer = null;
 	}
 	
 	public void setUserHeight(double userHeight) {
@@ -278,6 +264,7 @@ public class LineOfSight {
 	public void setStepSize(double newStepSize) {
 		this.stepSize = newStepSize;
 		this.currentResult = null;
+		this.tracer = null;
 	}
 	
 	/**
@@ -288,4 +275,46 @@ public class LineOfSight {
 	public double getStepSize() {
 		return this.stepSize;
 	}
+	
+	/**
+	 * Set the distance to which the ADAPTIVE traversal refines an intersection
+	 * 
+	 * @param tolerance The tolerance (in metres)
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+		this.currentResult = null;
+		this.tracer = null;
+	}
+	
+	/**
+	 * Gets the distance to which the ADAPTIVE traversal refines an intersection
+	 * 
+	 * @return the current tolerance (in metres)
+	 */
+	public double getTolerance() {
+		return this.tolerance;
+	}
+	
+	/**
+	 * Set the strategy used to walk the ray across the height map
+	 * 
+	 * @param traversal STEP (default) to use the step size, GRID to visit each cell exactly once,
+	 * HIERARCHICAL to skip blocks of cells the ray passes over, BILINEAR to intersect the interpolated surface,
+	 * ADAPTIVE to step only where needed
+	 */
+	public void setTraversal(Traversal traversal) {
+		this.traversal = traversal;
+		this.currentResult = null;
+		this.tracer = null;
+	}
+	
+	/**
+	 * Gets the strategy used to walk the ray across the height map
+	 * 
+	 * @return the current traversal
+	 */
+	public Traversal getTraversal() {
+		return this.traversal;
+	}
 }
@@ -0,0 +1,188 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Calculates Line of Sight for many observations against a single surface model
+ *
+ * Observations are given as columns (one array per input value) and results
+ * are written to caller supplied arrays, so no objects are created per
+ * observation. Instead of throwing exceptions, the outcome of each observation
+ * is reported as one of the LineOfSight.STATUS_ codes. The work is split
+ * across the cores with fork/join.
+ *
+ * Example Usage:
+ *     LineOfSightBatch batch = new LineOfSightBatch(heightMap);
+ *     double[] results = new double[eastings.length * LineOfSightBatch.RESULT_SIZE];
+ *     int[] status = new int[eastings.length];
+ *     batch.calculate(eastings, northings, bearings, tilts, userHeights, results, status);
+ *     if(status[i] == LineOfSight.STATUS_HIT) { // results[i * RESULT_SIZE] .. results[i * RESULT_SIZE + 4] as LineOfSight.calculateLOS()
+ */
+public class LineOfSightBatch {
+	/** Number of result values for each observation */
+	public static final int RESULT_SIZE = 5;
+	/** Observations per fork/join task, below which the work is not split any further */
+	public static final int DEFAULT_CHUNK_SIZE = 256;
+
+	private final SurfaceModel heightMap;
+	private LineOfSight.Traversal traversal;
+	private double stepSize;
+	private double tolerance;
+	private ForkJoinPool pool;
+	private int chunkSize;
+
+	/**
+	 * Construct a new batch calculator for a height map
+	 *
+	 * Uses the STEP traversal with the default step size on the common fork/join pool
+	 *
+	 * @param heightMap The heightMap to check LOS against
+	 */
+	public LineOfSightBatch(SurfaceModel heightMap) {
+		this.heightMap = heightMap;
+		this.traversal = LineOfSight.Traversal.STEP;
+		this.stepSize = LineOfSight.STEP_SIZE;
+		this.tolerance = LineOfSight.TOLERANCE;
+		this.pool = ForkJoinPool.commonPool();
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+	}
+
+	/**
+	 * Calculate Line of Sight for every observation
+	 *
+	 * For observation i, status[i] receives its LineOfSight.STATUS_ code. If it is
+	 * STATUS_HIT then results[i * RESULT_SIZE] to results[i * RESULT_SIZE + 4] receive
+	 * (horizontal distance to target, world height of user, x of target, y of target, height of target),
+	 * otherwise they are set to NaN.
+	 *
+	 * @param eastings World easting of eye positions
+	 * @param northings World northing of eye positions
+	 * @param bearings Bearings in degrees from device (heading)
+	 * @param tilts Tilts of the eye in degrees, 0 is horizontal, 90 is pointing at ground
+	 * @param userHeights Heights of the phone/eye
+	 * @param results Array of at least RESULT_SIZE values per observation to receive the results
+	 * @param status Array of at least one value per observation to receive the status codes
+	 * @throws IllegalArgumentException If the arrays are not large enough for the number of eastings
+	 */
+	public void calculate(double[] eastings, double[] northings, double[] bearings, double[] tilts, double[] userHeights,
+						  double[] results, int[] status) {
+		int count = eastings.length;
+		if(northings.length < count || bearings.length < count || tilts.length < count || userHeights.length < count)
+			throw new IllegalArgumentException("Input columns must all have at least " + count + " values");
+		if(results.length < count * RESULT_SIZE || status.length < count)
+			throw new IllegalArgumentException("Output arrays are too small for " + count + " observations");
+
+		RayTracer tracer = new RayTracer(heightMap, traversal, stepSize, tolerance);
+		pool.invoke(new BatchTask(tracer, eastings, northings, bearings, tilts, userHeights, results, status, 0, count, chunkSize));
+	}
+
+	/**
+	 * Fork/join task tracing a range of observations, splitting the range in half until it is below the chunk size
+	 */
+	private static class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 3950470624391652470L;
+
+		private final RayTracer tracer;
+		private final double[] eastings, northings, bearings, tilts, userHeights, results;
+		private final int[] status;
+		private final int from, to, chunkSize;
+
+		BatchTask(RayTracer tracer, double[] eastings, double[] northings, double[] bearings, double[] tilts, double[] userHeights,
+				  double[] results, int[] status, int from, int to, int chunkSize) {
+			this.tracer = tracer;
+			this.eastings = eastings;
+			this.northings = northings;
+			this.bearings = bearings;
+			this.tilts = tilts;
+			this.userHeights = userHeights;
+			this.results = results;
+			this.status = status;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > chunkSize) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BatchTask(tracer, eastings, northings, bearings, tilts, userHeights, results, status, from, middle, chunkSize),
+						  new BatchTask(tracer, eastings, northings, bearings, tilts, userHeights, results, status, middle, to, chunkSize));
+				return;
+			}
+
+			for(int i = from; i < to; i++) {
+				int offset = i * RESULT_SIZE;
+				status[i] = tracer.trace(eastings[i], northings[i], bearings[i], tilts[i], userHeights[i], results, offset);
+				if(status[i] != LineOfSight.STATUS_HIT) {
+					for(int j = 0; j < RESULT_SIZE; j++)
+						results[offset + j] = Double.NaN;
+				}
+			}
+		}
+	}
+
+	/////////////////////////
+	// GETTERS AND SETTERS //
+	/////////////////////////
+
+	/**
+	 * Set the strategy used to walk rays across the height map
+	 *
+	 * @param traversal STEP (default) to use the step size, GRID to visit each cell exactly once,
+	 * HIERARCHICAL to skip blocks of cells the ray passes over, BILINEAR to intersect the interpolated surface,
+	 * ADAPTIVE to step only where needed
+	 */
+	public void setTraversal(LineOfSight.Traversal traversal) {
+		this.traversal = traversal;
+	}
+
+	public LineOfSight.Traversal getTraversal() {
+		return this.traversal;
+	}
+
+	/**
+	 * Set the step size for the STEP traversal, and the smallest step for ADAPTIVE
+	 *
+	 * @param stepSize The new step size (in metres)
+	 */
+	public void setStepSize(double stepSize) {
+		this.stepSize = stepSize;
+	}
+
+	public double getStepSize() {
+		return this.stepSize;
+	}
+
+	/**
+	 * Set the distance to which the ADAPTIVE traversal refines intersections
+	 *
+	 * @param tolerance The tolerance (in metres)
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public double getTolerance() {
+		return this.tolerance;
+	}
+
+	/**
+	 * Set the fork/join pool to run the calculations on, the common pool is used by default
+	 *
+	 * @param pool The pool to run on
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Set the number of observations below which a task is not split any further
+	 *
+	 * @param chunkSize The minimum observations per task
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+}
@@ -0,0 +1,89 @@
+package eu.cobwebproject.qa.lbs;
+
+/**
+ * An immutable Line of Sight calculator for a single surface model, safe
+ * to share between threads
+ *
+ * Unlike LineOfSight, which holds one observation and caches its result,
+ * an evaluator holds only the surface model and the traversal settings.
+ * The grid geometry (and the max-height pyramid or slope blocks, if the
+ * traversal uses them) is prepared once when it is constructed, and each
+ * evaluation writes into a LineOfSightResult supplied by the caller, so
+ * evaluations allocate nothing. Failures are reported as the
+ * LineOfSight.STATUS_ codes rather than exceptions, as LineOfSightBatch.
+ *
+ * Example Usage:
+ *     LineOfSightEvaluator evaluator = new LineOfSightEvaluator(heightMap);	// shared by all request threads
+ *     ...
+ *     LineOfSightResult result = new LineOfSightResult();						// one per thread
+ *     evaluator.evaluate(easting, northing, bearing, tilt, userHeight, result);
+ */
+public final class LineOfSightEvaluator {
+	private final SurfaceModel heightMap;
+	private final LineOfSight.Traversal traversal;
+	private final double stepSize;
+	private final double tolerance;
+	private final RayTracer tracer;
+
+	/**
+	 * Construct an evaluator using the STEP traversal with the default step size
+	 *
+	 * @param heightMap The heightMap to check LOS against, which must not change afterwards
+	 */
+	public LineOfSightEvaluator(SurfaceModel heightMap) {
+		this(heightMap, LineOfSight.Traversal.STEP, LineOfSight.STEP_SIZE, LineOfSight.TOLERANCE);
+	}
+
+	/**
+	 * Construct an evaluator
+	 *
+	 * @param heightMap The heightMap to check LOS against, which must not change afterwards
+	 * @param traversal The strategy for walking rays across the height map, see LineOfSight.setTraversal
+	 * @param stepSize The step size (in metres) for the STEP and ADAPTIVE traversals
+	 * @param tolerance The distance (in metres) to which the ADAPTIVE traversal refines intersections
+	 */
+	public LineOfSightEvaluator(SurfaceModel heightMap, LineOfSight.Traversal traversal, double stepSize, double tolerance) {
+		this.heightMap = heightMap;
+		this.traversal = traversal;
+		this.stepSize = stepSize;
+		this.tolerance = tolerance;
+		this.tracer = new RayTracer(heightMap, traversal, stepSize, tolerance);
+	}
+
+	/**
+	 * Calculate Line of Sight for one observation
+	 *
+	 * @param easting World easting of eye position
+	 * @param northing World northing of eye position
+	 * @param bearing Bearing in degrees from device (heading)
+	 * @param tilt Tilt of the eye in degrees, 0 is horizontal, 90 is pointing at ground
+	 * @param userHeight Height of the phone/eye
+	 * @param out Receives the result, its values are NaN unless the ray intersected the surface
+	 * @return One of the LineOfSight.STATUS_ codes, as out.getStatus()
+	 */
+	public int evaluate(double easting, double northing, double bearing, double tilt, double userHeight, LineOfSightResult out) {
+		int status = tracer.trace(easting, northing, bearing, tilt, userHeight, out.values, 0);
+		out.set(status);
+		return status;
+	}
+
+	/////////////
+	// GETTERS //
+	/////////////
+
+	public SurfaceModel getHeightMap() {
+		return this.heightMap;
+	}
+
+	public LineOfSight.Traversal getTraversal() {
+		return this.traversal;
+	}
+
+	public double getStepSize() {
+		return this.stepSize;
+	}
+
+	public double getTolerance() {
+		return this.tolerance;
+	}
+}
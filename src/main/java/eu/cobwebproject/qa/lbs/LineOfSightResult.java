@@ -0,0 +1,98 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.util.Arrays;
+
+/**
+ * A reusable holder for the result of one Line of Sight evaluation
+ *
+ * LineOfSightEvaluator writes into a holder supplied by the caller, so a
+ * thread can evaluate any number of observations with one holder and no
+ * allocation. A holder must not be shared between threads evaluating at
+ * the same time.
+ *
+ * Example Usage:
+ *     LineOfSightResult result = new LineOfSightResult();
+ *     if(evaluator.evaluate(easting, northing, bearing, tilt, userHeight, result) == LineOfSight.STATUS_HIT)
+ *         target(result.getX(), result.getY());
+ */
+public final class LineOfSightResult {
+	final double[] values = new double[LineOfSightBatch.RESULT_SIZE];	// as LineOfSight.calculateLOS(), written by the tracer
+	private int status;
+
+	/**
+	 * Construct an empty result, with no intersection
+	 */
+	public LineOfSightResult() {
+		set(LineOfSight.STATUS_NO_INTERSECTION);
+	}
+
+	/**
+	 * Records the status of an evaluation, clearing the values unless it is a hit
+	 */
+	void set(int status) {
+		this.status = status;
+		if(status != LineOfSight.STATUS_HIT)
+			Arrays.fill(values, Double.NaN);
+	}
+
+	/**
+	 * @return One of the LineOfSight.STATUS_ codes
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return Whether the ray intersected the surface, if not the other values are NaN
+	 */
+	public boolean isHit() {
+		return status == LineOfSight.STATUS_HIT;
+	}
+
+	/**
+	 * @return The horizontal distance to the target
+	 */
+	public double getDistance() {
+		return values[0];
+	}
+
+	/**
+	 * @return The world height of the eye
+	 */
+	public double getEyeHeight() {
+		return values[1];
+	}
+
+	/**
+	 * @return The easting of the target
+	 */
+	public double getX() {
+		return values[2];
+	}
+
+	/**
+	 * @return The northing of the target
+	 */
+	public double getY() {
+		return values[3];
+	}
+
+	/**
+	 * @return The height of the surface at the target
+	 */
+	public double getHeight() {
+		return values[4];
+	}
+
+	/**
+	 * @return A copy of the values in the order of LineOfSight.calculateLOS()
+	 */
+	public double[] toArray() {
+		return values.clone();
+	}
+
+	@Override
+	public String toString() {
+		return isHit() ? LineOfSight.resultAsString(values) : "Status:" + status;
+	}
+}
@@ -0,0 +1,136 @@
+package eu.cobwebproject.qa.lbs;
+
+/**
+ * A max-height pyramid (max mipmap) of a surface model
+ *
+ * Level 0 is the surface itself and each level above holds the maximum of
+ * 2x2 blocks of the level below, so a cell at level L covers a block of
+ * 2^L by 2^L surface cells. The levels stop when a single cell covers the
+ * whole surface. Blocks on the right and bottom edges are partial when the
+ * surface is not a power of two across.
+ *
+ * The levels above 0 are stored as floats, rounded up where needed, so a
+ * block maximum is never lower than the heights in the block and the
+ * pyramid takes a third of the memory of a FLOAT raster.
+ *
+ * The pyramid of a raster read through TiledCells stops at the tile size
+ * and each tile builds its own levels when they are first used, so only
+ * the tiles a ray passes are read and their levels are held in the tile
+ * cache rather than for the whole raster.
+ *
+ * Used by the HIERARCHICAL Line of Sight traversal to skip blocks the ray
+ * passes over. A Raster builds its pyramid on first use, see
+ * Raster.getMaxHeightPyramid().
+ */
+public final class MaxHeightPyramid {
+	private final SurfaceModel surface;
+	private final int levelCount;
+	private final float[][] levels;		// levels[L - 1] is level L, row-major, null when the tiles hold them
+	private final int[] widths;			// widths[L] is the number of cols at level L
+	private final TiledCells tiles;		// only for tiled rasters
+
+	/**
+	 * Builds the pyramid for a surface model
+	 *
+	 * @param surface The surface model, which must not change afterwards
+	 */
+	public MaxHeightPyramid(SurfaceModel surface) {
+		this.surface = surface;
+		this.tiles = null;
+		Parameters params = surface.getParams();
+		int width = params.getnCols();
+		int height = params.getnRows();
+
+		int count = levelCount(params);
+		this.levelCount = count;
+		this.levels = new float[count][];
+		this.widths = new int[count + 1];
+		widths[0] = width;
+
+		for(int level = 1; level <= count; level++) {
+			int belowWidth = width, belowHeight = height;
+			width = (width + 1) >> 1;
+			height = (height + 1) >> 1;
+			widths[level] = width;
+			float[] max = new float[width * height];
+			for(int row = 0; row < height; row++) {
+				for(int col = 0; col < width; col++) {
+					double value = Double.NEGATIVE_INFINITY;
+					for(int y = row << 1; y < Math.min((row << 1) + 2, belowHeight); y++) {
+						for(int x = col << 1; x < Math.min((col << 1) + 2, belowWidth); x++) {
+							value = Math.max(value, getMax(level - 1, x, y));
+						}
+					}
+					max[row * width + col] = roundUp(value);
+				}
+			}
+			levels[level - 1] = max;
+		}
+	}
+
+	/**
+	 * The pyramid of a tiled raster, with levels up to the tile size kept by each tile
+	 *
+	 * @param tiles The tiled cells, which build the levels of a tile as it is used
+	 */
+	MaxHeightPyramid(TiledCells tiles) {
+		this.surface = tiles.getRaster();
+		this.tiles = tiles;
+		this.levelCount = Math.min(levelCount(surface.getParams()), tiles.getTileShift());
+		this.levels = null;
+		this.widths = null;
+	}
+
+	/**
+	 * @return The number of levels above the surface, the top level is a single cell unless the raster is tiled
+	 */
+	public int getLevels() {
+		return levelCount;
+	}
+
+	/**
+	 * Gets the maximum height in a block, without checking it is in bounds
+	 *
+	 * @param level The level, 0 is the surface
+	 * @param x block coordinate in cols at that level
+	 * @param y block coordinate in rows at that level
+	 * @return The maximum height of the surface cells in the block, or slightly above it
+	 */
+	public double getMax(int level, int x, int y) {
+		if(level == 0)
+			return surface.getCell(x, y);
+		if(tiles != null)
+			return tiles.getBlockMax(level, x, y);
+		return levels[level - 1][y * widths[level] + x];
+	}
+
+	/**
+	 * @return The memory used by the levels above the surface, in bytes
+	 */
+	long getBytes() {
+		long bytes = 0;
+		if(levels != null) {
+			for(float[] level : levels)
+				bytes += 4L * level.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * The number of levels until a single cell covers the whole surface
+	 */
+	private static int levelCount(Parameters params) {
+		int count = 0;
+		for(int w = params.getnCols(), h = params.getnRows(); w > 1 || h > 1; w = (w + 1) >> 1, h = (h + 1) >> 1)
+			count++;
+		return count;
+	}
+
+	/**
+	 * Rounds to the nearest float that is not below the value
+	 */
+	static float roundUp(double value) {
+		float rounded = (float) value;
+		return rounded < value ? Math.nextUp(rounded) : rounded;
+	}
+}
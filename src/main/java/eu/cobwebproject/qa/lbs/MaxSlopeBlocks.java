@@ -0,0 +1,100 @@
+package eu.cobwebproject.qa.lbs;
+
+/**
+ * The largest height step between neighbouring cells in each block of a
+ * surface model
+ *
+ * The surface is split into square blocks of BLOCK_SIZE cells and each
+ * block holds the largest height difference between two cells of the block
+ * that share an edge or a corner. Between any two points of a block the
+ * surface can then rise by at most that step for each cell crossed, which
+ * bounds how far a ray above the surface can go before it might meet it.
+ * Blocks on the right and bottom edges are partial when the surface is not
+ * a multiple of BLOCK_SIZE across.
+ *
+ * The steps are stored as floats, rounded up where needed, so they are
+ * never lower than the true steps.
+ *
+ * The blocks of a raster read through TiledCells are built by each tile
+ * when first used and held in the tile cache, so only the tiles a ray
+ * passes are read. Tiles smaller than a block report no step bound.
+ *
+ * Used by the ADAPTIVE Line of Sight traversal to take safe long steps. A
+ * Raster builds its blocks on first use, see Raster.getMaxSlopeBlocks().
+ */
+public final class MaxSlopeBlocks {
+	/** Width and height of a block in cells */
+	public static final int BLOCK_SIZE = 16;
+	static final int BLOCK_SHIFT = 4;
+
+	private final float[] steps;		// row-major by block, null when the tiles hold them
+	private final int blockCols;
+	private final TiledCells tiles;		// only for tiled rasters
+
+	/**
+	 * Builds the blocks for a surface model
+	 *
+	 * @param surface The surface model, which must not change afterwards
+	 */
+	public MaxSlopeBlocks(SurfaceModel surface) {
+		this.tiles = null;
+		Parameters params = surface.getParams();
+		int width = params.getnCols();
+		int height = params.getnRows();
+		this.blockCols = (width + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		int blockRows = (height + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		this.steps = new float[blockCols * blockRows];
+
+		double[] max = new double[steps.length];
+		for(int row = 0; row < height; row++) {
+			for(int col = 0; col < width; col++) {
+				double value = surface.getCell(col, row);
+				int block = (row >> BLOCK_SHIFT) * blockCols + (col >> BLOCK_SHIFT);
+				boolean right = col + 1 < width && (col + 1) >> BLOCK_SHIFT == col >> BLOCK_SHIFT;
+				boolean left = col > 0 && (col - 1) >> BLOCK_SHIFT == col >> BLOCK_SHIFT;
+				if(right)
+					max[block] = Math.max(max[block], Math.abs(surface.getCell(col + 1, row) - value));
+				if(row + 1 < height && (row + 1) >> BLOCK_SHIFT == row >> BLOCK_SHIFT) {
+					max[block] = Math.max(max[block], Math.abs(surface.getCell(col, row + 1) - value));
+					if(right)
+						max[block] = Math.max(max[block], Math.abs(surface.getCell(col + 1, row + 1) - value));
+					if(left)
+						max[block] = Math.max(max[block], Math.abs(surface.getCell(col - 1, row + 1) - value));
+				}
+			}
+		}
+		for(int block = 0; block < steps.length; block++)
+			steps[block] = MaxHeightPyramid.roundUp(max[block]);
+	}
+
+	/**
+	 * The blocks of a tiled raster, kept by each tile
+	 *
+	 * @param tiles The tiled cells, which build the blocks of a tile as it is used
+	 */
+	MaxSlopeBlocks(TiledCells tiles) {
+		this.tiles = tiles;
+		this.steps = null;
+		this.blockCols = 0;
+	}
+
+	/**
+	 * Gets the largest step between neighbouring cells in a block, without checking it is in bounds
+	 *
+	 * @param col cell coordinate in cols of any cell in the block
+	 * @param row cell coordinate in rows of any cell in the block
+	 * @return The largest height difference between neighbouring cells of the block, or slightly above it
+	 */
+	public double getMaxStep(int col, int row) {
+		if(tiles != null)
+			return tiles.getMaxStep(col, row);
+		return steps[(row >> BLOCK_SHIFT) * blockCols + (col >> BLOCK_SHIFT)];
+	}
+
+	/**
+	 * @return The memory used by the steps, in bytes
+	 */
+	long getBytes() {
+		return steps == null ? 0 : 4L * steps.length;
+	}
+}
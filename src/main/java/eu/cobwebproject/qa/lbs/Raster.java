@@ -1,35 +1,80 @@
 package eu.cobwebproject.qa.lbs;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.Arrays;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Encapsulates the data about a raster with utility functions to read
  * the raster from a square or rectangular Arc ASCII grid
  * 
+ * The cells are held in a single row-major CellBuffer, as doubles by
+ * default or as floats or scaled shorts to save memory on large rasters.
+ * Raster is the standard SurfaceModel for Line of Sight.
+ * 
+ * Rasters loaded into memory or mapped hold at most Integer.MAX_VALUE
+ * cells, larger ones are read a tile at a time through TiledCells.
+ * 
  * @author Sebastian Clarke - Environment Systems - sebastian.clarke@envsys.co.uk
  *
  */
-public class Raster {
+public class Raster implements SurfaceModel {
 	private final Parameters params;			// The parameters of the data (e.g., rows, cols) 
-	private final double[][] surfaceModel;		// The actual surface model data
+	private final CellBuffer cells;				// The actual surface model data, row-major
+	private final int nCols;					// row length of the cells
 	private final String fileName;				// the fileName if we did the parseing
+	private volatile double[][] surfaceModel;	// 2d copy of the cells, only created if asked for
+	private volatile MaxHeightPyramid pyramid;	// block maxima for hierarchical LOS, only created if asked for
+	private volatile MaxSlopeBlocks slopes;		// block steps for adaptive LOS, only created if asked for
 
 	/**
 	 * Construct a raster with the parameters and data already parsed.
 	 * note: The String file constructor is preferred. 
 	 * 
 	 * @param p A parsed parsed Parameter object
-	 * @param surfaceModel The surface model as a 2d double array
+	 * @param surfaceModel The surface model as a 2d double array, this is copied into DOUBLE cells
+	 * and not kept, so later changes to it do not affect the raster
+	 * @throws IllegalArgumentException If the raster has more than Integer.MAX_VALUE cells
 	 */
 	public Raster(Parameters p, double[][] surfaceModel) {
 		this.fileName = null;
 		this.params = p;
-		this.surfaceModel = surfaceModel;
+		this.nCols = p.getnCols();
+		long cellCount = (long) nCols * p.getnRows();
+		if(cellCount > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("A raster of " + nCols + "x" + p.getnRows() + " has too many cells to hold in memory, open it with TiledCells");
+		this.cells = CellBuffer.allocate(CellBuffer.Type.DOUBLE, (int) cellCount, p.getnoData());
+		for(int row = 0; row < p.getnRows(); row++) {
+			for(int col = 0; col < nCols; col++) {
+				cells.set(row * nCols + col, surfaceModel[row][col]);
+			}
+		}
+	}
+	
+	/**
+	 * Construct a raster with the parameters and cells already parsed.
+	 * 
+	 * @param p A parsed parsed Parameter object
+	 * @param cells The surface model in row-major order
+	 */
+	public Raster(Parameters p, CellBuffer cells) {
+		this(null, p, cells);
+	}
+	
+	/**
+	 * Construct a raster read from a file by other means (e.g., BinaryRasterFile)
+	 * 
+	 * @param fileName The name of the file for toString
+	 * @param p A parsed parsed Parameter object
+	 * @param cells The surface model in row-major order
+	 */
+	Raster(String fileName, Parameters p, CellBuffer cells) {
+		this.fileName = fileName;
+		this.params = p;
+		this.nCols = p.getnCols();
+		this.cells = cells;
 	}
 	
 	/**
@@ -39,21 +84,18 @@ public class Raster {
 	 * @throws IOException If the file can't be found or anything else goes wrong whilst reading
 	 */
 	public Raster(String file) throws IOException {
-		this.fileName = file;	
-		// read and parse header from filename to parameters
-		BufferedReader br = new BufferedReader(new FileReader(fileName));
-		try {
-			double[] headerData = Raster.consumeRasterHeader(br);	
-			this.params = new Parameters(headerData[4], 
-										 (int) headerData[0], 
-										 (int) headerData[1], 
-										 headerData[2], 
-										 headerData[3], 
-										 headerData[5]);
-			this.surfaceModel = Raster.consumeAsciiData(br, params.getnCols(), params.getnRows());
-		} finally {
-			br.close();
-		}
+		this(file, CellBuffer.Type.DOUBLE);
+	}
+	
+	/**
+	 * Constructor returns a Raster parsed from the file path specified as string
+	 * 
+	 * @param file A String of the path to the file to parse
+	 * @param type The encoding to store the cells with
+	 * @throws IOException If the file can't be found or anything else goes wrong whilst reading
+	 */
+	public Raster(String file, CellBuffer.Type type) throws IOException {
+		this(file, new FileInputStream(file).getChannel(), type);
 	}
 	
 	/**
@@ -64,19 +106,41 @@ public class Raster {
 	 * 
 	 */
 	public Raster(URL url) throws IOException {
-		this.fileName = url.toString();
-		BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream()));
+		this(url, CellBuffer.Type.DOUBLE);
+	}
+	
+	/**
+	 * Constructor returns a Raster parsed from the file given by url
+	 * 
+	 * @param url Url to the ascii heightmap data
+	 * @param type The encoding to store the cells with
+	 * @throws IOException 
+	 * 
+	 */
+	public Raster(URL url, CellBuffer.Type type) throws IOException {
+		this(url.toString(), Channels.newChannel(url.openStream()), type);
+	}
+	
+	/**
+	 * Reads an ascii grid from an opened channel, closing it when done
+	 * 
+	 * @param fileName The name of the file for toString
+	 * @param channel The channel to read the ascii heightmap data from
+	 * @param type The encoding to store the cells with
+	 * @throws IOException If anything goes wrong whilst reading
+	 */
+	private Raster(String fileName, ReadableByteChannel channel, CellBuffer.Type type) throws IOException {
+		this.fileName = fileName;
 		try {
-			double[] headerData = Raster.consumeRasterHeader(br);	
-			this.params = new Parameters(headerData[4], 
-										 (int) headerData[0], 
-										 (int) headerData[1], 
-										 headerData[2], 
-										 headerData[3], 
-										 headerData[5]);
-			this.surfaceModel = Raster.consumeAsciiData(br, params.getnCols(), params.getnRows());
+			AsciiGridReader reader = new AsciiGridReader(channel);
+			this.params = reader.readHeader();
+			this.nCols = params.getnCols();
+			long cellCount = (long) nCols * params.getnRows();
+			if(cellCount > Integer.MAX_VALUE)
+				throw new IOException(fileName + " has too many cells to load, convert it with BinaryRasterFile and open it with TiledCells");
+			this.cells = reader.readCells(CellBuffer.allocate(type, (int) cellCount, params.getnoData()));
 		} finally {
-			br.close();
+			channel.close();
 		}
 	}
 	
@@ -84,120 +148,153 @@ public class Raster {
 	 * Getter for the params
 	 * @return the parameters
 	 */
+	@Override
 	public Parameters getParams() {
 		return params;
 	}
 	
 	/**
-	 * Getter for the surface model
+	 * Getter for the surface model as a 2d array, indexed [row][col]
+	 * 
+	 * The raster is not stored this way, so the array is created on first
+	 * use (doubling the memory used). Prefer getXY or getUnchecked.
+	 * 
 	 * @return the surface model
 	 */
 	public double[][] getSurfaceModel() {
-		return surfaceModel;
+		double[][] model = surfaceModel;
+		if(model == null) {
+			model = new double[params.getnRows()][nCols];
+			for(int row = 0; row < model.length; row++) {
+				for(int col = 0; col < nCols; col++) {
+					model[row][col] = getCell(col, row);
+				}
+			}
+			surfaceModel = model;
+		}
+		return model;
+	}
+	
+	/**
+	 * Getter for the max-height pyramid of the raster, used by the
+	 * HIERARCHICAL Line of Sight traversal
+	 * 
+	 * The pyramid is built on first use and kept, so the cells must not
+	 * be changed afterwards. It is held on the heap, taking a third of the
+	 * memory of FLOAT cells even when the cells are memory mapped. Rasters
+	 * from TiledCells build it per tile through the tile cache instead.
+	 * 
+	 * @return the max-height pyramid
+	 */
+	public MaxHeightPyramid getMaxHeightPyramid() {
+		MaxHeightPyramid maxHeights = pyramid;
+		if(maxHeights == null) {
+			synchronized (this) {
+				maxHeights = pyramid;
+				if(maxHeights == null) {
+					maxHeights = new MaxHeightPyramid(this);
+					pyramid = maxHeights;
+				}
+			}
+		}
+		return maxHeights;
+	}
+	
+	/**
+	 * Getter for the largest steps between neighbouring cells, used by the
+	 * ADAPTIVE Line of Sight traversal
+	 * 
+	 * The blocks are built on first use and kept, so the cells must not
+	 * be changed afterwards. Rasters from TiledCells build them per tile
+	 * through the tile cache instead of for the whole raster.
+	 * 
+	 * @return the max slope blocks
+	 */
+	public MaxSlopeBlocks getMaxSlopeBlocks() {
+		MaxSlopeBlocks maxSlopes = slopes;
+		if(maxSlopes == null) {
+			synchronized (this) {
+				maxSlopes = slopes;
+				if(maxSlopes == null) {
+					maxSlopes = new MaxSlopeBlocks(this);
+					slopes = maxSlopes;
+				}
+			}
+		}
+		return maxSlopes;
+	}
+	
+	/**
+	 * Getter for the cell storage
+	 * @return the cells in row-major order
+	 */
+	public CellBuffer getCells() {
+		return cells;
 	}
 	
 	/**
 	 * Gets the value from the surface model for given x,y cell index coords
 	 * 
-	 * @param x cell coordinate in rows
-	 * @param y cell coordinate in cols
+	 * @param x cell coordinate in cols
+	 * @param y cell coordinate in rows
 	 * 
 	 * @return the value from the surface model raster 
 	 */
+	@Override
 	public double getXY(int x, int y) {
-		if (y >= params.getnCols() || y < 0)
-			throw new ArrayIndexOutOfBoundsException("Surface Y out of bounds: " + y);
-		if (x >= params.getnRows() || x < 0)
-			throw new ArrayIndexOutOfBoundsException("Surface X out of bounds: " + x);
-		
-		return surfaceModel[y][x];
-	}
-	
-	/**
-	 * Private static function to read the raster header data from an open
-	 * BufferedReader and return it as an array of doubles. This does
-	 * not close the buffered reader stream.
-	 *  
-	 * @param br The opened buffered reader to consume the header from
-	 * @return an array of doubles containing the ascii header data
-	 * @throws IOException if there is a problem reading from the bufferedReader 
-	 */
-	private static double[] consumeRasterHeader(BufferedReader br) throws IOException {
-		double[] headerData = new double[6];
-			
-		for(int i = 0; i < 6; i++) {				
-			int skip = 0;	// chars to skip before value
-			
-			switch (i) {
-			case 0:
-				skip = 6;
-				break;	
-			case 1:
-				skip = 6;
-				break;
-			case 2: 	
-				skip = 9;
-				break;
-			case 3:
-				skip = 9;
-				break;
-			case 4: 	
-				skip = 8;
-				break;
-			case 5: 	
-				skip = 12;
-				break;						
-			}
+		if (y >= params.getnRows() || y < 0 || x >= params.getnCols() || x < 0)
+			throw new ArrayIndexOutOfBoundsException(outOfBoundsMessage(params, x, y));
 		
-			String DSMline = br.readLine();
-			char[] buffer = new char[DSMline.length()];
-			DSMline.getChars(skip,DSMline.length(), buffer, 0);
-			headerData[i] = Double.parseDouble(String.valueOf(buffer));
-		}
-			
-		return headerData;
+		return getCell(x, y);
+	}
+	
+	@Override
+	public double getCell(int x, int y) {
+		return cells.get(y * nCols + x);
 	}
 	
 	/**
-	 * Private static function to read the square or rectangular surface model raster from an opened
-	 * BufferedReader. This does not close the BufferedReader object
+	 * Gets the value from the surface model for the cell containing a world coordinate
 	 * 
-	 * @param br: The opened BufferedReader
-	 * @param cols: The number of columns in the dataset
-	 * @param rows: The number of rows in the dataset
-	 * @return a 2d array of doubles representing the height field
-	 * @throws IOException If there is a problem reading from the file
+	 * @param easting World easting coordinates
+	 * @param northing World northing coordinates
+	 * @return the value from the surface model raster
 	 */
-	private static double[][] consumeAsciiData(BufferedReader br, int cols, int rows) throws IOException {	
-				
-		double[][] ASCIIData = new double[rows][cols];
-		
-		int rowIndex=0;
-		int colIndex=0;
-		String line;
-		while ((line = br.readLine()) != null)	
-		{			
-			String[] values = line.trim().split("[ ]+");			
-        	for (String str : values)
-        	{
-        		double str_double = Double.parseDouble(str);    		
-        		ASCIIData[rowIndex][colIndex]=str_double;
-				colIndex=colIndex+1;
-        	}
-        	colIndex=0;
-        	rowIndex=rowIndex+1;       
-		}						
-		//printAscii(ASCIIData); //for debugging, don't use on big models		
-		return ASCIIData;	
-	
-	}
-		private static void printAscii(double[][] ASCIIData) {
-		System.out.println("printing ascii:");		
-		  for (double[] row : ASCIIData) 
-		        System.out.println(Arrays.toString(row));    
+	@Override
+	public double getHeight(double easting, double northing) {
+		int x = (int) Math.floor((easting - params.getxlCorner()) / params.getcellSize());
+		int y = params.getnRows() - (int) Math.ceil((northing - params.getylCorner()) / params.getcellSize());
+		return getXY(x, y);
+	}
+	
+	/**
+	 * Gets the value from the surface model for a row-major cell index
+	 * (row * nCols + col), without checking the row and col are in bounds
+	 * 
+	 * For engines that have already checked the bounds themselves, the
+	 * index only reaches every cell of rasters of up to Integer.MAX_VALUE cells
+	 * 
+	 * @param index the cell index
+	 * @return the value from the surface model raster
+	 */
+	public double getUnchecked(int index) {
+		return cells.get(index);
+	}
+	
+	/**
+	 * Describes why a cell index is out of bounds, as reported by getXY
+	 * 
+	 * @param params The parameters of the grid
+	 * @param x cell coordinate in cols
+	 * @param y cell coordinate in rows
+	 * @return the message for the out of bounds cell
+	 */
+	static String outOfBoundsMessage(Parameters params, int x, int y) {
+		if (y >= params.getnRows() || y < 0)
+			return "Surface Y out of bounds: " + y;
+		return "Surface X out of bounds: " + x;
 	}
 	
-		
 	public String toString() {
 		if(fileName != null)
 			return fileName;
@@ -212,6 +309,7 @@ public class Raster {
 	 * @param northing World northing coordinates
 	 * @return true if the the point is within raster coverage area, else false
 	 */
+	@Override
 	public boolean isPointInBounds(double easting, double northing) {
 		if(easting > params.getxlCorner() + (params.getcellSize() * params.getnCols())) 
 			return false;
@@ -0,0 +1,560 @@
+package eu.cobwebproject.qa.lbs;
+
+/**
+ * The Line of Sight traversal algorithms, without exceptions or allocation
+ *
+ * A RayTracer is bound to a height map and a traversal strategy and holds
+ * no other state, so one instance can be shared between threads. The
+ * outcome of each trace is returned as one of the LineOfSight.STATUS_ codes
+ * and results are written into a caller supplied array.
+ *
+ * LineOfSight and LineOfSightBatch are both built on this class, see
+ * LineOfSight for the details of the algorithms.
+ */
+final class RayTracer {
+	private final SurfaceModel heightMap;
+	private final LineOfSight.Traversal traversal;
+	private final double stepSize;
+	private final double tolerance;
+	private final MaxHeightPyramid pyramid;		// only for the HIERARCHICAL traversal
+	private final MaxSlopeBlocks slopes;		// only for the ADAPTIVE traversal
+
+	// grid geometry, cached to avoid going through the parameters for every lookup
+	private final double xlCorner;
+	private final double ylCorner;
+	private final double cellSize;
+	private final int nCols;
+	private final int nRows;
+
+	/**
+	 * @param heightMap The heightMap to trace rays against
+	 * @param traversal The strategy for walking rays across the height map
+	 * @param stepSize The step size (in metres) for the STEP traversal, the smallest step for ADAPTIVE
+	 * @param tolerance The distance (in metres) to which the ADAPTIVE traversal refines intersections
+	 */
+	RayTracer(SurfaceModel heightMap, LineOfSight.Traversal traversal, double stepSize, double tolerance) {
+		this.heightMap = heightMap;
+		this.traversal = traversal;
+		this.stepSize = stepSize;
+		this.tolerance = tolerance;
+		if(traversal != LineOfSight.Traversal.HIERARCHICAL)
+			this.pyramid = null;
+		else if(heightMap instanceof Raster)
+			this.pyramid = ((Raster) heightMap).getMaxHeightPyramid();	// built once and shared
+		else
+			this.pyramid = new MaxHeightPyramid(heightMap);
+		if(traversal != LineOfSight.Traversal.ADAPTIVE)
+			this.slopes = null;
+		else if(heightMap instanceof Raster)
+			this.slopes = ((Raster) heightMap).getMaxSlopeBlocks();
+		else
+			this.slopes = new MaxSlopeBlocks(heightMap);
+
+		Parameters params = heightMap.getParams();
+		this.xlCorner = params.getxlCorner();
+		this.ylCorner = params.getylCorner();
+		this.cellSize = params.getcellSize();
+		this.nCols = params.getnCols();
+		this.nRows = params.getnRows();
+	}
+
+	/**
+	 * Trace a single ray
+	 *
+	 * On STATUS_HIT the result (horizontal distance to target, world height of user,
+	 * x of target, y of target, height of target) is written to out[offset] to out[offset + 4].
+	 * On STATUS_REACHED_SURFACE_BOUNDS the column and row of the cell outside the raster
+	 * are written to out[offset] and out[offset + 1]. Otherwise out is untouched.
+	 *
+	 * @param easting World easting of eye position
+	 * @param northing World northing of eye position
+	 * @param bearing Bearing in degrees from device (heading)
+	 * @param tilt Tilt of the eye in degrees, 0 is horizontal, 90 is pointing at ground
+	 * @param userHeight Height of the phone/eye
+	 * @param out Array to write the result into
+	 * @param offset Index in out of the first result value
+	 * @return One of the LineOfSight.STATUS_ codes
+	 */
+	int trace(double easting, double northing, double bearing, double tilt, double userHeight, double[] out, int offset) {
+		if(!heightMap.isPointInBounds(easting, northing))
+			return LineOfSight.STATUS_START_OUT_OF_BOUNDS;
+
+		int col = getXCell(easting);
+		int row = getYCell(northing);
+		if(!isCellInBounds(col, row))
+			return outOfBounds(col, row, out, offset);
+
+		double surfaceHeight = traversal == LineOfSight.Traversal.BILINEAR ? getInterpolatedHeight(easting, northing) : heightMap.getCell(col, row);
+		double eyeHeight = userHeight + surfaceHeight;
+		double theta = Math.toRadians(360.0 - (bearing - 90.0));	// compass bearing to height map angle
+		double dirX = Math.cos(theta);					// easting change per metre down the ray
+		double dirY = Math.sin(theta);					// northing change per metre down the ray
+		double slope = Math.tan(Math.toRadians(-tilt));	// ray height change per metre down the ray
+
+		if(traversal == LineOfSight.Traversal.HIERARCHICAL)
+			return traverseHierarchical(easting, northing, dirX, dirY, slope, eyeHeight, userHeight, out, offset);
+		if(traversal == LineOfSight.Traversal.ADAPTIVE)
+			return traverseAdaptive(easting, northing, dirX, dirY, slope, eyeHeight, userHeight, out, offset);
+		if(traversal == LineOfSight.Traversal.BILINEAR)
+			return traverseBilinear(easting, northing, dirX, dirY, slope, eyeHeight, userHeight, out, offset);
+		if(traversal == LineOfSight.Traversal.GRID)
+			return traverseGrid(easting, northing, dirX, dirY, slope, eyeHeight, userHeight, out, offset);
+		return traverseSteps(easting, northing, dirX, dirY, slope, eyeHeight, userHeight, out, offset);
+	}
+
+	/**
+	 * Steps down the ray in increments of the step size, testing the ray
+	 * height against the surface at each step
+	 */
+	private int traverseSteps(double easting, double northing, double dirX, double dirY, double slope,
+							  double eyeHeight, double userHeight, double[] out, int offset) {
+		double distance = userHeight;		// start the distance down the line at userHeight
+
+		while (distance < LineOfSight.VIEW_DISTANCE) {
+			double x = easting + dirX * distance;
+			double y = northing + dirY * distance;
+			int col = getXCell(x);
+			int row = getYCell(y);
+			if(!isCellInBounds(col, row))
+				return outOfBounds(col, row, out, offset);
+
+			double surfaceHeight = heightMap.getCell(col, row);
+			if(distance * slope + eyeHeight <= surfaceHeight)	// intersection test
+				return hit(distance, eyeHeight, x, y, surfaceHeight, out, offset);
+
+			distance += stepSize;
+		}
+		return LineOfSight.STATUS_NO_INTERSECTION;
+	}
+
+	/**
+	 * Steps down the ray as traverseSteps, but takes longer steps where it is
+	 * safe and refines the intersection by bisection
+	 *
+	 * Within a block of MaxSlopeBlocks the surface rises by at most the block's
+	 * largest step for each cell crossed, so from the margin of the ray over the
+	 * surface at a sample and the slope of the ray we know how far the ray
+	 * certainly stays above the surface, up to the edge of the block. The next
+	 * sample is taken there, or one step size on where there is no such
+	 * distance. Once a sample is at or below the surface the crossing is
+	 * bisected between it and the last sample above to within the tolerance,
+	 * and the first sample found at or below is reported as traverseSteps does.
+	 */
+	private int traverseAdaptive(double easting, double northing, double dirX, double dirY, double slope,
+								 double eyeHeight, double userHeight, double[] out, int offset) {
+		double u0 = (easting - xlCorner) / cellSize;
+		double v0 = nRows - (northing - ylCorner) / cellSize;
+		double du = dirX / cellSize;
+		double dv = -dirY / cellSize;
+		double above = Double.NaN;			// distance of the last sample above the surface
+		double distance = userHeight;
+
+		while (distance < LineOfSight.VIEW_DISTANCE) {
+			int col = getXCell(easting + dirX * distance);
+			int row = getYCell(northing + dirY * distance);
+			if(!isCellInBounds(col, row))
+				return outOfBounds(col, row, out, offset);
+
+			double surfaceHeight = heightMap.getCell(col, row);
+			double margin = distance * slope + eyeHeight - surfaceHeight;
+			if(margin <= 0)
+				return bisect(above, distance, easting, northing, dirX, dirY, slope, eyeHeight, out, offset);
+			above = distance;
+
+			// the distance the ray surely stays above the surface, rising at most maxStep per cell
+			double maxStep = slopes.getMaxStep(col, row);
+			double safe = 0;
+			if(margin > maxStep) {
+				double rise = maxStep / cellSize - slope;		// how much faster the surface may rise than the ray
+				int colLow = col & -MaxSlopeBlocks.BLOCK_SIZE, rowLow = row & -MaxSlopeBlocks.BLOCK_SIZE;
+				int colHigh = Math.min(colLow + MaxSlopeBlocks.BLOCK_SIZE, nCols), rowHigh = Math.min(rowLow + MaxSlopeBlocks.BLOCK_SIZE, nRows);
+				double exitCol = du > 0 ? (colHigh - u0) / du : du < 0 ? (colLow - u0) / du : Double.POSITIVE_INFINITY;
+				double exitRow = dv > 0 ? (rowHigh - v0) / dv : dv < 0 ? (rowLow - v0) / dv : Double.POSITIVE_INFINITY;
+				safe = Math.min(Math.min(exitCol, exitRow) - distance, rise > 0 ? (margin - maxStep) / rise : Double.POSITIVE_INFINITY);
+			}
+			distance += Math.max(safe, stepSize);
+		}
+		return LineOfSight.STATUS_NO_INTERSECTION;
+	}
+
+	/**
+	 * Narrows a crossing of the surface down to the tolerance
+	 *
+	 * @param above distance of a sample above the surface, NaN if there is none (the ray starts below)
+	 * @param below distance of a sample at or below the surface
+	 */
+	private int bisect(double above, double below, double easting, double northing, double dirX, double dirY, double slope,
+					   double eyeHeight, double[] out, int offset) {
+		while (below - above > tolerance) {			// false for NaN
+			double middle = (above + below) / 2;
+			double surfaceHeight = heightMap.getCell(getXCell(easting + dirX * middle), getYCell(northing + dirY * middle));
+			if(middle * slope + eyeHeight <= surfaceHeight)
+				below = middle;
+			else
+				above = middle;
+		}
+		double x = easting + dirX * below;
+		double y = northing + dirY * below;
+		return hit(below, eyeHeight, x, y, heightMap.getCell(getXCell(x), getYCell(y)), out, offset);
+	}
+
+	/**
+	 * Walks the ray across the height map one cell at a time (Amanatides & Woo)
+	 *
+	 * For every cell the ray crosses we know the distances at which it enters
+	 * and leaves. As the ray height is linear in distance, the lowest point of
+	 * the ray over the cell is at one of these, so the cell is tested exactly
+	 * and the intersection distance solved for directly.
+	 */
+	private int traverseGrid(double easting, double northing, double dirX, double dirY, double slope,
+							 double eyeHeight, double userHeight, double[] out, int offset) {
+		// work in cell units: u increases with columns (east), v with rows (south)
+		double u0 = (easting - xlCorner) / cellSize;
+		double v0 = nRows - (northing - ylCorner) / cellSize;
+		double du = dirX / cellSize;
+		double dv = -dirY / cellSize;
+
+		double distance = userHeight;		// as the stepped traversal, start userHeight down the ray
+		int col = (int) Math.floor(u0 + du * distance);
+		int row = (int) Math.floor(v0 + dv * distance);
+		int colStep = du > 0 ? 1 : -1;
+		int rowStep = dv > 0 ? 1 : -1;
+		double nextCol = distanceToBoundary(u0, du, col);	// distance at which we cross into the next column
+		double nextRow = distanceToBoundary(v0, dv, row);	// distance at which we cross into the next row
+
+		while (distance < LineOfSight.VIEW_DISTANCE) {
+			if(!isCellInBounds(col, row))
+				return outOfBounds(col, row, out, offset);
+
+			double surfaceHeight = heightMap.getCell(col, row);
+			// a start exactly on a boundary can put the boundary a rounding error behind the ray
+			double exit = Math.max(distance, Math.min(Math.min(nextCol, nextRow), LineOfSight.VIEW_DISTANCE));
+
+			if(eyeHeight + slope * distance <= surfaceHeight)	// already below the surface on entering the cell
+				return hit(distance, eyeHeight, easting + dirX * distance, northing + dirY * distance, surfaceHeight, out, offset);
+
+			if(eyeHeight + slope * exit <= surfaceHeight) {		// descends through the surface within the cell
+				double hit = Math.max(distance, Math.min((surfaceHeight - eyeHeight) / slope, exit));
+				return hit(hit, eyeHeight, easting + dirX * hit, northing + dirY * hit, surfaceHeight, out, offset);
+			}
+
+			if(nextCol < nextRow) {
+				col += colStep;
+				nextCol = distanceToBoundary(u0, du, col);
+			} else {
+				row += rowStep;
+				nextRow = distanceToBoundary(v0, dv, row);
+			}
+			distance = exit;
+		}
+		return LineOfSight.STATUS_NO_INTERSECTION;
+	}
+
+	/**
+	 * Walks the ray as traverseGrid, but skips whole blocks of cells the ray passes over
+	 *
+	 * At each position the largest block of the max-height pyramid containing
+	 * the current cell is found that the ray stays above until it leaves the
+	 * block, and the ray jumps to the block exit. Only where no block can be
+	 * skipped is a single cell tested exactly as traverseGrid does. Blocks are
+	 * clipped to the raster, so the ray leaves the raster through the same cell
+	 * as it would with traverseGrid, and since cell boundaries are computed the
+	 * same way the results are identical.
+	 *
+	 * The level tried first is one above the level last skipped, so over high
+	 * ground the blocks grow quickly and the work is logarithmic in distance.
+	 */
+	private int traverseHierarchical(double easting, double northing, double dirX, double dirY, double slope,
+									 double eyeHeight, double userHeight, double[] out, int offset) {
+		double u0 = (easting - xlCorner) / cellSize;
+		double v0 = nRows - (northing - ylCorner) / cellSize;
+		double du = dirX / cellSize;
+		double dv = -dirY / cellSize;
+
+		double distance = userHeight;
+		int col = (int) Math.floor(u0 + du * distance);
+		int row = (int) Math.floor(v0 + dv * distance);
+		int levels = pyramid.getLevels();
+		int level = 0;
+
+		while (distance < LineOfSight.VIEW_DISTANCE) {
+			if(!isCellInBounds(col, row))
+				return outOfBounds(col, row, out, offset);
+
+			double entryHeight = eyeHeight + slope * distance;
+			boolean skipped = false;
+			for(level = Math.min(level + 1, levels); level > 0; level--) {
+				// the block containing the current cell, clipped to the raster
+				int colLow = (col >> level) << level, rowLow = (row >> level) << level;
+				int colHigh = Math.min(colLow + (1 << level), nCols), rowHigh = Math.min(rowLow + (1 << level), nRows);
+				double exitCol = du > 0 ? (colHigh - u0) / du : du < 0 ? (colLow - u0) / du : Double.POSITIVE_INFINITY;
+				double exitRow = dv > 0 ? (rowHigh - v0) / dv : dv < 0 ? (rowLow - v0) / dv : Double.POSITIVE_INFINITY;
+				double exit = Math.max(distance, Math.min(Math.min(exitCol, exitRow), LineOfSight.VIEW_DISTANCE));
+
+				double lowest = Math.min(entryHeight, eyeHeight + slope * exit);	// the ray height is linear, so lowest at an end
+				if(lowest <= pyramid.getMax(level, col >> level, row >> level))
+					continue;
+
+				// step into the neighbouring cell across the face we leave by, traverseGrid crosses
+				// rows before cols when they coincide, so a row boundary at the exit has been crossed
+				if(exitCol < exitRow) {
+					col = du > 0 ? colHigh : colLow - 1;
+					row = cellAt(v0, dv, exit, true, rowLow, rowHigh - 1);
+				} else {
+					row = dv > 0 ? rowHigh : rowLow - 1;
+					col = cellAt(u0, du, exit, false, colLow, colHigh - 1);
+				}
+				distance = exit;
+				skipped = true;
+				break;
+			}
+			if(skipped)
+				continue;
+
+			// no block can be skipped, test the single cell as traverseGrid
+			double nextCol = distanceToBoundary(u0, du, col);
+			double nextRow = distanceToBoundary(v0, dv, row);
+			double surfaceHeight = heightMap.getCell(col, row);
+			double exit = Math.max(distance, Math.min(Math.min(nextCol, nextRow), LineOfSight.VIEW_DISTANCE));
+
+			if(entryHeight <= surfaceHeight)
+				return hit(distance, eyeHeight, easting + dirX * distance, northing + dirY * distance, surfaceHeight, out, offset);
+
+			if(eyeHeight + slope * exit <= surfaceHeight) {
+				double hit = Math.max(distance, Math.min((surfaceHeight - eyeHeight) / slope, exit));
+				return hit(hit, eyeHeight, easting + dirX * hit, northing + dirY * hit, surfaceHeight, out, offset);
+			}
+
+			if(nextCol < nextRow)
+				col += du > 0 ? 1 : -1;
+			else
+				row += dv > 0 ? 1 : -1;
+			distance = exit;
+		}
+		return LineOfSight.STATUS_NO_INTERSECTION;
+	}
+
+	/**
+	 * Walks the ray across a half cell grid, intersecting it exactly with the
+	 * bilinearly interpolated surface
+	 *
+	 * The surface interpolates between the heights at the cell centres, so it
+	 * is bilinear within each square of four centres (the dual grid) and the
+	 * raster is extended flat for the half cell beyond its outer centres. Each
+	 * half cell lies in one raster cell, for the bounds, and one dual cell, for
+	 * the heights. Over a half cell the ray height is linear and the surface
+	 * quadratic in distance, so the first crossing is the smallest root of a
+	 * quadratic. Half cells whose four corner heights are all below the ray
+	 * are skipped without solving.
+	 */
+	private int traverseBilinear(double easting, double northing, double dirX, double dirY, double slope,
+								 double eyeHeight, double userHeight, double[] out, int offset) {
+		// work in half cell units: u increases with columns (east), v with rows (south)
+		double u0 = 2 * (easting - xlCorner) / cellSize;
+		double v0 = 2 * (nRows - (northing - ylCorner) / cellSize);
+		double du = 2 * dirX / cellSize;
+		double dv = -2 * dirY / cellSize;
+
+		double distance = userHeight;
+		int halfCol = (int) Math.floor(u0 + du * distance);
+		int halfRow = (int) Math.floor(v0 + dv * distance);
+		double nextCol = distanceToBoundary(u0, du, halfCol);
+		double nextRow = distanceToBoundary(v0, dv, halfRow);
+		int dualCol = Integer.MIN_VALUE, dualRow = Integer.MIN_VALUE;
+		double h00 = 0, h10 = 0, h01 = 0, h11 = 0, highest = 0;
+
+		while (distance < LineOfSight.VIEW_DISTANCE) {
+			int col = halfCol >> 1, row = halfRow >> 1;
+			if(!isCellInBounds(col, row))
+				return outOfBounds(col, row, out, offset);
+
+			double exit = Math.max(distance, Math.min(Math.min(nextCol, nextRow), LineOfSight.VIEW_DISTANCE));
+			int left = (halfCol - 1) >> 1, top = (halfRow - 1) >> 1;	// the dual cell, its corners are these cell centres
+			if(left != dualCol || top != dualRow) {		// about half the steps stay in the same dual cell
+				dualCol = left;
+				dualRow = top;
+				h00 = getClampedCell(left, top);
+				h10 = getClampedCell(left + 1, top);
+				h01 = getClampedCell(left, top + 1);
+				h11 = getClampedCell(left + 1, top + 1);
+				highest = Math.max(Math.max(h00, h10), Math.max(h01, h11));
+			}
+			double entryHeight = eyeHeight + slope * distance;
+
+			if(Math.min(entryHeight, eyeHeight + slope * exit) <= highest) {
+				// position in the dual cell at entry, and its change per metre
+				double a = (u0 + du * distance) / 2 - 0.5 - left, da = du / 2;
+				double b = (v0 + dv * distance) / 2 - 0.5 - top, db = dv / 2;
+				double bx = h10 - h00, by = h01 - h00, bxy = h00 - h10 - h01 + h11;
+				// surface height s metres past the entry is f0 + f1 * s + f2 * s * s
+				double f0 = h00 + bx * a + by * b + bxy * a * b;
+				double f1 = bx * da + by * db + bxy * (a * db + b * da);
+				double f2 = bxy * da * db;
+
+				double s = firstRoot(entryHeight - f0, slope - f1, -f2, exit - distance);
+				if(s >= 0) {
+					double hit = distance + s;
+					return hit(hit, eyeHeight, easting + dirX * hit, northing + dirY * hit, f0 + (f1 + f2 * s) * s, out, offset);
+				}
+			}
+
+			if(nextCol < nextRow) {
+				halfCol += du > 0 ? 1 : -1;
+				nextCol = distanceToBoundary(u0, du, halfCol);
+			} else {
+				halfRow += dv > 0 ? 1 : -1;
+				nextRow = distanceToBoundary(v0, dv, halfRow);
+			}
+			distance = exit;
+		}
+		return LineOfSight.STATUS_NO_INTERSECTION;
+	}
+
+	/**
+	 * The first distance at which the ray meets the surface within a half cell
+	 *
+	 * @param g0 height of the ray above the surface at entry
+	 * @param g1 change of that height per metre
+	 * @param g2 change of that height per metre squared
+	 * @param length the distance across the half cell
+	 * @return the distance past the entry at which the ray height above the surface first reaches 0, -1 if not within the length
+	 */
+	private static double firstRoot(double g0, double g1, double g2, double length) {
+		if(g0 <= 0)
+			return 0;
+		double end = g0 + (g1 + g2 * length) * length;
+		double root = Double.POSITIVE_INFINITY;
+		if(g2 == 0) {
+			if(g1 < 0)
+				root = -g0 / g1;
+		} else {
+			double discriminant = g1 * g1 - 4 * g2 * g0;
+			if(discriminant >= 0) {
+				// the stable form of the roots, q / g2 and g0 / q
+				double q = -0.5 * (g1 + Math.copySign(Math.sqrt(discriminant), g1));
+				double r1 = q / g2, r2 = q == 0 ? Double.POSITIVE_INFINITY : g0 / q;
+				root = Math.min(r1 >= 0 ? r1 : Double.POSITIVE_INFINITY, r2 >= 0 ? r2 : Double.POSITIVE_INFINITY);
+			}
+		}
+		if(root <= length)
+			return root;
+		return end <= 0 ? length : -1;		// rounding lost a root at the very end
+	}
+
+	/**
+	 * Gets the bilinearly interpolated height of the surface at a world coordinate, see traverseBilinear
+	 */
+	private double getInterpolatedHeight(double easting, double northing) {
+		double x = (easting - xlCorner) / cellSize - 0.5;
+		double y = nRows - (northing - ylCorner) / cellSize - 0.5;
+		int left = (int) Math.floor(x), top = (int) Math.floor(y);
+		double a = x - left, b = y - top;
+		double upper = getClampedCell(left, top) * (1 - a) + getClampedCell(left + 1, top) * a;
+		double lower = getClampedCell(left, top + 1) * (1 - a) + getClampedCell(left + 1, top + 1) * a;
+		return upper * (1 - b) + lower * b;
+	}
+
+	/**
+	 * Gets the height of a cell, using the nearest edge cell for cells just outside the raster
+	 */
+	private double getClampedCell(int col, int row) {
+		return heightMap.getCell(Math.min(Math.max(col, 0), nCols - 1), Math.min(Math.max(row, 0), nRows - 1));
+	}
+
+	/**
+	 * Distance down the ray at which it leaves the given cell along one axis
+	 *
+	 * Computed from the ray origin each time so error does not accumulate over long rays
+	 *
+	 * @param origin ray origin along the axis, in cell units
+	 * @param direction change along the axis per metre down the ray, in cell units
+	 * @param cell index of the current cell along the axis
+	 * @return the distance down the ray of the next cell boundary, infinity if the ray is parallel to the axis
+	 */
+	private static double distanceToBoundary(double origin, double direction, int cell) {
+		if(direction > 0)
+			return (cell + 1 - origin) / direction;
+		if(direction < 0)
+			return (cell - origin) / direction;
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private static int hit(double distance, double eyeHeight, double x, double y, double surfaceHeight, double[] out, int offset) {
+		out[offset] = distance;
+		out[offset + 1] = eyeHeight;
+		out[offset + 2] = x;
+		out[offset + 3] = y;
+		out[offset + 4] = surfaceHeight;
+		return LineOfSight.STATUS_HIT;
+	}
+
+	/**
+	 * Describes a cell reported by STATUS_REACHED_SURFACE_BOUNDS, as SurfaceModel.getXY would
+	 */
+	String outOfBoundsMessage(int col, int row) {
+		return Raster.outOfBoundsMessage(heightMap.getParams(), col, row);
+	}
+
+	private static int outOfBounds(int col, int row, double[] out, int offset) {
+		out[offset] = col;
+		out[offset + 1] = row;
+		return LineOfSight.STATUS_REACHED_SURFACE_BOUNDS;
+	}
+
+	/**
+	 * The cell along one axis that traverseGrid is in when the ray reaches a distance
+	 *
+	 * Found from the boundary distances rather than the position, so it agrees
+	 * with traverseGrid even where rounding puts the position in a neighbour.
+	 *
+	 * @param origin ray origin along the axis, in cell units
+	 * @param direction change along the axis per metre down the ray, in cell units
+	 * @param distance distance down the ray
+	 * @param inclusive whether a boundary exactly at the distance has been crossed
+	 * @param low lowest cell to return
+	 * @param high highest cell to return
+	 * @return the cell index along the axis
+	 */
+	private static int cellAt(double origin, double direction, double distance, boolean inclusive, int low, int high) {
+		int cell = Math.min(Math.max((int) Math.floor(origin + direction * distance), low), high);
+		if(direction == 0)
+			return cell;
+		int step = direction > 0 ? 1 : -1;
+		while (cell + step >= low && cell + step <= high && isCrossed(distanceToBoundary(origin, direction, cell), distance, inclusive))
+			cell += step;
+		while (cell - step >= low && cell - step <= high && !isCrossed(distanceToBoundary(origin, direction, cell - step), distance, inclusive))
+			cell -= step;
+		return cell;
+	}
+
+	private static boolean isCrossed(double boundary, double distance, boolean inclusive) {
+		return inclusive ? boundary <= distance : boundary < distance;
+	}
+
+	private boolean isCellInBounds(int col, int row) {
+		return col >= 0 && col < nCols && row >= 0 && row < nRows;
+	}
+
+	/**
+	 * Gets the Y Cell index for a world northing coordinate
+	 *
+	 * @param northing The Northing in world coordinates
+	 * @return the row index of the cell containing that northing
+	 */
+	private int getYCell(double northing) {
+		double localY = northing - ylCorner;
+		int cellIndex = (int) Math.ceil(localY / cellSize);
+		return nRows - cellIndex; // reverse indexing, need to use nrows for the reversing of a northing value.
+	}
+
+	/**
+	 * Gets the X Cell index for a world easting coordinate
+	 *
+	 * @param easting Easting of the point in world coordinates
+	 * @return the column index of the cell containing that easting
+	 */
+	private int getXCell(double easting) {
+		double localX = easting - xlCorner;
+		return (int) Math.floor(localX / cellSize); // no reverse indexing, ascii indexes from the lower left corner
+	}
+}
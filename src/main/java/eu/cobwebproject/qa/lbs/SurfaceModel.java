@@ -0,0 +1,61 @@
+package eu.cobwebproject.qa.lbs;
+
+/**
+ * A regular grid of surface heights that Line of Sight can be calculated against
+ *
+ * Cells are indexed by column (x, increasing east) and row (y, increasing
+ * south from the top of the grid), as in an Arc ASCII grid. Raster is the
+ * standard implementation, others can store the heights however they like
+ * (memory mapped, tiled, compressed or computed) without changes to
+ * LineOfSight.
+ *
+ * Implementations must be safe to read from several threads at once.
+ */
+public interface SurfaceModel {
+
+	/**
+	 * @return the geometry of the grid (origin, cell size, rows, cols and no data value)
+	 */
+	Parameters getParams();
+
+	/**
+	 * Check if a set of world coordinates is within the coverage area
+	 *
+	 * @param easting World easting coordinates
+	 * @param northing World northing coordinates
+	 * @return true if the the point is within coverage area, else false
+	 */
+	boolean isPointInBounds(double easting, double northing);
+
+	/**
+	 * Gets the height of a cell
+	 *
+	 * @param x cell coordinate in cols
+	 * @param y cell coordinate in rows
+	 * @return the height of the cell
+	 * @throws ArrayIndexOutOfBoundsException If the cell is outside the grid
+	 */
+	double getXY(int x, int y);
+
+	/**
+	 * Gets the height of a cell without checking it is in the grid
+	 *
+	 * For engines that have already checked the bounds themselves, the result
+	 * for a cell outside the grid is undefined.
+	 *
+	 * @param x cell coordinate in cols
+	 * @param y cell coordinate in rows
+	 * @return the height of the cell
+	 */
+	double getCell(int x, int y);
+
+	/**
+	 * Gets the height of the cell containing a world coordinate
+	 *
+	 * @param easting World easting coordinates
+	 * @param northing World northing coordinates
+	 * @return the height of the cell containing the point
+	 * @throws ArrayIndexOutOfBoundsException If the point is outside the grid
+	 */
+	double getHeight(double easting, double northing);
+}
@@ -0,0 +1,456 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cells of a binary raster that are loaded from disk a tile at a time
+ *
+ * The grid is split into square tiles which are read on demand from a
+ * BinaryRasterFile and kept in a least recently used cache with a fixed
+ * memory budget, so rasters far larger than the heap can be used. A line
+ * of sight only touches the thin strip of tiles along the ray, so a small
+ * cache is enough for repeated queries over the same area.
+ *
+ * HIERARCHICAL and ADAPTIVE Line of Sight use a max-height pyramid and
+ * max slope blocks that each tile builds for itself when first used,
+ * counted against the cache budget, so tracing rays never reads the whole
+ * raster, see MaxHeightPyramid and MaxSlopeBlocks.
+ *
+ * Tiles are found from the row and column by shifts, so getCell(col, row)
+ * and the raster reach every cell of rasters up to BinaryRasterFile.MAX_CELLS.
+ * The row-major get(int) index, and so Raster.getUnchecked, only reaches
+ * the first Integer.MAX_VALUE cells.
+ *
+ * Lookups are thread safe, tiles are read with positional reads so several
+ * threads can load tiles at once. Each thread remembers the last tile it
+ * used and checks it before the shared cache, so it may hold one tile
+ * beyond the memory budget. Close the cells when done to release the file,
+ * reading them afterwards throws IllegalStateException on every thread.
+ *
+ * Example Usage:
+ *     TiledCells tiles = TiledCells.open(new File("dsm.bin"), TiledCells.DEFAULT_TILE_SIZE, 64L << 20);
+ *     try {
+ *         double[] result = LineOfSight.Calculate(tiles.getRaster(), easting, northing, bearing, tilt, userHeight);
+ *     } finally {
+ *         tiles.close();
+ *     }
+ */
+public final class TiledCells extends CellBuffer implements Closeable {
+	/** Default width and height of a tile in cells */
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final Raster raster;
+	private final MaxHeightPyramid pyramid;
+	private final MaxSlopeBlocks slopes;
+	private final BinaryRasterFile.Header header;
+	private final int nCols;
+	private final int nRows;
+	private final int tileShift;		// log2 of the tile size
+	private final int tileMask;
+	private final int tileCols;			// number of tiles across the raster
+	private final long cacheBytes;
+
+	private final LinkedHashMap<Long, Tile> cache;		// guarded by itself, in access order
+	private long cachedBytes;							// guarded by cache
+	private long tileLoads;								// guarded by cache
+	private volatile boolean closed;
+	// the last tile each thread used, checked before the cache so threads don't contend on it,
+	// tiles don't refer back to the cells so a pool thread's cursor doesn't keep them open
+	private final ThreadLocal<Cursor> cursors = new ThreadLocal<Cursor>() {
+		@Override
+		protected Cursor initialValue() {
+			return new Cursor();
+		}
+	};
+
+	/**
+	 * Opens a binary raster for tiled access
+	 *
+	 * @param file The binary raster file, see BinaryRasterFile
+	 * @param tileSize The width and height of a tile in cells, must be a power of two
+	 * @param cacheBytes The memory budget of the tile cache, at least one tile is always kept
+	 * @return The tiled cells
+	 * @throws IOException If the file can't be read or is not a binary raster
+	 * @throws IllegalArgumentException If the tile size is not a power of two or a tile would exceed 2GB
+	 */
+	public static TiledCells open(File file, int tileSize, long cacheBytes) throws IOException {
+		if(tileSize <= 0 || Integer.bitCount(tileSize) != 1)
+			throw new IllegalArgumentException("Tile size must be a power of two, not " + tileSize);
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			BinaryRasterFile.Header header = BinaryRasterFile.readHeader(in.getChannel(), file);
+			if((long) tileSize * tileSize * header.cellSize > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Tiles of " + tileSize + " cells are too large for " + header.type + " cells");
+			long expected = BinaryRasterFile.HEADER_SIZE + header.cellCount * header.cellSize;
+			if(in.length() < expected)
+				throw new IOException(file + " is truncated, expected " + expected + " bytes");
+			return new TiledCells(file, in, header, tileSize, cacheBytes);
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	private TiledCells(File file, RandomAccessFile in, BinaryRasterFile.Header header, int tileSize, long cacheBytes) {
+		super(header.cellCount);
+		this.file = in;
+		this.channel = in.getChannel();
+		this.header = header;
+		this.nCols = header.params.getnCols();
+		this.nRows = header.params.getnRows();
+		this.tileShift = Integer.numberOfTrailingZeros(tileSize);
+		this.tileMask = tileSize - 1;
+		this.tileCols = (nCols + tileMask) >>> tileShift;
+		this.cacheBytes = cacheBytes;
+		this.cache = new LinkedHashMap<Long, Tile>(16, 0.75f, true);
+		this.raster = new TiledRaster(file.getPath());
+		this.pyramid = new MaxHeightPyramid(this);
+		this.slopes = new MaxSlopeBlocks(this);
+	}
+
+	/**
+	 * @return A raster reading its cells through this tile cache
+	 */
+	public Raster getRaster() {
+		return raster;
+	}
+
+	/**
+	 * Gets the value of a cell by column and row, without checking they are in bounds
+	 *
+	 * @param col cell coordinate in cols
+	 * @param row cell coordinate in rows
+	 * @return The value of the cell
+	 */
+	public double getCell(int col, int row) {
+		Tile tile = getTile(col, row);
+		return tile.get(((row & tileMask) * tile.width + (col & tileMask)) * header.cellSize);
+	}
+
+	/**
+	 * Gets the value of a cell, only the first Integer.MAX_VALUE cells can be reached by index
+	 */
+	@Override
+	public double get(int index) {
+		int row = index / nCols;
+		return getCell(index - row * nCols, row);
+	}
+
+	@Override
+	public void set(int index, double value) {
+		throw new UnsupportedOperationException("Tiled rasters are read only");
+	}
+
+	@Override
+	public Type getType() {
+		return header.type;
+	}
+
+	/**
+	 * @return The number of tiles read from disk so far
+	 */
+	public long getTileLoads() {
+		synchronized (cache) {
+			return tileLoads;
+		}
+	}
+
+	/**
+	 * @return The memory used by the tiles currently cached, in bytes
+	 */
+	public long getCachedBytes() {
+		synchronized (cache) {
+			return cachedBytes;
+		}
+	}
+
+	/**
+	 * @return log2 of the tile size
+	 */
+	int getTileShift() {
+		return tileShift;
+	}
+
+	/**
+	 * Gets the maximum height in a block of the pyramid from the levels of its tile
+	 *
+	 * @param level The level, between 1 and the tile shift
+	 * @param x block coordinate in cols at that level
+	 * @param y block coordinate in rows at that level
+	 * @return The maximum height of the cells in the block, or slightly above it
+	 */
+	double getBlockMax(int level, int x, int y) {
+		int col = x << level, row = y << level;
+		MaxHeightPyramid tilePyramid = getTile(col, row).getPyramid(this);
+		int tileLevel = Math.min(level, tilePyramid.getLevels());	// a partial tile may have fewer levels
+		return tilePyramid.getMax(tileLevel, (col & tileMask) >> tileLevel, (row & tileMask) >> tileLevel);
+	}
+
+	/**
+	 * Gets the largest step between neighbouring cells in a block of MaxSlopeBlocks from its tile
+	 *
+	 * @param col cell coordinate in cols of any cell in the block
+	 * @param row cell coordinate in rows of any cell in the block
+	 * @return The largest step in the block, or infinity if tiles are smaller than blocks
+	 */
+	double getMaxStep(int col, int row) {
+		if(tileShift < MaxSlopeBlocks.BLOCK_SHIFT)
+			return Double.POSITIVE_INFINITY;	// a block spans several tiles, so no step is safe
+		return getTile(col, row).getSlopes(this).getMaxStep(col & tileMask, row & tileMask);
+	}
+
+	/**
+	 * Closes the file and empties the cache, tiles can't be loaded afterwards
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		synchronized (cache) {
+			cache.clear();
+			cachedBytes = 0;
+		}
+		cursors.remove();
+		file.close();
+	}
+
+	/**
+	 * Gets the tile holding a cell, checking the last tile this thread used first
+	 */
+	private Tile getTile(int col, int row) {
+		if(closed)
+			throw new IllegalStateException(raster + " is closed");
+		long tileIndex = (long) (row >>> tileShift) * tileCols + (col >>> tileShift);
+
+		Cursor cursor = cursors.get();
+		Tile tile = cursor.tile;
+		if(tile == null || tile.index != tileIndex) {
+			tile = getTile(tileIndex);
+			cursor.tile = tile;
+		}
+		return tile;
+	}
+
+	/**
+	 * Gets a tile from the cache, loading it if it isn't there
+	 *
+	 * The tile is read outside the lock so other threads aren't held up, if two
+	 * threads miss on the same tile at once the first one loaded is kept.
+	 */
+	private Tile getTile(long tileIndex) {
+		Long key = tileIndex;
+		synchronized (cache) {
+			Tile tile = cache.get(key);
+			if(tile != null)
+				return tile;
+		}
+
+		Tile loaded;
+		try {
+			loaded = loadTile(tileIndex);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read tile " + tileIndex + " of " + raster, e);
+		}
+
+		synchronized (cache) {
+			Tile tile = cache.get(key);
+			if(tile != null)
+				return tile;
+			cache.put(key, loaded);
+			cachedBytes += loaded.bytes;
+			tileLoads++;
+			evict();
+			return loaded;
+		}
+	}
+
+	/**
+	 * Counts memory a cached tile has taken since it was loaded against the budget
+	 */
+	private void charge(Tile tile, long bytes) {
+		synchronized (cache) {
+			if(cache.get(tile.index) != tile)
+				return;		// already evicted
+			tile.bytes += bytes;
+			cachedBytes += bytes;
+			evict();
+		}
+	}
+
+	/**
+	 * Evicts least recently used tiles until within budget, always keeping the most recent
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Long, Tile>> eldest = cache.entrySet().iterator();
+		while (cachedBytes > cacheBytes && cache.size() > 1) {
+			cachedBytes -= eldest.next().getValue().bytes;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Reads a tile from the file, one tile row at a time as the file is row-major
+	 */
+	private Tile loadTile(long tileIndex) throws IOException {
+		int firstRow = (int) (tileIndex / tileCols) << tileShift;
+		int firstCol = (int) (tileIndex % tileCols) << tileShift;
+		int width = Math.min(tileMask + 1, nCols - firstCol);
+		int height = Math.min(tileMask + 1, nRows - firstRow);
+		int rowBytes = width * header.cellSize;
+
+		ByteBuffer cells = ByteBuffer.allocate(rowBytes * height).order(ByteOrder.LITTLE_ENDIAN);
+		for(int row = 0; row < height; row++) {
+			long position = BinaryRasterFile.HEADER_SIZE + ((long) (firstRow + row) * nCols + firstCol) * header.cellSize;
+			cells.limit((row + 1) * rowBytes);
+			while (cells.hasRemaining()) {
+				int read = channel.read(cells, position);
+				if(read < 0)
+					throw new IOException(raster + " ended unexpectedly");
+				position += read;
+			}
+		}
+		return new Tile(tileIndex, width, height, cells, header);
+	}
+
+	/**
+	 * Raster reading by column and row, so every cell is reached without a row-major index
+	 */
+	private final class TiledRaster extends Raster {
+		TiledRaster(String fileName) {
+			super(fileName, header.params, TiledCells.this);
+		}
+
+		@Override
+		public double getCell(int x, int y) {
+			return TiledCells.this.getCell(x, y);
+		}
+
+		@Override
+		public MaxHeightPyramid getMaxHeightPyramid() {
+			return pyramid;
+		}
+
+		@Override
+		public MaxSlopeBlocks getMaxSlopeBlocks() {
+			return slopes;
+		}
+	}
+
+	/**
+	 * The last tile a thread used
+	 */
+	private static final class Cursor {
+		Tile tile;
+	}
+
+	/**
+	 * The cells of one tile in the file encoding, never modified once loaded
+	 *
+	 * A tile is also the surface its own pyramid levels and slope blocks are
+	 * built from, with its lower left corner at 0,0 so its coordinates are
+	 * relative to the tile. It doesn't refer to the cells it was loaded by,
+	 * which are passed in to be charged for the pyramid and slopes.
+	 */
+	private static final class Tile implements SurfaceModel {
+		final long index;
+		final int width;
+		final ByteBuffer cells;
+		private final BinaryRasterFile.Header header;
+		private final Parameters params;
+		private volatile MaxHeightPyramid pyramid;	// only created if asked for
+		private volatile MaxSlopeBlocks slopes;		// only created if asked for
+		long bytes;									// guarded by cache, memory counted against the budget
+
+		Tile(long index, int width, int height, ByteBuffer cells, BinaryRasterFile.Header header) {
+			this.index = index;
+			this.width = width;
+			this.cells = cells;
+			this.header = header;
+			this.params = new Parameters(header.params.getcellSize(), width, height, 0, 0, header.params.getnoData());
+			this.bytes = cells.capacity();
+		}
+
+		MaxHeightPyramid getPyramid(TiledCells owner) {
+			MaxHeightPyramid maxHeights = pyramid;
+			if(maxHeights == null) {
+				synchronized (this) {
+					maxHeights = pyramid;
+					if(maxHeights == null) {
+						maxHeights = new MaxHeightPyramid(this);
+						pyramid = maxHeights;
+						owner.charge(this, maxHeights.getBytes());
+					}
+				}
+			}
+			return maxHeights;
+		}
+
+		MaxSlopeBlocks getSlopes(TiledCells owner) {
+			MaxSlopeBlocks maxSlopes = slopes;
+			if(maxSlopes == null) {
+				synchronized (this) {
+					maxSlopes = slopes;
+					if(maxSlopes == null) {
+						maxSlopes = new MaxSlopeBlocks(this);
+						slopes = maxSlopes;
+						owner.charge(this, maxSlopes.getBytes());
+					}
+				}
+			}
+			return maxSlopes;
+		}
+
+		@Override
+		public Parameters getParams() {
+			return params;
+		}
+
+		@Override
+		public double getCell(int x, int y) {
+			return get((y * width + x) * header.cellSize);
+		}
+
+		@Override
+		public double getXY(int x, int y) {
+			if (y >= params.getnRows() || y < 0 || x >= width || x < 0)
+				throw new ArrayIndexOutOfBoundsException(Raster.outOfBoundsMessage(params, x, y));
+			return getCell(x, y);
+		}
+
+		@Override
+		public double getHeight(double easting, double northing) {
+			int x = (int) Math.floor((easting - params.getxlCorner()) / params.getcellSize());
+			int y = params.getnRows() - (int) Math.ceil((northing - params.getylCorner()) / params.getcellSize());
+			return getXY(x, y);
+		}
+
+		@Override
+		public boolean isPointInBounds(double easting, double northing) {
+			return easting >= params.getxlCorner() && easting <= params.getxlCorner() + params.getcellSize() * params.getnCols()
+					&& northing >= params.getylCorner() && northing <= params.getylCorner() + params.getcellSize() * params.getnRows();
+		}
+
+		double get(int position) {
+			switch (header.type) {
+			case FLOAT:
+				return cells.getFloat(position);
+			case SHORT:
+				return ShortCells.decode(cells.getShort(position), header.scale, header.offset, header.params.getnoData());
+			default:
+				return cells.getDouble(position);
+			}
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Calculates the viewshed of an observer, the cells of a surface model
+ * the observer can see
+ *
+ * Rather than tracing a ray to every cell, the XDraw approximation is used.
+ * The cells are visited in square rings of increasing distance around the
+ * observer, and each cell inherits the horizon (the steepest slope from the
+ * eye to any cell between it and the observer) from the two cells of the
+ * previous ring its line of sight passes between, interpolated linearly.
+ * A cell is visible if the slope to it is at least its horizon. Each cell is
+ * visited once, so the cost is proportional to the number of cells in range.
+ *
+ * The eight octants around the observer are independent, so they are
+ * calculated in parallel with fork/join. Only the cells within the maximum
+ * radius are visited, and each octant needs just two rings of working
+ * memory.
+ *
+ * Distances are between cell centres, with the eye userHeight above the
+ * centre of the cell containing the observer. Cells with the no data value
+ * are never visible and do not block the view.
+ *
+ * The result is a BitSet, so the height map can have at most
+ * Integer.MAX_VALUE cells and the view can reach at most MAX_RINGS cells
+ * from the observer, limit larger views with setMaxRadius.
+ *
+ * Example Usage:
+ *     BitSet visible = Viewshed.Calculate(heightMap, easting, northing, userHeight);
+ *     if(visible.get(row * heightMap.getParams().getnCols() + col)) { // the cell at col, row can be seen
+ */
+public class Viewshed {
+	/** Most cells the view can reach from the observer along an axis, so each octant fits a BitSet */
+	public static final int MAX_RINGS = 65534;
+	private static final double NO_HORIZON = -Double.MAX_VALUE;	// finite so it can be interpolated
+
+	private final SurfaceModel heightMap;
+	private double maxRadius;
+	private ForkJoinPool pool;
+
+	/**
+	 * Construct a new viewshed calculator for a height map
+	 *
+	 * There is no maximum radius and the common fork/join pool is used
+	 *
+	 * @param heightMap The heightMap to calculate viewsheds on
+	 */
+	public Viewshed(SurfaceModel heightMap) {
+		this.heightMap = heightMap;
+		this.maxRadius = Double.POSITIVE_INFINITY;
+		this.pool = ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Calculate the viewshed of an observer
+	 *
+	 * @param easting World easting of eye position
+	 * @param northing World northing of eye position
+	 * @param userHeight Height of the eye above the surface
+	 * @return The visible cells, the bit for the cell at col, row is at row * nCols + col
+	 * @throws StartPositionOutOfBoundsException If the observer is not covered by the height map
+	 * @throws IllegalArgumentException If the height map has more than Integer.MAX_VALUE cells or
+	 * the view reaches more than MAX_RINGS cells from the observer
+	 */
+	public BitSet calculate(double easting, double northing, double userHeight) throws StartPositionOutOfBoundsException {
+		Parameters params = heightMap.getParams();
+		int nCols = params.getnCols();
+		int nRows = params.getnRows();
+		if((long) nCols * nRows > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Height map has too many cells for a viewshed: " + nCols + "x" + nRows);
+		int col = (int) Math.floor((easting - params.getxlCorner()) / params.getcellSize());
+		int row = nRows - (int) Math.ceil((northing - params.getylCorner()) / params.getcellSize());
+		if(!heightMap.isPointInBounds(easting, northing) || col < 0 || col >= nCols || row < 0 || row >= nRows)
+			throw new StartPositionOutOfBoundsException("Position " + easting + "," + northing + " is out of bounds of the heightmap");
+
+		double rings = Math.max(Math.max(col, nCols - 1 - col), Math.max(row, nRows - 1 - row));
+		rings = Math.min(rings, Math.ceil(maxRadius / params.getcellSize()));
+		if(rings > MAX_RINGS)
+			throw new IllegalArgumentException("Viewshed reaches " + (long) rings + " cells from the observer, set a max radius of at most "
+											   + MAX_RINGS + " cells");
+
+		double eyeHeight = heightMap.getCell(col, row) + userHeight;
+		OctantTask[] octants = new OctantTask[8];
+		for(int i = 0; i < octants.length; i++) {
+			octants[i] = new OctantTask(heightMap, col, row, eyeHeight, maxRadius, (i & 1) == 0 ? 1 : -1, (i & 2) == 0 ? 1 : -1, (i & 4) != 0);
+			pool.execute(octants[i]);
+		}
+
+		BitSet visible = new BitSet(nCols * nRows);
+		visible.set(row * nCols + col);
+		for(OctantTask octant : octants)
+			octant.join().addTo(visible);
+		return visible;
+	}
+
+	/**
+	 * Does a one off viewshed calculation
+	 *
+	 * @param heightMap The heightMap to calculate the viewshed on
+	 * @param easting World easting of eye position
+	 * @param northing World northing of eye position
+	 * @param userHeight Height of the eye above the surface
+	 * @return The visible cells, the bit for the cell at col, row is at row * nCols + col
+	 * @throws StartPositionOutOfBoundsException If the observer is not covered by the height map
+	 */
+	public static BitSet Calculate(SurfaceModel heightMap, double easting, double northing, double userHeight) throws StartPositionOutOfBoundsException {
+		return new Viewshed(heightMap).calculate(easting, northing, userHeight);
+	}
+
+	/**
+	 * Sweeps the rings of one octant
+	 *
+	 * Octant cells are addressed by ring i (distance from the observer along the
+	 * major axis) and j (0 to i along the minor axis). The major axis is columns
+	 * unless swapped, and signs give the direction along each axis. The cells on
+	 * the axes and diagonals are shared with the neighbouring octants, which
+	 * calculate the same visibility for them.
+	 */
+	private static class OctantTask extends RecursiveTask<OctantTask> {
+		private static final long serialVersionUID = -4405926497210047381L;
+
+		private final SurfaceModel heightMap;
+		private final int col, row, colSign, rowSign;
+		private final boolean swap;
+		private final double eyeHeight, maxRadius;
+		private final BitSet visible = new BitSet();		// indexed by ring-major position in the octant, see index()
+
+		OctantTask(SurfaceModel heightMap, int col, int row, double eyeHeight, double maxRadius, int colSign, int rowSign, boolean swap) {
+			this.heightMap = heightMap;
+			this.col = col;
+			this.row = row;
+			this.eyeHeight = eyeHeight;
+			this.maxRadius = maxRadius;
+			this.colSign = colSign;
+			this.rowSign = rowSign;
+			this.swap = swap;
+		}
+
+		@Override
+		protected OctantTask compute() {
+			Parameters params = heightMap.getParams();
+			double cellSize = params.getcellSize();
+			double noData = params.getnoData();
+			int colCells = colSign > 0 ? params.getnCols() - 1 - col : col;	// cells available beyond the observer
+			int rowCells = rowSign > 0 ? params.getnRows() - 1 - row : row;
+			int maxI = swap ? rowCells : colCells;
+			int maxJ = swap ? colCells : rowCells;
+			if(maxRadius < Double.POSITIVE_INFINITY)
+				maxI = (int) Math.min(maxI, Math.ceil(maxRadius / cellSize));
+
+			double[] previous = new double[maxI + 1];		// horizon beyond each cell of the previous ring
+			double[] current = new double[maxI + 1];
+			for(int i = 1; i <= maxI; i++) {
+				int lastJ = Math.min(i, maxJ);
+				for(int j = 0; j <= lastJ; j++) {
+					double horizon = i == 1 ? NO_HORIZON : interpolate(previous, j * (i - 1) / (double) i);
+					double surfaceHeight = swap ? heightMap.getCell(col + colSign * j, row + rowSign * i)
+												: heightMap.getCell(col + colSign * i, row + rowSign * j);
+					if(surfaceHeight == noData) {
+						current[j] = horizon;
+						continue;
+					}
+					double distance = Math.sqrt((double) i * i + (double) j * j) * cellSize;
+					double slope = (surfaceHeight - eyeHeight) / distance;
+					if(slope >= horizon && distance <= maxRadius)
+						visible.set((int) index(i, j));	// fits, as i is at most MAX_RINGS
+					current[j] = Math.max(horizon, slope);
+				}
+				double[] swapRings = previous;
+				previous = current;
+				current = swapRings;
+			}
+			return this;
+		}
+
+		/**
+		 * Sets the visible cells of the octant in a raster sized bit set
+		 */
+		void addTo(BitSet raster) {
+			int nCols = heightMap.getParams().getnCols();
+			for(int index = visible.nextSetBit(0); index >= 0; index = visible.nextSetBit(index + 1)) {
+				int i = (int) ((Math.sqrt(8.0 * index + 1) - 1) / 2);	// invert index()
+				while (index(i, 0) > index)
+					i--;
+				while (index(i + 1, 0) <= index)
+					i++;
+				int j = (int) (index - index(i, 0));
+				int cellCol = col + colSign * (swap ? j : i);
+				int cellRow = row + rowSign * (swap ? i : j);
+				raster.set(cellRow * nCols + cellCol);
+			}
+		}
+
+		/**
+		 * Position of a cell in the octant when the rings are laid end to end
+		 */
+		private static long index(int i, int j) {
+			return (long) i * (i + 1) / 2 + j;
+		}
+
+		/**
+		 * Linearly interpolates the horizon at a fractional position in the previous ring
+		 */
+		private static double interpolate(double[] ring, double position) {
+			int low = (int) position;
+			double weight = position - low;
+			if(weight == 0)
+				return ring[low];
+			return ring[low] * (1 - weight) + ring[low + 1] * weight;
+		}
+	}
+
+	/////////////////////////
+	// GETTERS AND SETTERS //
+	/////////////////////////
+
+	/**
+	 * Set the distance beyond which cells are not visible, there is no limit by default
+	 *
+	 * Views reaching more than MAX_RINGS cells from the observer need a limit.
+	 *
+	 * @param maxRadius The maximum radius (in metres)
+	 */
+	public void setMaxRadius(double maxRadius) {
+		this.maxRadius = maxRadius;
+	}
+
+	public double getMaxRadius() {
+		return this.maxRadius;
+	}
+
+	/**
+	 * Set the fork/join pool to run the calculations on, the common pool is used by default
+	 *
+	 * @param pool The pool to run on
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+}
@@ -0,0 +1,105 @@
+package eu.cobwebproject.qa.rules;
+
+import java.util.BitSet;
+
+/**
+ * The SpatialAccuracy check applied to whole columns of observations at once
+ *
+ * A position is accurate if its accuracy is not at or beyond the threshold,
+ * as in SpatialAccuracy.isAccurate (so a NaN accuracy passes), and, when the
+ * satellite counts are given, it had at least the minimum number of
+ * satellites. The results are packed 64 rows to a word with no branches.
+ *
+ * Example Usage:
+ *     BitSet accurate = new AccuracyRule(10, 4).apply(accuracies, satellites);
+ */
+public final class AccuracyRule {
+	private final double minAcc;
+	private final int minSatNum;
+
+	/**
+	 * @param minAcc The accuracy threshold, accuracies at or above it fail
+	 * @param minSatNum The fewest satellites that pass
+	 */
+	public AccuracyRule(double minAcc, int minSatNum) {
+		this.minAcc = minAcc;
+		this.minSatNum = minSatNum;
+	}
+
+	/**
+	 * Check the accuracy of every position, ignoring satellites
+	 *
+	 * @param accuracy The accuracy column
+	 * @return The rows that passed, the bit for accuracy[i] is i
+	 */
+	public BitSet apply(double[] accuracy) {
+		return apply(accuracy, accuracy.length);
+	}
+
+	/**
+	 * Check the accuracy of the first rows, ignoring satellites
+	 *
+	 * @param accuracy The accuracy column
+	 * @param rows The number of rows to check
+	 * @return The rows that passed
+	 */
+	public BitSet apply(double[] accuracy, int rows) {
+		long[] words = new long[Columns.words(rows)];
+		double threshold = minAcc;
+		for(int word = 0; word < words.length; word++) {
+			int first = word << 6;
+			int last = Math.min(first + 64, rows);
+			long bits = 0;
+			for(int i = first; i < last; i++)
+				bits |= (accuracy[i] >= threshold ? 0L : 1L) << i;
+			words[word] = bits;
+		}
+		return BitSet.valueOf(words);
+	}
+
+	/**
+	 * Check the accuracy and satellites of every position
+	 *
+	 * @param accuracy The accuracy column
+	 * @param satellites The number of satellites column, the same length
+	 * @return The rows that passed, the bit for accuracy[i] is i
+	 */
+	public BitSet apply(double[] accuracy, int[] satellites) {
+		if(satellites.length != accuracy.length)
+			throw new IllegalArgumentException("Columns differ in length, " + accuracy.length + " and " + satellites.length);
+		return apply(accuracy, satellites, accuracy.length);
+	}
+
+	/**
+	 * Check the accuracy and satellites of the first rows
+	 *
+	 * @param accuracy The accuracy column
+	 * @param satellites The number of satellites column
+	 * @param rows The number of rows to check
+	 * @return The rows that passed
+	 */
+	public BitSet apply(double[] accuracy, int[] satellites, int rows) {
+		long[] words = new long[Columns.words(rows)];
+		double threshold = minAcc;
+		int minimum = minSatNum;
+		for(int word = 0; word < words.length; word++) {
+			int first = word << 6;
+			int last = Math.min(first + 64, rows);
+			long bits = 0;
+			for(int i = first; i < last; i++) {
+				long enough = ~((long) satellites[i] - minimum) >>> 63;		// 1 if satellites[i] >= minimum, without a branch
+				bits |= (accuracy[i] >= threshold ? 0L : enough) << i;
+			}
+			words[word] = bits;
+		}
+		return BitSet.valueOf(words);
+	}
+
+	public double getMinAcc() {
+		return minAcc;
+	}
+
+	public int getMinSatNum() {
+		return minSatNum;
+	}
+}
@@ -0,0 +1,62 @@
+package eu.cobwebproject.qa.rules;
+
+import java.util.BitSet;
+
+/**
+ * Combines the results of column rules
+ *
+ * Each rule gives a bit set of the rows that passed. The sets can be
+ * combined in place with BitSet.and and BitSet.or, these make a new set
+ * and leave the arguments alone.
+ */
+public final class Columns {
+
+	private Columns() {
+	}
+
+	/**
+	 * @param results The results of the rules, at least one
+	 * @return The rows that passed every rule
+	 */
+	public static BitSet all(BitSet... results) {
+		if(results.length == 0)
+			throw new IllegalArgumentException("No results to combine");
+		BitSet passed = (BitSet) results[0].clone();
+		for(int i = 1; i < results.length; i++)
+			passed.and(results[i]);
+		return passed;
+	}
+
+	/**
+	 * @param results The results of the rules
+	 * @return The rows that passed any rule
+	 */
+	public static BitSet any(BitSet... results) {
+		BitSet passed = new BitSet();
+		for(BitSet result : results)
+			passed.or(result);
+		return passed;
+	}
+
+	/**
+	 * The rows of a column that failed a rule
+	 *
+	 * @param result The result of the rule
+	 * @param rows The number of rows checked
+	 * @return The rows that did not pass
+	 */
+	public static BitSet failed(BitSet result, int rows) {
+		BitSet failed = (BitSet) result.clone();
+		failed.flip(0, rows);
+		return failed;
+	}
+
+	/**
+	 * The number of 64 bit words holding a bit for each row
+	 */
+	static int words(int rows) {
+		if(rows < 0)
+			throw new IllegalArgumentException("Negative number of rows: " + rows);
+		return (rows + 63) >>> 6;
+	}
+}
@@ -0,0 +1,97 @@
+package eu.cobwebproject.qa.rules;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Reads and writes CSV records a record at a time (RFC 4180: comma
+ * separated, double quoted fields may hold commas, quotes and line breaks)
+ */
+final class CsvRecords {
+	private final Reader in;		// should be buffered, it is read a character at a time
+	private final StringBuilder field = new StringBuilder();
+	private int next = -2;			// the character read ahead, -2 for none
+
+	CsvRecords(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * Read the next record
+	 *
+	 * @param fields Receives the fields of the record, it is cleared first
+	 * @return false if there are no more records
+	 * @throws IOException If the input can't be read or ends inside quotes
+	 */
+	boolean read(List<String> fields) throws IOException {
+		fields.clear();
+		int c = take();
+		if(c < 0)
+			return false;
+		field.setLength(0);
+		boolean quoted = false;
+		while (true) {
+			if(quoted) {
+				if(c < 0)
+					throw new IOException("CSV ended inside a quoted field");
+				if(c == '"') {
+					c = take();
+					if(c != '"') {
+						quoted = false;
+						continue;		// the closing quote, c is the character after it
+					}
+				}
+				field.append((char) c);
+			} else if(c == '"') {
+				quoted = true;
+			} else if(c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else if(c == '\n' || c == '\r' || c < 0) {
+				if(c == '\r' && (next = in.read()) == '\n')
+					next = -2;
+				fields.add(field.toString());
+				return true;
+			} else {
+				field.append((char) c);
+			}
+			c = take();
+		}
+	}
+
+	private int take() throws IOException {
+		if(next == -2)
+			return in.read();
+		int c = next;
+		next = -2;
+		return c;
+	}
+
+	/**
+	 * Write a record, quoting the fields that need it
+	 *
+	 * @param out Where to write
+	 * @param fields The fields
+	 * @throws IOException If the output can't be written
+	 */
+	static void write(Writer out, List<String> fields) throws IOException {
+		for(int i = 0; i < fields.size(); i++) {
+			if(i > 0)
+				out.write(',');
+			writeField(out, fields.get(i));
+		}
+		out.write("\r\n");
+	}
+
+	private static void writeField(Writer out, String value) throws IOException {
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+}
@@ -0,0 +1,322 @@
+package eu.cobwebproject.qa.rules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import eu.cobwebproject.qa.lbs.LineOfSight;
+import eu.cobwebproject.qa.lbs.LineOfSightBatch;
+import eu.cobwebproject.qa.lbs.SurfaceModel;
+
+/**
+ * Validates a stream of observations, writing them back out annotated with
+ * the results of the QA checks
+ *
+ * Observations are read from a CSV file a chunk at a time, checked as
+ * columns (see RangeRule, AccuracyRule and LineOfSightBatch) and written out
+ * before the next chunk is read, so memory use depends on the chunk size,
+ * not on the number of observations. The checks to run are chosen with
+ * setRange, setAccuracy and setLineOfSight, each reading the columns named
+ * there, and each adds its own annotations (the qa_ columns) to every
+ * observation.
+ *
+ * Missing or non-numeric values are read as NaN, which fails the range check
+ * and, as in SpatialAccuracy, passes the accuracy check; a missing number of
+ * satellites is read as 0. The position of an observation is read from the
+ * coordinate columns, see setCoordinateProperties.
+ *
+ * The Line of Sight check assumes the positions are projected coordinates
+ * in the same system as the height map, such as metres on a national grid.
+ * Longitude and latitude must be reprojected first, otherwise every
+ * observation is annotated START_OUT_OF_BOUNDS.
+ *
+ * Example Usage:
+ *     ObservationValidator validator = new ObservationValidator();
+ *     validator.setAccuracy("accuracy", 10, "satellites", 4);
+ *     validator.setLineOfSight(heightMap, "bearing", "tilt", "userHeight");
+ *     validator.validateCsv(request.getReader(), response.getWriter());
+ */
+public class ObservationValidator {
+	/** Annotation: whether the range property was within its bounds */
+	public static final String QA_IN_RANGE = "qa_in_range";
+	/** Annotation: whether the position was accurate enough */
+	public static final String QA_ACCURATE = "qa_accurate";
+	/** Annotation: the Line of Sight outcome, HIT or the reason there is no target */
+	public static final String QA_LOS_STATUS = "qa_los_status";
+	/** Annotations: the horizontal distance to, and the position and height of, the Line of Sight target */
+	public static final String QA_LOS_DISTANCE = "qa_los_distance";
+	public static final String QA_LOS_X = "qa_los_x";
+	public static final String QA_LOS_Y = "qa_los_y";
+	public static final String QA_LOS_HEIGHT = "qa_los_height";
+	/** Default number of observations read before they are checked and written */
+	public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	/** Names of the LineOfSight.STATUS_ codes, indexed by code */
+	private static final String[] LOS_STATUS = {"HIT", "NO_INTERSECTION", "REACHED_SURFACE_BOUNDS", "START_OUT_OF_BOUNDS"};
+
+	private String rangeProperty;
+	private RangeRule rangeRule;
+	private String accuracyProperty;
+	private String satellitesProperty;
+	private AccuracyRule accuracyRule;
+	private LineOfSightBatch lineOfSight;
+	private String bearingProperty, tiltProperty, userHeightProperty;
+	private String eastingProperty = "easting";
+	private String northingProperty = "northing";
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Validate a CSV file with a header row
+	 *
+	 * The rows are written with the annotations as extra columns, in the same
+	 * order. Blank lines are dropped.
+	 *
+	 * @param in The CSV, which is left open
+	 * @param out Where to write the annotated CSV, which is flushed but left open
+	 * @return The number of rows validated
+	 * @throws IOException If the input can't be read, is missing a column, or the output can't be written
+	 */
+	public int validateCsv(Reader in, Writer out) throws IOException {
+		CsvRecords records = new CsvRecords(in instanceof BufferedReader ? in : new BufferedReader(in));
+		List<String> header = new ArrayList<String>();
+		if(!records.read(header))
+			return 0;
+		int range = column(header, rangeProperty);
+		int accuracy = column(header, accuracyProperty);
+		int satellites = column(header, satellitesProperty);
+		int bearing = column(header, bearingProperty);
+		int tilt = column(header, tiltProperty);
+		int userHeight = column(header, userHeightProperty);
+		int easting = lineOfSight == null ? -1 : column(header, eastingProperty);
+		int northing = lineOfSight == null ? -1 : column(header, northingProperty);
+		header.addAll(annotationNames());
+		CsvRecords.write(out, header);
+
+		List<List<String>> pending = new ArrayList<List<String>>();
+		List<String> record = new ArrayList<String>();
+		Chunk chunk = new Chunk();
+		int total = 0;
+		while (records.read(record)) {
+			if(record.size() == 1 && record.get(0).isEmpty())
+				continue;
+			int row = chunk.size++;
+			chunk.values[row] = toDouble(field(record, range));
+			chunk.accuracy[row] = toDouble(field(record, accuracy));
+			chunk.satellites[row] = toInt(field(record, satellites));
+			chunk.eastings[row] = toDouble(field(record, easting));
+			chunk.northings[row] = toDouble(field(record, northing));
+			chunk.bearings[row] = toDouble(field(record, bearing));
+			chunk.tilts[row] = toDouble(field(record, tilt));
+			chunk.userHeights[row] = toDouble(field(record, userHeight));
+			pending.add(record);
+			record = new ArrayList<String>();
+			if(chunk.size == chunkSize)
+				total += writeCsv(chunk, pending, out);
+		}
+		total += writeCsv(chunk, pending, out);
+		out.flush();
+		return total;
+	}
+
+	private int writeCsv(Chunk chunk, List<List<String>> pending, Writer out) throws IOException {
+		int count = chunk.validate();
+		for(int row = 0; row < count; row++) {
+			List<String> record = pending.get(row);
+			for(Object annotation : chunk.annotations(row))
+				record.add(annotation == null ? "" : annotation.toString());
+			CsvRecords.write(out, record);
+		}
+		pending.clear();
+		chunk.size = 0;
+		return count;
+	}
+
+	/**
+	 * The names of the annotations added by the checks that are set, in order
+	 */
+	private List<String> annotationNames() {
+		List<String> names = new ArrayList<String>();
+		if(rangeRule != null)
+			names.add(QA_IN_RANGE);
+		if(accuracyRule != null)
+			names.add(QA_ACCURATE);
+		if(lineOfSight != null)
+			names.addAll(Arrays.asList(QA_LOS_STATUS, QA_LOS_DISTANCE, QA_LOS_X, QA_LOS_Y, QA_LOS_HEIGHT));
+		return names;
+	}
+
+	/**
+	 * The columns of one chunk of observations and the results of checking them
+	 */
+	private class Chunk {
+		final double[] values = new double[chunkSize];
+		final double[] accuracy = new double[chunkSize];
+		final int[] satellites = new int[chunkSize];
+		final double[] eastings = new double[chunkSize];
+		final double[] northings = new double[chunkSize];
+		final double[] bearings = new double[chunkSize];
+		final double[] tilts = new double[chunkSize];
+		final double[] userHeights = new double[chunkSize];
+		final double[] los = new double[chunkSize * LineOfSightBatch.RESULT_SIZE];
+		final int[] status = new int[chunkSize];
+		int size;
+		BitSet inRange;
+		BitSet accurate;
+
+		/**
+		 * Run the checks on the observations in the chunk
+		 *
+		 * @return The number of observations checked
+		 */
+		int validate() {
+			if(rangeRule != null)
+				inRange = rangeRule.apply(values, size);
+			if(accuracyRule != null)
+				accurate = satellitesProperty == null ? accuracyRule.apply(accuracy, size) : accuracyRule.apply(accuracy, satellites, size);
+			if(lineOfSight != null && size > 0) {
+				if(size == chunkSize) {
+					lineOfSight.calculate(eastings, northings, bearings, tilts, userHeights, los, status);
+				} else {	// the last chunk, the batch checks whole columns
+					lineOfSight.calculate(Arrays.copyOf(eastings, size), Arrays.copyOf(northings, size), Arrays.copyOf(bearings, size),
+										  Arrays.copyOf(tilts, size), Arrays.copyOf(userHeights, size), los, status);
+				}
+			}
+			return size;
+		}
+
+		/**
+		 * The annotation values of an observation, in the order of annotationNames
+		 */
+		List<Object> annotations(int row) {
+			List<Object> annotations = new ArrayList<Object>(7);
+			if(rangeRule != null)
+				annotations.add(inRange.get(row));
+			if(accuracyRule != null)
+				annotations.add(accurate.get(row));
+			if(lineOfSight != null) {
+				annotations.add(LOS_STATUS[status[row]]);
+				for(int i = 0; i < LineOfSightBatch.RESULT_SIZE; i++) {
+					if(i != 1)		// the height of the user is not annotated
+						annotations.add(status[row] == LineOfSight.STATUS_HIT ? (Object) los[row * LineOfSightBatch.RESULT_SIZE + i] : null);
+				}
+			}
+			return annotations;
+		}
+	}
+
+	/**
+	 * The index of a column, -1 if it isn't used
+	 */
+	private static int column(List<String> header, String name) throws IOException {
+		if(name == null)
+			return -1;
+		int index = header.indexOf(name);
+		if(index < 0)
+			throw new IOException("CSV has no " + name + " column");
+		return index;
+	}
+
+	private static String field(List<String> record, int column) {
+		return column < 0 || column >= record.size() ? null : record.get(column);
+	}
+
+	private static double toDouble(Object value) {
+		if(value instanceof Number)
+			return ((Number) value).doubleValue();
+		if(value instanceof String) {
+			try {
+				return Double.parseDouble(((String) value).trim());
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+		return Double.NaN;
+	}
+
+	private static int toInt(Object value) {
+		double number = toDouble(value);
+		return Double.isNaN(number) ? 0 : (int) number;
+	}
+
+	/////////////////////////
+	// GETTERS AND SETTERS //
+	/////////////////////////
+
+	/**
+	 * Check a property is within bounds, see ValRange
+	 *
+	 * @param property The name of the property, or null not to check a range
+	 * @param minVal The lowest value that passes
+	 * @param maxVal The highest value that passes
+	 */
+	public void setRange(String property, double minVal, double maxVal) {
+		this.rangeProperty = property;
+		this.rangeRule = property == null ? null : new RangeRule(minVal, maxVal);
+	}
+
+	/**
+	 * Check the positions are accurate, see SpatialAccuracy
+	 *
+	 * @param accuracyProperty The name of the accuracy property, or null not to check accuracy
+	 * @param minAcc The accuracy threshold, accuracies at or above it fail
+	 * @param satellitesProperty The name of the number of satellites property, or null not to check satellites
+	 * @param minSatNum The fewest satellites that pass
+	 */
+	public void setAccuracy(String accuracyProperty, double minAcc, String satellitesProperty, int minSatNum) {
+		this.accuracyProperty = accuracyProperty;
+		this.satellitesProperty = accuracyProperty == null ? null : satellitesProperty;
+		this.accuracyRule = accuracyProperty == null ? null : new AccuracyRule(minAcc, minSatNum);
+	}
+
+	/**
+	 * Find what each observer was looking at, see LineOfSightBatch
+	 *
+	 * @param heightMap The surface model, in the same coordinates as the observations, or null not to check Line of Sight
+	 * @param bearingProperty The name of the bearing property, in degrees
+	 * @param tiltProperty The name of the tilt property, in degrees
+	 * @param userHeightProperty The name of the height of the eye property
+	 */
+	public void setLineOfSight(SurfaceModel heightMap, String bearingProperty, String tiltProperty, String userHeightProperty) {
+		this.lineOfSight = heightMap == null ? null : new LineOfSightBatch(heightMap);
+		this.bearingProperty = heightMap == null ? null : bearingProperty;
+		this.tiltProperty = heightMap == null ? null : tiltProperty;
+		this.userHeightProperty = heightMap == null ? null : userHeightProperty;
+	}
+
+	/**
+	 * @return The Line of Sight calculator, to set its traversal and step size, or null if it is not checked
+	 */
+	public LineOfSightBatch getLineOfSight() {
+		return lineOfSight;
+	}
+
+	/**
+	 * Set the columns holding the position of each observation
+	 *
+	 * @param eastingProperty The name of the easting column, "easting" by default
+	 * @param northingProperty The name of the northing column, "northing" by default
+	 */
+	public void setCoordinateProperties(String eastingProperty, String northingProperty) {
+		this.eastingProperty = eastingProperty;
+		this.northingProperty = northingProperty;
+	}
+
+	/**
+	 * Set how many observations are read before they are checked and written,
+	 * which bounds the memory used
+	 *
+	 * @param chunkSize The number of observations per chunk
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+}
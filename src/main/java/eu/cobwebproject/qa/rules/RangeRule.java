@@ -0,0 +1,75 @@
+package eu.cobwebproject.qa.rules;
+
+import java.util.BitSet;
+
+/**
+ * The ValRange check applied to a whole column of observations at once
+ *
+ * A value passes if it is within the bounds, inclusive, as in
+ * ValRange.valueInRange, so NaN fails. The results are packed 64 rows to a
+ * word, with the comparisons written as selects the JIT compiles to
+ * conditional moves rather than branches that mispredict on mixed data, and
+ * returned as a bit set so the results of several rules can be combined with
+ * BitSet.and and BitSet.or (see Columns).
+ *
+ * Example Usage:
+ *     RangeRule temperature = new RangeRule(-40, 50);
+ *     BitSet valid = temperature.apply(temperatures);
+ *     valid.and(new AccuracyRule(10, 4).apply(accuracies, satellites));
+ *     if(valid.get(row)) { // row passed both
+ */
+public final class RangeRule {
+	private final double minVal;
+	private final double maxVal;
+
+	/**
+	 * @param minVal The lowest value that passes
+	 * @param maxVal The highest value that passes
+	 */
+	public RangeRule(double minVal, double maxVal) {
+		this.minVal = minVal;
+		this.maxVal = maxVal;
+	}
+
+	/**
+	 * Check every value of a column
+	 *
+	 * @param values The column
+	 * @return The rows that passed, the bit for values[i] is i
+	 */
+	public BitSet apply(double[] values) {
+		return apply(values, values.length);
+	}
+
+	/**
+	 * Check the first rows of a column, for columns filled a batch at a time
+	 *
+	 * @param values The column
+	 * @param rows The number of rows to check
+	 * @return The rows that passed
+	 */
+	public BitSet apply(double[] values, int rows) {
+		long[] words = new long[Columns.words(rows)];
+		double min = minVal, max = maxVal;
+		for(int word = 0; word < words.length; word++) {
+			int first = word << 6;
+			int last = Math.min(first + 64, rows);
+			long bits = 0;
+			for(int i = first; i < last; i++) {
+				double value = values[i];
+				long above = value >= min ? 1L : 0L;
+				bits |= (value <= max ? above : 0L) << i;	// shifts use the low 6 bits of i
+			}
+			words[word] = bits;
+		}
+		return BitSet.valueOf(words);
+	}
+
+	public double getMinVal() {
+		return minVal;
+	}
+
+	public double getMaxVal() {
+		return maxVal;
+	}
+}
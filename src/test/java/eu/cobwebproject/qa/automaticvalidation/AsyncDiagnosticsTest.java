@@ -0,0 +1,162 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+* Test blur check diagnostics are routed to the sink, and AsyncDiagnostics dumps a sample under unique names
+*/
+
+public class AsyncDiagnosticsTest extends TestCase {
+    private static final int threshold = 1500;
+
+    /** Records what it is sent */
+    private static class Recorder implements BlurCheckDiagnostics {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        final List<Long> variances = Collections.synchronizedList(new ArrayList<Long>());
+        final List<BufferedImage> images = Collections.synchronizedList(new ArrayList<BufferedImage>());
+        private final boolean wantsImages;
+
+        Recorder(boolean wantsImages) {
+            this.wantsImages = wantsImages;
+        }
+
+        @Override
+        public void message(String source, String message) {
+            messages.add(source + ": " + message);
+        }
+
+        @Override
+        public void result(String source, BlurCheckRunnable check, long nanos) {
+            variances.add(check.variance);
+        }
+
+        @Override
+        public boolean wantsImages(String source) {
+            return wantsImages;
+        }
+
+        @Override
+        public void images(String source, BufferedImage grey, BufferedImage laplace) {
+            images.add(grey);
+            images.add(laplace);
+        }
+    }
+
+    /**
+     * Test messages, results and images go to the sink, whatever the debug flag says
+     */
+    @Test
+    public void testSink() {
+        BufferedImage image = noise(600, 400);
+        Recorder quiet = new Recorder(false);
+        BlurCheckAwt check = new BlurCheckAwt(image, threshold, true);
+        check.setDiagnostics(quiet);
+        check.run();
+        assertTrue(quiet.messages.contains("imagebuffer: Variance is : " + check.variance));
+        assertEquals(Arrays.asList(check.variance), quiet.variances);
+        assertTrue(quiet.images.isEmpty());
+
+        Recorder dumping = new Recorder(true);
+        BlurCheckAwt streamed = new BlurCheckAwt(image, threshold, false);
+        streamed.setStreaming(true);
+        streamed.setDiagnostics(dumping);
+        streamed.run();
+        assertEquals(check.variance, streamed.variance);		// calculated in full to make the images
+        assertEquals(2, dumping.images.size());
+        assertEquals(BlurCheckAwt.WORKING_WIDTH, dumping.images.get(0).getWidth());
+        assertEquals(BlurCheckAwt.WORKING_WIDTH, dumping.images.get(1).getWidth());
+    }
+
+    /**
+     * Test a sample of concurrent checks of identically named images are all dumped under different names
+     */
+    @Test
+    public void testSampledDump() throws Exception {
+        File directory = Files.createTempDirectory("blurdiagnostics").toFile();
+        try {
+            final AsyncDiagnostics diagnostics = new AsyncDiagnostics(new File(directory, "dumps"), 2, 16);
+            final BufferedImage image = noise(500, 500);
+            Thread[] threads = new Thread[6];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        BlurCheckAwt check = new BlurCheckAwt(image, threshold, false);
+                        check.setDiagnostics(diagnostics);
+                        check.run();
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            diagnostics.close();
+
+            assertEquals(3, diagnostics.getDumped());
+            assertEquals(0, diagnostics.getDropped());
+            String[] names = new File(directory, "dumps").list();
+            assertEquals(6, names.length);
+            for (String name : names)
+                assertTrue(name, name.startsWith("imagebuffer-") && (name.endsWith("-grey.jpg") || name.endsWith("-laplace.jpg")));
+
+            BlurCheckAwt afterClose = new BlurCheckAwt(image, threshold, false);
+            afterClose.setDiagnostics(diagnostics);
+            afterClose.run();
+            assertEquals(1, diagnostics.getDropped());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Test two dumpers created together on one directory don't overwrite each other's images
+     */
+    @Test
+    public void testDumpersShareDirectory() throws Exception {
+        File directory = Files.createTempDirectory("blurdiagnostics").toFile();
+        try {
+            BufferedImage image = noise(500, 500);
+            AsyncDiagnostics first = new AsyncDiagnostics(directory, 1, 16);
+            AsyncDiagnostics second = new AsyncDiagnostics(directory, 1, 16);
+            for (AsyncDiagnostics diagnostics : new AsyncDiagnostics[] {first, second}) {
+                BlurCheckAwt check = new BlurCheckAwt(image, threshold, false);
+                check.setDiagnostics(diagnostics);
+                check.run();
+                diagnostics.close();
+                assertEquals(1, diagnostics.getDumped());
+            }
+            assertEquals(4, directory.list().length);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        Files.delete(file.toPath());
+    }
+
+    private static BufferedImage noise(int width, int height) {
+        Random random = new Random(11);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                image.getRaster().setSample(x, y, 0, random.nextInt(256));
+        return image;
+    }
+}
@@ -1,8 +1,13 @@
 package eu.cobwebproject.qa.automaticvalidation;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 
 import org.junit.Test;
 
@@ -179,4 +184,100 @@ public class BlurCheckAwtTest extends TestCase {
         }
     }
 
+    /**
+     * Test the variance of a very sharp image (a one pixel checkerboard, so
+     * the laplacian is 0 or 255 everywhere) is not lost to overflow
+     */
+    @Test
+    public void testCheckerboard() {
+        BufferedImage checkerboard = new BufferedImage(500, 500, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 500; y++)
+            for (int x = 0; x < 500; x++)
+                checkerboard.getRaster().setSample(x, y, 0, (x + y) % 2 == 0 ? 255 : 0);
+
+        BlurCheckAwt lap = new BlurCheckAwt(checkerboard, threshold, false);
+        lap.run();
+        assertTrue(lap.pass);
+        assertTrue(lap.variance > 16000 && lap.variance < 16300);		// about 127.5 squared
+    }
+
+    /**
+     * Test streaming gets the same result as the default, and much the same variance
+     */
+    @Test
+    public void testStreaming() {
+        String[] images = {"cobweb/butterfly.jpg", "cobweb/nature-blur.jpg", "cobweb/nature2.jpg", "flower_blurred.png"};
+        for (String image : images) {
+            try{
+                File testImage = new File(this.getClass().getResource(image).toURI());
+                BlurCheckAwt lap = new BlurCheckAwt(testImage, threshold, false);
+                lap.run();
+                BlurCheckAwt streamed = new BlurCheckAwt(testImage, threshold, false);
+                streamed.setStreaming(true);
+                streamed.run();
+                assertEquals(image, lap.pass, streamed.pass);
+                assertTrue(image, Math.abs(lap.variance - streamed.variance) <= lap.variance / 100);
+            }
+            catch(URISyntaxException ex){
+                fail(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Test a fast decision agrees with the full calculation, and falls back to it when the image is on the threshold
+     */
+    @Test
+    public void testFastDecision() {
+        String[] images = {"cobweb/butterfly.jpg", "cobweb/nature.jpg", "cobweb/nature-blur.jpg", "cobweb/nature2.jpg", "cobweb/white_moth.jpg", "flower_blurred.png"};
+        int fallbacks = 0;
+        for (String image : images) {
+            try{
+                File testImage = new File(this.getClass().getResource(image).toURI());
+                BlurCheckAwt lap = new BlurCheckAwt(testImage, threshold, false);
+                lap.run();
+                assertFalse(lap.estimated);
+                BlurCheckAwt fast = new BlurCheckAwt(testImage, threshold, false);
+                fast.setFastDecision(true);
+                fast.run();
+                assertEquals(image, lap.pass, fast.pass);
+                assertTrue(image, fast.estimated);
+                assertTrue(image, Math.abs(lap.variance - fast.variance) <= lap.variance / 5);
+
+                BlurCheckAwt borderline = new BlurCheckAwt(testImage, (int) lap.variance - 50, false);
+                borderline.setFastDecision(true);
+                borderline.run();
+                assertTrue(image, borderline.pass);
+                if (!borderline.estimated) {
+                    assertEquals(image, lap.variance, borderline.variance);
+                    fallbacks++;
+                }
+            }
+            catch(URISyntaxException ex){
+                fail(ex.getMessage());
+            }
+        }
+        assertTrue(fallbacks > 0);		// 50 below the variance is too close to decide for most images
+    }
+
+    /**
+     * Test an image held in memory is checked the same as its file
+     */
+    @Test
+    public void testInMemory() throws IOException, URISyntaxException {
+        File testImage = new File(this.getClass().getResource("cobweb/nature-blur.jpg").toURI());
+        byte[] data = Files.readAllBytes(testImage.toPath());
+        BlurCheckAwt lap = new BlurCheckAwt(testImage, threshold, false);
+        lap.run();
+        BlurCheckAwt[] checks = {
+            BlurCheckAwt.fromBytes(data, threshold, false),
+            BlurCheckAwt.fromByteBuffer(ByteBuffer.wrap(data), threshold, false),
+            BlurCheckAwt.fromStream(new ByteArrayInputStream(data), threshold, false)};
+        for (BlurCheckAwt check : checks) {
+            check.run();
+            assertEquals(lap.pass, check.pass);
+            assertEquals(lap.variance, check.variance);
+        }
+    }
+
 }
@@ -0,0 +1,140 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+* Test BlurCheckBatch against BlurCheckAwt on the sample images
+*/
+
+public class BlurCheckBatchTest extends TestCase {
+    private final int threshold = 1500;
+
+    private File fileFromResource(String name) throws URISyntaxException {
+        URL url = this.getClass().getResource(name);
+        return new File(url.toURI());
+    }
+
+    /**
+     * Collects results from several threads
+     */
+    private static class Collector implements BlurCheckBatch.Listener {
+        final Map<File, BlurCheckBatch.Result> results = Collections.synchronizedMap(new HashMap<File, BlurCheckBatch.Result>());
+
+        @Override
+        public void onResult(BlurCheckBatch.Result result) {
+            assertTrue("Checked twice: " + result.file, results.put(result.file, result) == null);
+        }
+    }
+
+    /**
+     * Test every image in a directory gets the same result as checking it on its own
+     */
+    @Test
+    public void testDirectoryMatchesSingleChecks() throws Exception {
+        File directory = fileFromResource("cobweb");
+        BlurCheckBatch batch = new BlurCheckBatch(threshold);
+        batch.setDecodeThreads(3);
+        batch.setAnalysisThreads(2);
+        batch.setQueueCapacity(1);
+        Collector collector = new Collector();
+
+        int checked = batch.checkDirectory(directory, collector);
+
+        assertEquals(directory.listFiles().length, checked);
+        assertEquals(checked, collector.results.size());
+        for (BlurCheckBatch.Result result : collector.results.values()) {
+            BlurCheckAwt single = new BlurCheckAwt(result.file, threshold, false);
+            single.run();
+            assertNull(result.error);
+            assertEquals(result.file.getName(), single.variance, result.variance);
+            assertEquals(result.file.getName(), Boolean.valueOf(single.pass), result.pass);
+        }
+    }
+
+    /**
+     * Test a file that is not an image is reported without stopping the batch
+     */
+    @Test
+    public void testUnreadableFile() throws Exception {
+        File corrupt = File.createTempFile("corrupt", ".jpg");
+        try {
+            Files.write(corrupt.toPath(), "not an image".getBytes("UTF-8"));
+            File sharp = fileFromResource("cobweb/butterfly.jpg");
+            Collector collector = new Collector();
+
+            int checked = new BlurCheckBatch(threshold).check(Arrays.asList(corrupt, sharp).iterator(), collector);
+
+            assertEquals(2, checked);
+            assertNotNull(collector.results.get(corrupt).error);
+            assertNull(collector.results.get(corrupt).pass);
+            assertEquals(Boolean.TRUE, collector.results.get(sharp).pass);
+        } finally {
+            corrupt.delete();
+        }
+    }
+
+    /**
+     * Test a listener failure stops the batch and is thrown to the caller
+     */
+    @Test
+    public void testListenerFailure() throws Exception {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 20; i++)
+            files.add(fileFromResource("flower_blurred_small.png"));
+        BlurCheckBatch batch = new BlurCheckBatch(threshold);
+        batch.setQueueCapacity(1);
+
+        try {
+            batch.check(files.iterator(), new BlurCheckBatch.Listener() {
+                @Override
+                public void onResult(BlurCheckBatch.Result result) {
+                    throw new IllegalStateException("listener failed");
+                }
+            });
+            fail("Listener failure was not thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("listener failed", e.getMessage());
+        }
+    }
+
+    /**
+     * Test the CSV and JSON reports have an entry for each image
+     */
+    @Test
+    public void testReports() throws Exception {
+        File directory = fileFromResource("cobweb");
+        BlurCheckBatch batch = new BlurCheckBatch(threshold);
+
+        StringWriter csv = new StringWriter();
+        BlurCheckReport report = BlurCheckReport.csv(csv);
+        int checked = batch.checkDirectory(directory, report);
+        report.close();
+        String[] lines = csv.toString().split("\n");
+        assertEquals(checked + 1, lines.length);
+        assertEquals("file,variance,pass,decodeMillis,analysisMillis,error", lines[0]);
+
+        StringWriter json = new StringWriter();
+        report = BlurCheckReport.json(json);
+        batch.checkDirectory(directory, report);
+        report.close();
+        lines = json.toString().split("\n");
+        assertEquals(checked + 2, lines.length);
+        assertEquals("[", lines[0]);
+        assertEquals("]", lines[lines.length - 1]);
+        assertTrue(lines[1].startsWith("{\"file\":"));
+    }
+}
@@ -0,0 +1,133 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+* Test BlurMap measures regions as the blur check measures the whole image, and finds partial blur
+*/
+
+public class BlurMapTest extends TestCase {
+    private static final int threshold = 1500;
+
+    /**
+     * Test the variance of any region matches a direct calculation on the convolved image
+     */
+    @Test
+    public void testRegions() {
+        BufferedImage image = noise(BlurCheckAwt.WORKING_WIDTH, BlurCheckAwt.WORKING_HEIGHT, 0, BlurCheckAwt.WORKING_WIDTH);
+        BlurCheckAwt check = new BlurCheckAwt(image, threshold, false);
+        check.setTileGrid(8, 8);
+        check.run();
+        BufferedImage laplace = check.convolve(check.convertImageToGrey(image), BlurCheckRunnable.LAPLACE_KERNEL);
+
+        BlurMap map = check.blurMap;
+        assertEquals(check.variance, map.getVariance(0, 0, map.getWidth(), map.getHeight()));
+        int[][] regions = {{0, 0, 1, 1}, {3, 7, 40, 9}, {450, 480, 50, 20}, {0, 0, 500, 1}};
+        for (int[] region : regions)
+            assertEquals(Arrays.toString(region), variance(laplace, region[0], region[1], region[2], region[3]), map.getVariance(region[0], region[1], region[2], region[3]));
+        assertEquals(variance(laplace, 0, 0, 62, 62), map.getTileVariance(0, 0));		// 500 pixels split into tiles of 62 and 63
+        assertEquals(variance(laplace, 437, 437, 63, 63), map.getTileVariance(7, 7));
+        assertEquals(0, map.getVariance(10, 10, 0, 5));
+        try {
+            map.getVariance(490, 0, 20, 1);
+            fail("Region is outside the image");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    /**
+     * Test a photo sharp only on the left quarter is diluted globally but the map shows the sharp part
+     */
+    @Test
+    public void testPartiallyBlurred() {
+        BufferedImage image = noise(BlurCheckAwt.WORKING_WIDTH, BlurCheckAwt.WORKING_HEIGHT, 0, BlurCheckAwt.WORKING_WIDTH / 4);
+        BlurCheckAwt check = new BlurCheckAwt(image, threshold, false);
+        check.setTileGrid(4, 4);
+        check.run();
+        BlurMap map = check.blurMap;
+        assertTrue(check.variance < map.getMaximum() / 2);
+        assertEquals(4, map.getCols());
+        assertEquals(4, map.getRows());
+        for (int row = 0; row < 4; row++) {
+            assertTrue(map.getTileVariance(0, row) > threshold);
+            for (int col = 1; col < 4; col++)
+                assertTrue(map.getTileVariance(col, row) < threshold);		// flat grey, but for the unconvolved edges
+        }
+        assertEquals(0, map.getTileVariance(2, 1));
+        assertEquals(0, map.getMinimum());
+        assertTrue(map.getMaximum() > threshold);
+        assertEquals(0.25, map.getFractionAbove(threshold), 1e-9);
+        assertEquals(16, map.getTileVariances().length);
+    }
+
+    /**
+     * Test the photo with a smeared area has much blurrier tiles than its sharpest, and streaming maps the same
+     */
+    @Test
+    public void testStreaming() {
+        try {
+            File testImage = new File(this.getClass().getResource("cobweb/nature-blur.jpg").toURI());
+            BlurCheckAwt check = new BlurCheckAwt(testImage, threshold, false);
+            check.setTileGrid(8, 8);
+            check.run();
+            BlurCheckAwt streamed = new BlurCheckAwt(testImage, threshold, false);
+            streamed.setTileGrid(8, 8);
+            streamed.setStreaming(true);
+            streamed.run();
+            assertTrue(check.blurMap.getMaximum() > 10 * check.blurMap.getMinimum());
+            assertEquals(streamed.variance, streamed.blurMap.getVariance(0, 0, 500, 500));
+            assertTrue(Math.abs(check.blurMap.getMedian() - streamed.blurMap.getMedian()) <= check.blurMap.getMedian() / 50);
+        } catch (URISyntaxException ex) {
+            fail(ex.getMessage());
+        }
+    }
+
+    /**
+     * Test the grid is no finer than the working image and no map is made by default
+     */
+    @Test
+    public void testGridSize() {
+        BufferedImage image = noise(4, 3, 0, 4);
+        BlurCheckAwt check = new BlurCheckAwt(image, threshold, false);
+        check.run();
+        assertTrue(check.blurMap == null);
+        check.setScale(1);
+        check.setTileGrid(8, 8);
+        check.run();
+        assertEquals(4, check.blurMap.getCols());
+        assertEquals(3, check.blurMap.getRows());
+    }
+
+    /** The variance of a region of a greyscale image as the blur check calculates it */
+    private static long variance(BufferedImage image, int x, int y, int width, int height) {
+        long size = (long) width * height;
+        long sum = 0;
+        for (int j = y; j < y + height; j++)
+            for (int i = x; i < x + width; i++)
+                sum += (image.getRGB(i, j) >> 16) & 0xff;
+        long mean = sum / size;
+        long variance = 0;
+        for (int j = y; j < y + height; j++)
+            for (int i = x; i < x + width; i++)
+                variance += (mean - ((image.getRGB(i, j) >> 16) & 0xff)) * (mean - ((image.getRGB(i, j) >> 16) & 0xff));
+        return variance / size;
+    }
+
+    /** Random grey levels between two columns, mid grey elsewhere */
+    private static BufferedImage noise(int width, int height, int from, int to) {
+        Random random = new Random(5);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                image.getRaster().setSample(x, y, 0, x >= from && x < to ? random.nextInt(256) : 128);
+        return image;
+    }
+}
@@ -0,0 +1,112 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+* Test GreyResizer averages areas exactly and keeps the blur variance independent of aspect ratio
+*/
+
+public class GreyResizerTest extends TestCase {
+
+    @Test
+    public void testScaledSize() {
+        assertTrue(Arrays.equals(new int[] {500, 375}, GreyResizer.scaledSize(4000, 3000, 500)));
+        assertTrue(Arrays.equals(new int[] {281, 500}, GreyResizer.scaledSize(2250, 4000, 500)));
+        assertTrue(Arrays.equals(new int[] {320, 240}, GreyResizer.scaledSize(320, 240, 500)));		// not enlarged
+        assertTrue(Arrays.equals(new int[] {160, 120}, GreyResizer.scaledSize(320, 240, 0.5)));
+        assertTrue(Arrays.equals(new int[] {1, 1}, GreyResizer.scaledSize(3, 2, 0.01)));
+    }
+
+    /**
+     * Test whole number factors are a box filter
+     */
+    @Test
+    public void testBoxFilter() {
+        BufferedImage image = grey(4, new int[] {
+            0, 10, 100, 100,
+            20, 30, 100, 101,
+            255, 255, 0, 0,
+            255, 255, 0, 1});
+        BufferedImage resized = GreyResizer.resize(image, 2, 2);
+        assertEquals(15, resized.getRaster().getSample(0, 0, 0));
+        assertEquals(100, resized.getRaster().getSample(1, 0, 0));		// 100.25
+        assertEquals(255, resized.getRaster().getSample(0, 1, 0));
+        assertEquals(0, resized.getRaster().getSample(1, 1, 0));		// 0.25
+    }
+
+    /**
+     * Test pixels split between outputs are shared by how much of them each covers
+     */
+    @Test
+    public void testFractionalArea() {
+        BufferedImage image = grey(3, new int[] {30, 90, 240});
+        BufferedImage resized = GreyResizer.resize(image, 2, 1);
+        assertEquals(50, resized.getRaster().getSample(0, 0, 0));		// (2 * 30 + 90) / 3
+        assertEquals(190, resized.getRaster().getSample(1, 0, 0));		// (90 + 2 * 240) / 3
+    }
+
+    /**
+     * Test colour is converted to luma
+     */
+    @Test
+    public void testColour() {
+        BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < 2; y++)
+            for (int x = 0; x < 2; x++)
+                image.setRGB(x, y, 0xff0000);
+        BufferedImage resized = GreyResizer.resize(image, 1, 1);
+        assertEquals(77, resized.getRaster().getSample(0, 0, 0));
+    }
+
+    /**
+     * Test the variance of a uniform texture doesn't change with the shape of
+     * the image when resizing to a long edge, as it does when stretching to 500x500
+     */
+    @Test
+    public void testAspectRatioStability() {
+        int size = 2000;
+        Random random = new Random(3);
+        int[] blocks = new int[(size / 8) * (size / 8)];
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = random.nextInt(256);
+        int[] pixels = new int[size * size];
+        for (int y = 0; y < size; y++)
+            for (int x = 0; x < size; x++)
+                pixels[y * size + x] = blocks[(y / 8) * (size / 8) + x / 8];
+        BufferedImage texture = grey(size, pixels);
+
+        long square = longEdgeVariance(texture);
+        assertEquals(square, stretchedVariance(texture));
+        for (int height : new int[] {1500, 1000, 500}) {
+            long variance = longEdgeVariance(texture.getSubimage(0, 0, size, height));
+            assertTrue("2000x" + height + ": " + variance + " vs " + square, Math.abs(variance - square) < square / 100);
+        }
+        long stretched = stretchedVariance(texture.getSubimage(0, 0, size, 500));
+        assertTrue("stretched 2000x500: " + stretched + " vs " + square, Math.abs(stretched - square) > square / 10);
+    }
+
+    private static long longEdgeVariance(BufferedImage image) {
+        BlurCheckAwt lap = new BlurCheckAwt(image, 1500, false);
+        lap.setLongEdge(500);
+        lap.run();
+        return lap.variance;
+    }
+
+    private static long stretchedVariance(BufferedImage image) {
+        BlurCheckAwt lap = new BlurCheckAwt(image, 1500, false);
+        lap.run();
+        return lap.variance;
+    }
+
+    private static BufferedImage grey(int width, int[] pixels) {
+        BufferedImage image = new BufferedImage(width, pixels.length / width, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setSamples(0, 0, width, pixels.length / width, 0, pixels);
+        return image;
+    }
+}
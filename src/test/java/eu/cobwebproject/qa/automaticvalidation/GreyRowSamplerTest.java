@@ -0,0 +1,83 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+* Test GreyRowSampler picks the same pixels and grey levels whatever the image type
+*/
+
+public class GreyRowSamplerTest extends TestCase {
+
+    @Test
+    public void testPositions() {
+        assertTrue(Arrays.equals(new int[] {0, 1, 2, 3}, GreyRowSampler.positions(4, 4)));
+        assertTrue(Arrays.equals(new int[] {1, 4, 7}, GreyRowSampler.positions(9, 3)));
+        assertTrue(Arrays.equals(new int[] {0, 0, 1, 1}, GreyRowSampler.positions(2, 4)));
+    }
+
+    @Test
+    public void testLuma() {
+        assertEquals(0, GreyRowSampler.luma(0, 0, 0, 255));
+        assertEquals(255, GreyRowSampler.luma(255, 255, 255, 255));
+        assertEquals(77, GreyRowSampler.luma(255, 0, 0, 255));
+        assertEquals(149, GreyRowSampler.luma(0, 255, 0, 255));
+        assertEquals(29, GreyRowSampler.luma(0, 0, 255, 255));
+        assertEquals(128, GreyRowSampler.luma(255, 255, 255, 128));	// half transparent over black
+        assertEquals(0, GreyRowSampler.luma(255, 255, 255, 0));
+    }
+
+    /**
+     * Test the direct byte and int readers agree with reading through getRGB
+     */
+    @Test
+    public void testImageTypes() {
+        int width = 37, height = 23;
+        Random random = new Random(7);
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++)
+            argb[i] = random.nextInt();
+
+        int[] types = {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_INT_ARGB,
+                       BufferedImage.TYPE_4BYTE_ABGR};
+        for (int type : types) {
+            BufferedImage image = new BufferedImage(width, height, type);
+            image.setRGB(0, 0, width, height, argb, 0, width);
+            GreyRowSampler sampler = new GreyRowSampler(image, 10, 5);
+            byte[] row = new byte[10];
+            for (int y = 0; y < 5; y++) {
+                sampler.sampleRow(y, row, 0);
+                int sourceRow = GreyRowSampler.positions(height, 5)[y];
+                int[] cols = GreyRowSampler.positions(width, 10);
+                for (int x = 0; x < 10; x++) {
+                    int pixel = image.getRGB(cols[x], sourceRow);
+                    int expected = GreyRowSampler.luma((pixel >> 16) & 0xff, (pixel >> 8) & 0xff, pixel & 0xff, pixel >>> 24);
+                    assertEquals("type " + type, expected, row[x] & 0xff);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test greyscale pixels are used as they are
+     */
+    @Test
+    public void testGrey() {
+        BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < 4; x++) {
+            image.getRaster().setSample(x, 0, 0, x * 10);
+            image.getRaster().setSample(x, 1, 0, 200 + x);
+        }
+        GreyRowSampler sampler = new GreyRowSampler(image.getSubimage(1, 1, 3, 1), 3, 1);
+        byte[] row = new byte[5];
+        sampler.sampleRow(0, row, 2);
+        assertEquals(201, row[2] & 0xff);
+        assertEquals(202, row[3] & 0xff);
+        assertEquals(203, row[4] & 0xff);
+    }
+}
@@ -0,0 +1,119 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+* Test SharpnessEngine measures each metric correctly and all of them fall with blur
+*/
+
+public class SharpnessEngineTest extends TestCase {
+
+    /**
+     * Test the metrics of a single bright pixel against values worked by hand
+     */
+    @Test
+    public void testKnownValues() {
+        BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setSample(1, 1, 0, 10);
+        SharpnessMetrics metrics = new SharpnessEngine().measure(image);
+        // the interior pixels are the bright one and its right neighbour
+        assertEquals(625.0, metrics.get(SharpnessMetric.LAPLACIAN_VARIANCE), 1e-9);		// responses -40 and 10
+        assertEquals(2025.0, metrics.get(SharpnessMetric.LAPLACIAN8_VARIANCE), 1e-9);		// responses -80 and 10
+        assertEquals(200.0, metrics.get(SharpnessMetric.TENENGRAD), 1e-9);				// gradients 0 and 20
+        assertEquals(25.0, metrics.get(SharpnessMetric.MODIFIED_LAPLACIAN), 1e-9);		// 40 and 10
+    }
+
+    /**
+     * Test a flat image, and one too small to have interior pixels, measure zero
+     */
+    @Test
+    public void testFlat() {
+        BufferedImage flat = new BufferedImage(20, 10, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 10; y++)
+            for (int x = 0; x < 20; x++)
+                flat.getRaster().setSample(x, y, 0, 123);
+        assertTrue(Arrays.equals(new double[4], new SharpnessEngine().measure(flat).toArray()));
+        BufferedImage thin = new BufferedImage(20, 2, BufferedImage.TYPE_BYTE_GRAY);
+        assertTrue(Arrays.equals(new double[4], new SharpnessEngine().measure(thin).toArray()));
+    }
+
+    /**
+     * Test a custom kernel measures the same as the built in metric with those weights
+     */
+    @Test
+    public void testCustomKernel() {
+        SharpnessMetric custom = SharpnessMetric.kernelVariance("custom", new int[] {0, 1, 0, 1, -4, 1, 0, 1, 0});
+        SharpnessEngine engine = new SharpnessEngine(Arrays.asList(custom, SharpnessMetric.LAPLACIAN_VARIANCE));
+        SharpnessMetrics metrics = engine.measure(texture(64, 48));
+        assertTrue(metrics.get(custom) > 0);
+        assertEquals(metrics.get(SharpnessMetric.LAPLACIAN_VARIANCE), metrics.get(custom), 0);
+        try {
+            metrics.get(SharpnessMetric.TENENGRAD);
+            fail("Tenengrad was not measured");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SharpnessMetric.kernelVariance("5x5", new int[25]);
+            fail("Only 3x3 kernels are supported");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Test every metric scores the blurred cobweb images lower than the sharp one
+     */
+    @Test
+    public void testBlurLowersEveryMetric() {
+        SharpnessMetrics sharp = measure("cobweb/nature.jpg");
+        String[] blurred = {"cobweb/nature-blur.jpg", "cobweb/nature-blur2.jpg"};
+        for (String image : blurred) {
+            SharpnessMetrics metrics = measure(image);
+            for (SharpnessMetric metric : SharpnessEngine.STANDARD_METRICS)
+                assertTrue(image + " " + metric, metrics.get(metric) < sharp.get(metric));
+        }
+    }
+
+    /**
+     * Test streaming measures the same metrics as the full working image when no resampling is needed
+     */
+    @Test
+    public void testStreaming() {
+        BufferedImage image = texture(BlurCheckAwt.WORKING_WIDTH, BlurCheckAwt.WORKING_HEIGHT);
+        BlurCheckAwt full = new BlurCheckAwt(image, 1500, false);
+        full.setSharpnessEngine(new SharpnessEngine());
+        full.run();
+        BlurCheckAwt streamed = new BlurCheckAwt(image, 1500, false);
+        streamed.setSharpnessEngine(new SharpnessEngine());
+        streamed.setStreaming(true);
+        streamed.run();
+        assertTrue(Arrays.equals(full.metrics.toArray(), streamed.metrics.toArray()));
+        assertEquals(full.variance, streamed.variance);
+    }
+
+    private SharpnessMetrics measure(String image) {
+        try {
+            BlurCheckAwt check = new BlurCheckAwt(new File(this.getClass().getResource(image).toURI()), 1500, false);
+            check.setSharpnessEngine(new SharpnessEngine());
+            check.run();
+            return check.metrics;
+        } catch (URISyntaxException ex) {
+            fail(ex.getMessage());
+            return null;
+        }
+    }
+
+    private static BufferedImage texture(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                image.getRaster().setSample(x, y, 0, (x * 37 + y * y * 11 + (x ^ y) * 5) & 0xff);
+        return image;
+    }
+}
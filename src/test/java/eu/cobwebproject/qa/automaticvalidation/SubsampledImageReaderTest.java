@@ -0,0 +1,145 @@
+package eu.cobwebproject.qa.automaticvalidation;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+* Test SubsampledImageReader keeps enough of the image for the blur check
+*/
+
+public class SubsampledImageReaderTest extends TestCase {
+
+    private File fileFromResource(String name) throws URISyntaxException {
+        URL url = this.getClass().getResource(name);
+        return new File(url.toURI());
+    }
+
+    /**
+     * Test a large image is subsampled to no less than the size asked for
+     */
+    @Test
+    public void testSubsampled() throws Exception {
+        BufferedImage image = SubsampledImageReader.read(fileFromResource("flower_blurred.png"), 500, 500);	// 1091x1125
+        assertEquals(546, image.getWidth());
+        assertEquals(563, image.getHeight());
+    }
+
+    /**
+     * Test an image smaller than the size asked for is read whole
+     */
+    @Test
+    public void testSmallImage() throws Exception {
+        BufferedImage image = SubsampledImageReader.read(fileFromResource("flower_blurred_small.png"), 500, 500);
+        assertEquals(136, image.getWidth());
+        assertEquals(140, image.getHeight());
+    }
+
+    /**
+     * Test JPEGs are decoded straight to greyscale
+     */
+    @Test
+    public void testJpegDecodedGrey() throws Exception {
+        BufferedImage image = SubsampledImageReader.read(fileFromResource("cobweb/butterfly.jpg"), 200, 200);	// 480x640
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+        assertEquals(240, image.getWidth());
+        assertEquals(214, image.getHeight());
+    }
+
+    @Test
+    public void testSubsamplingPeriod() {
+        assertEquals(1, SubsampledImageReader.subsampling(499, 500));
+        assertEquals(1, SubsampledImageReader.subsampling(999, 500));
+        assertEquals(2, SubsampledImageReader.subsampling(1000, 500));
+        assertEquals(8, SubsampledImageReader.subsampling(4032, 500));
+        assertEquals(1, SubsampledImageReader.subsampling(4032, 0));
+    }
+
+    /**
+     * Test a file that is not an image is rejected
+     */
+    @Test
+    public void testNotAnImage() throws Exception {
+        File text = File.createTempFile("notanimage", ".jpg");
+        try {
+            Files.write(text.toPath(), "not an image".getBytes("UTF-8"));
+            SubsampledImageReader.read(text, 500, 500);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            text.delete();
+        }
+    }
+
+    /**
+     * Test images in memory and on streams are read the same as from a file
+     */
+    @Test
+    public void testInMemory() throws Exception {
+        File file = fileFromResource("cobweb/nature.jpg");
+        byte[] data = Files.readAllBytes(file.toPath());
+        BufferedImage expected = SubsampledImageReader.read(file, 500, 500);
+
+        assertSamePixels(expected, SubsampledImageReader.read(data, 500, 500));
+        assertSamePixels(expected, SubsampledImageReader.read(new ByteArrayInputStream(data), 500, 500));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+        direct.position(7);
+        direct.put(data);
+        direct.position(7).limit(7 + data.length);
+        assertSamePixels(expected, SubsampledImageReader.read(direct, 500, 500));
+        assertEquals(7, direct.position());
+        assertEquals(7 + data.length, direct.limit());
+
+        try {
+            SubsampledImageReader.read("not an image".getBytes("UTF-8"), 500, 500);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test the buffer stream reads, seeks and reports its length
+     */
+    @Test
+    public void testByteBufferStream() throws Exception {
+        byte[] data = {9, 0, 0, 1, 2, (byte) 0xff, 3};
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(1);
+        ImageInputStream in = new ByteBufferImageInputStream(buffer);
+        assertEquals(6, in.length());
+        assertEquals(258, in.readInt());
+        assertEquals(255, in.read());
+        byte[] rest = new byte[4];
+        assertEquals(1, in.read(rest, 0, 4));
+        assertEquals(3, rest[0]);
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(rest, 0, 4));
+        in.seek(2);
+        in.readFully(rest, 0, 4);
+        assertTrue(Arrays.equals(new byte[] {1, 2, (byte) 0xff, 3}, rest));
+        in.close();
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int[] expectedPixels = expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth());
+        int[] actualPixels = actual.getRGB(0, 0, actual.getWidth(), actual.getHeight(), null, 0, actual.getWidth());
+        assertTrue(Arrays.equals(expectedPixels, actualPixels));
+    }
+}
@@ -0,0 +1,150 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for converting rasters to the binary format and mapping them
+ */
+public class BinaryRasterFileTest extends TestCase {
+	private static final String SMALL_RECTANGLE_RESOURCE = "surfaceModel_tiny_rectangle.asc"; //Small 8 cols, 10 rows file for debugging
+	private static final String FLAT_RESOURCE = "surfaceModel_flat_1m.asc";	// sample flat dataset
+	
+	/**
+	 * Tests each cell type round trips through the binary format
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		Raster ascii = new Raster(TestResources.path(SMALL_RECTANGLE_RESOURCE));
+		
+		for(CellBuffer.Type type : CellBuffer.Type.values()) {
+			File file = File.createTempFile("raster", ".bin");
+			try {
+				BinaryRasterFile.write(ascii, file, type);
+				assertEquals(BinaryRasterFile.HEADER_SIZE + 80 * (type == CellBuffer.Type.DOUBLE ? 8 : type == CellBuffer.Type.FLOAT ? 4 : 2), file.length());
+				
+				Raster mapped = BinaryRasterFile.map(file);
+				assertEquals(type, mapped.getCells().getType());
+				assertEquals(file.getPath(), mapped.toString());
+				assertEquals(ascii.getParams().getnCols(), mapped.getParams().getnCols());
+				assertEquals(ascii.getParams().getnRows(), mapped.getParams().getnRows());
+				assertEquals(ascii.getParams().getxlCorner(), mapped.getParams().getxlCorner());
+				assertEquals(ascii.getParams().getylCorner(), mapped.getParams().getylCorner());
+				assertEquals(ascii.getParams().getcellSize(), mapped.getParams().getcellSize());
+				assertEquals(ascii.getParams().getnoData(), mapped.getParams().getnoData());
+				for(int row = 0; row < 10; row++) {
+					for(int col = 0; col < 8; col++) {
+						assertEquals(ascii.getXY(col, row), mapped.getXY(col, row), CellBuffer.DEFAULT_SHORT_SCALE / 2);
+					}
+				}
+			} finally {
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Tests converting straight from an ascii grid matches writing a loaded raster
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 */
+	@Test
+	public void testConvert() throws IOException {
+		String resource = TestResources.path(SMALL_RECTANGLE_RESOURCE);
+		Raster ascii = new Raster(resource);
+		File file = File.createTempFile("raster", ".bin");
+		try {
+			BinaryRasterFile.convert(new File(resource), file, CellBuffer.Type.SHORT);
+			Raster mapped = BinaryRasterFile.map(file);
+			assertEquals(CellBuffer.Type.SHORT, mapped.getCells().getType());
+			for(int row = 0; row < 10; row++) {
+				for(int col = 0; col < 8; col++) {
+					assertEquals(ascii.getXY(col, row), mapped.getXY(col, row), CellBuffer.DEFAULT_SHORT_SCALE / 2);
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests Line Of Sight gives the same result on the mapped raster
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 * @throws IntersectionException If we did not intersect the surface model
+	 */
+	@Test
+	public void testLineOfSightOnMappedRaster() throws IOException, IntersectionException {
+		Raster ascii = new Raster(TestResources.path(FLAT_RESOURCE));
+		File file = File.createTempFile("raster", ".bin");
+		try {
+			BinaryRasterFile.write(ascii, file, CellBuffer.Type.FLOAT);
+			Raster mapped = BinaryRasterFile.map(file);
+			
+			double[] expected = LineOfSight.Calculate(ascii, 265547.050156, 289498.392446, 45, 20, 2);
+			double[] result = LineOfSight.Calculate(mapped, 265547.050156, 289498.392446, 45, 20, 2);
+			for(int i = 0; i < 5; i++)
+				assertEquals(expected[i], result[i]);
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests files that aren't binary rasters are rejected
+	 * 
+	 * @throws IOException If there was a problem writing the file
+	 */
+	@Test
+	public void testNotBinaryRaster() throws IOException {
+		File file = File.createTempFile("raster", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[BinaryRasterFile.HEADER_SIZE]);
+		} finally {
+			out.close();
+		}
+		try {
+			BinaryRasterFile.map(file);
+			fail("Expected the file to be rejected");
+		} catch (IOException e) {
+			assertEquals(file + " is not a binary raster", e.getMessage());
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests grids with more cells than the format holds are rejected before anything is written
+	 * 
+	 * @throws IOException If there was a problem writing the grid
+	 */
+	@Test
+	public void testConvertTooLarge() throws IOException {
+		File grid = File.createTempFile("raster", ".asc");
+		File file = new File(grid.getPath() + ".bin");
+		FileOutputStream out = new FileOutputStream(grid);
+		try {
+			out.write("ncols 2000000\nnrows 2000000\nxllcorner 0\nyllcorner 0\ncellsize 1\n1 2 3\n".getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+		try {
+			BinaryRasterFile.convert(grid, file, CellBuffer.Type.SHORT);
+			fail("Expected the grid to be rejected");
+		} catch (IOException e) {
+			assertEquals(grid + " has unsupported dimensions 2000000x2000000", e.getMessage());
+			assertFalse(file.exists());
+		} finally {
+			grid.delete();
+			file.delete();
+		}
+	}
+}
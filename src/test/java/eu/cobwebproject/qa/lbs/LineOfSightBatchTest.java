@@ -0,0 +1,97 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the batch line of sight calculation
+ */
+public class LineOfSightBatchTest extends TestCase {
+	private static final String FLAT_RESOURCE = "surfaceModel_flat_1m.asc";	// sample flat dataset
+	private static final String SMALL_RESOURCE = "surfaceModel_tiny.asc"; //Small 10x10 file for debugging
+	
+	/**
+	 * Checks the batch gives the same results and outcomes as
+	 * calculating each observation with LineOfSight, for both
+	 * traversals and across several fork/join tasks
+	 * 
+	 * @throws IOException If there was a problem reading the surface model
+	 */
+	@Test
+	public void testBatchMatchesLineOfSight() throws IOException {
+		Raster raster = new Raster(TestResources.path(SMALL_RESOURCE));
+		
+		int count = 500;
+		double[] eastings = new double[count];
+		double[] northings = new double[count];
+		double[] bearings = new double[count];
+		double[] tilts = new double[count];
+		double[] userHeights = new double[count];
+		for(int i = 0; i < count; i++) {
+			eastings[i] = 265000.5 + (i % 11);		// the last column of positions is outside the raster
+			northings[i] = 289000.5 + (i % 7);
+			bearings[i] = (i * 37) % 360;
+			tilts[i] = (i * 13) % 100 - 10;			// includes looking up
+			userHeights[i] = 1.5;
+		}
+		
+		for(LineOfSight.Traversal traversal : LineOfSight.Traversal.values()) {
+			double[] results = new double[count * LineOfSightBatch.RESULT_SIZE];
+			int[] status = new int[count];
+			
+			LineOfSightBatch batch = new LineOfSightBatch(raster);
+			batch.setTraversal(traversal);
+			batch.setChunkSize(16);
+			batch.calculate(eastings, northings, bearings, tilts, userHeights, results, status);
+			
+			for(int i = 0; i < count; i++) {
+				LineOfSight los = new LineOfSight(raster, eastings[i], northings[i], bearings[i], tilts[i], userHeights[i]);
+				los.setTraversal(traversal);
+				int offset = i * LineOfSightBatch.RESULT_SIZE;
+				try {
+					double[] expected = los.calculateLOS();
+					assertEquals(LineOfSight.STATUS_HIT, status[i]);
+					for(int j = 0; j < LineOfSightBatch.RESULT_SIZE; j++)
+						assertEquals(expected[j], results[offset + j]);
+				} catch (NoIntersectionException e) {
+					assertEquals(LineOfSight.STATUS_NO_INTERSECTION, status[i]);
+				} catch (ReachedSurfaceBoundsException e) {
+					assertEquals(LineOfSight.STATUS_REACHED_SURFACE_BOUNDS, status[i]);
+				} catch (StartPositionOutOfBoundsException e) {
+					assertEquals(LineOfSight.STATUS_START_OUT_OF_BOUNDS, status[i]);
+				}
+				if(status[i] != LineOfSight.STATUS_HIT)
+					assertTrue(Double.isNaN(results[offset]));
+			}
+		}
+	}
+	
+	/**
+	 * Checks the batch against the flat surface where the intersection is known
+	 * 
+	 * @throws IOException If there was a problem reading the surface model
+	 */
+	@Test
+	public void testBatchWithFlatSurface() throws IOException {
+		Raster flatSurface = new Raster(TestResources.path(FLAT_RESOURCE));
+		double[] eastings = {265547.050156, 265100, 264000};
+		double[] northings = {289498.392446, 289100, 289100};
+		double[] bearings = {45, 0, 0};
+		double[] tilts = {20, -5, 20};
+		double[] userHeights = {2, 2, 2};
+		double[] results = new double[3 * LineOfSightBatch.RESULT_SIZE];
+		int[] status = new int[3];
+		
+		new LineOfSightBatch(flatSurface).calculate(eastings, northings, bearings, tilts, userHeights, results, status);
+		
+		assertEquals(LineOfSight.STATUS_HIT, status[0]);
+		assertEquals(2 * Math.tan(Math.toRadians(70)), results[0], LineOfSight.STEP_SIZE);
+		assertEquals(3.0, results[1]);
+		assertEquals(1.0, results[4]);
+		assertEquals(LineOfSight.STATUS_REACHED_SURFACE_BOUNDS, status[1]);		// looking up
+		assertEquals(LineOfSight.STATUS_START_OUT_OF_BOUNDS, status[2]);
+	}
+}
@@ -0,0 +1,113 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the shared Line of Sight evaluator
+ */
+public class LineOfSightEvaluatorTest extends TestCase {
+	private static final int SIZE = 60;
+	
+	private final Raster raster = hill();
+	
+	/**
+	 * Tests the evaluator agrees with LineOfSight for every traversal, reusing one result holder
+	 */
+	@Test
+	public void testMatchesLineOfSight() {
+		LineOfSightResult result = new LineOfSightResult();
+		for(LineOfSight.Traversal traversal : LineOfSight.Traversal.values()) {
+			LineOfSightEvaluator evaluator = new LineOfSightEvaluator(raster, traversal, 0.25, 0.005);
+			assertSame(traversal, evaluator.getTraversal());
+			for(double bearing = 0; bearing < 360; bearing += 30) {
+				for(double tilt = -5; tilt < 60; tilt += 10) {
+					LineOfSight los = new LineOfSight(raster, 20.5, 25.5, bearing, tilt, 1.5);
+					los.setTraversal(traversal);
+					los.setStepSize(0.25);
+					los.setTolerance(0.005);
+					int status = evaluator.evaluate(20.5, 25.5, bearing, tilt, 1.5, result);
+					assertEquals(status, result.getStatus());
+					try {
+						double[] expected = los.calculateLOS();
+						assertTrue(result.isHit());
+						for(int i = 0; i < expected.length; i++)
+							assertEquals(traversal + " " + bearing + " " + tilt, expected[i], result.toArray()[i]);
+						assertEquals(expected[0], result.getDistance());
+						assertEquals(expected[4], result.getHeight());
+					} catch (NoIntersectionException e) {
+						assertEquals(LineOfSight.STATUS_NO_INTERSECTION, status);
+						assertTrue(Double.isNaN(result.getDistance()));
+					} catch (ReachedSurfaceBoundsException e) {
+						assertEquals(LineOfSight.STATUS_REACHED_SURFACE_BOUNDS, status);
+						assertTrue(Double.isNaN(result.getX()));		// not the cell reported by the tracer
+					} catch (StartPositionOutOfBoundsException e) {
+						fail("Observer is in the raster");
+					}
+				}
+			}
+		}
+		
+		assertEquals(LineOfSight.STATUS_START_OUT_OF_BOUNDS, new LineOfSightEvaluator(raster).evaluate(-5, 25, 0, 10, 1.5, result));
+		assertFalse(result.isHit());
+	}
+	
+	/**
+	 * Tests one evaluator shared by several threads gives the same results as a single thread
+	 * 
+	 * @throws Exception If a thread failed
+	 */
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		final LineOfSightEvaluator evaluator = new LineOfSightEvaluator(raster, LineOfSight.Traversal.GRID, LineOfSight.STEP_SIZE, LineOfSight.TOLERANCE);
+		final double[] expected = distances(evaluator);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+			for(int i = 0; i < 8; i++) {
+				futures.add(pool.submit(new Callable<double[]>() {
+					@Override
+					public double[] call() {
+						return distances(evaluator);
+					}
+				}));
+			}
+			for(Future<double[]> future : futures) {
+				double[] actual = future.get();
+				for(int i = 0; i < expected.length; i++)
+					assertEquals(expected[i], actual[i]);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Evaluates rays in every direction with one result holder
+	 */
+	private static double[] distances(LineOfSightEvaluator evaluator) {
+		LineOfSightResult result = new LineOfSightResult();
+		double[] distances = new double[3600];
+		for(int i = 0; i < distances.length; i++) {
+			evaluator.evaluate(30.5, 30.5, i / 10.0, 3, 1.5, result);
+			distances[i] = result.getDistance();
+		}
+		return distances;
+	}
+	
+	private static Raster hill() {
+		double[][] heights = new double[SIZE][SIZE];
+		for(int row = 0; row < SIZE; row++)
+			for(int col = 0; col < SIZE; col++)
+				heights[row][col] = 12 * Math.exp(-((col - 40) * (col - 40) + (row - 20) * (row - 20)) / 40.0) + (col + row) % 3 * 0.2;
+		return new Raster(new Parameters(1, SIZE, SIZE, 0, 0, -9999), heights);
+	}
+}
@@ -24,6 +24,7 @@ public class LineOfSightTest extends TestCase {
 	private static final String FLAT_RESOURCE = "surfaceModel_flat_1m.asc";	// sample flat dataset
 	private static final String OBSERVATION_AREA_RESOURCE = "surfaceModel_sn7698.txt";
 	private static final String SMALL_RESOURCE = "surfaceModel_tiny.asc"; //Small 10x10 file for debugging
+	private static final String SMALL_RECTANGLE_RESOURCE = "surfaceModel_tiny_rectangle.asc"; //Small 8 cols, 10 rows file for debugging
 	private static final String RASTER3_RESOURCE= "surfaceModelNRW_rectangle_wide.asc"; //wide (100 cols, 900 rows) modification to NRW sample tile 
 	private static final String RASTER4_RESOURCE= "surfaceModelNRW_rectangle_gdalclip_narrow.asc"; //Gdal clip (700 cols, 900 rows) of NRW tile to make a tall model
 	
@@ -415,6 +416,357 @@ public class LineOfSightTest extends TestCase {
     }
     
         
+    /**
+     * Tests the grid traversal against the flat surface, where the
+     * intersection can be calculated exactly
+     * 
+     * @throws IOException If there was a problem reading the surface model
+     * @throws IntersectionException If we did not intersect the surface model
+     */
+    public void testGridTraversalWithFlatSurface() throws IOException, IntersectionException {
+		Raster flatSurface = new Raster(fileFromResource(FLAT_RESOURCE));
+		double flatHeight = 1.0;
+		
+		easting = 265547.050156; 
+		northing = 289498.392446;
+		bearing = 45;
+		tilt = 20;
+		myHeight = 2;
+		
+		printStartingConditions("Testing grid traversal with flat surface model");
+		
+		final double horizontalDisplacement = myHeight * Math.tan(Math.toRadians(90-tilt));
+		final double expectedXPosition = easting + Math.sin(Math.toRadians(bearing)) * horizontalDisplacement;
+		final double expectedYPosition = northing + Math.cos(Math.toRadians(bearing)) * horizontalDisplacement;
+		
+		los = new LineOfSight(flatSurface, easting, northing, bearing, tilt, myHeight);
+		los.setTraversal(LineOfSight.Traversal.GRID);
+		double[] result = los.calculateLOS();
+		dbg(LineOfSight.resultAsString(result));
+		assertEquals(horizontalDisplacement, result[0], 1e-9);		// exact, no step size dependence
+		assertEquals(expectedXPosition, result[2], 1e-6);
+		assertEquals(expectedYPosition, result[3], 1e-6);
+		assertEquals(result[4], flatHeight);
+		assertEquals(result[1], flatHeight + myHeight);
+    }
+    
+    /**
+     * Tests Line Of Sight against a surface model that is not a Raster,
+     * a flat plane computed on the fly with the same geometry as the flat raster
+     * 
+     * @throws IOException If there was a problem reading the surface model
+     * @throws IntersectionException If we did not intersect the surface model
+     */
+    public void testSyntheticSurfaceModel() throws IOException, IntersectionException {
+		final Raster flatSurface = new Raster(fileFromResource(FLAT_RESOURCE));
+		SurfaceModel plane = new SurfaceModel() {
+			@Override
+			public Parameters getParams() {
+				return flatSurface.getParams();
+			}
+			
+			@Override
+			public boolean isPointInBounds(double easting, double northing) {
+				return flatSurface.isPointInBounds(easting, northing);
+			}
+			
+			@Override
+			public double getXY(int x, int y) {
+				return 1.0;
+			}
+			
+			@Override
+			public double getCell(int x, int y) {
+				return 1.0;
+			}
+			
+			@Override
+			public double getHeight(double easting, double northing) {
+				return 1.0;
+			}
+		};
+		
+		easting = 265547.050156; 
+		northing = 289498.392446;
+		bearing = 45;
+		tilt = 20;
+		myHeight = 2;
+		
+		double[] expected = LineOfSight.Calculate(flatSurface, easting, northing, bearing, tilt, myHeight);
+		double[] result = LineOfSight.Calculate(plane, easting, northing, bearing, tilt, myHeight);
+		for(int i = 0; i < 5; i++)
+			assertEquals(expected[i], result[i]);
+    }
+    
+    /**
+     * Tests that the grid traversal agrees with the stepped traversal
+     * in all directions on the small square and rectangular rasters. 
+     * The grid traversal is exact, so it should never intersect later 
+     * than the stepped one and the outcome should be the same (though
+     * the reported axis may differ when leaving through a corner).
+     * 
+     * @throws IOException If there was a problem reading the surface models
+     * @throws StartPositionOutOfBoundsException If the test position is not in the rasters
+     */
+    public void testGridMatchesStepOnSmallRasters() throws IOException, StartPositionOutOfBoundsException {
+    	String[] resources = {SMALL_RESOURCE, SMALL_RECTANGLE_RESOURCE};
+    	for(String resource : resources) {
+	    	Raster raster = new Raster(fileFromResource(resource));
+	    	easting = 265003.51847;
+	        northing = 289004.48428;
+	        myHeight = 1.5;
+	        
+	        for(bearing = 0; bearing < 360; bearing += 15) {
+	        	for(tilt = 5; tilt < 90; tilt += 20) {
+	        		LineOfSight stepped = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+	        		LineOfSight grid = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+	        		grid.setTraversal(LineOfSight.Traversal.GRID);
+	        		
+	        		String steppedOutcome, gridOutcome;
+	        		double[] steppedResult = null, gridResult = null;
+	        		try {
+	        			steppedResult = stepped.calculateLOS();
+	        			steppedOutcome = "hit";
+	        		} catch (IntersectionException e) {
+	        			steppedOutcome = e.getClass().getName();
+	        		}
+	        		try {
+	        			gridResult = grid.calculateLOS();
+	        			gridOutcome = "hit";
+	        		} catch (IntersectionException e) {
+	        			gridOutcome = e.getClass().getName();
+	        		}
+	        		
+	        		assertEquals(steppedOutcome, gridOutcome);
+	        		if(steppedResult != null) {
+	        			assertTrue(gridResult[0] <= steppedResult[0]);
+	        			assertEquals(steppedResult[1], gridResult[1]);
+	        		}
+	        	}
+	        }
+    	}
+    }
+    
+    /**
+     * Tests that the hierarchical traversal gives exactly the same results
+     * as the grid traversal, including where the ray leaves the raster, from
+     * positions on and between cell boundaries
+     * 
+     * @throws IOException If there was a problem reading the surface models
+     */
+    public void testHierarchicalMatchesGrid() throws IOException {
+    	String[] resources = {SMALL_RESOURCE, SMALL_RECTANGLE_RESOURCE, FLAT_RESOURCE};
+    	double[] offsets = {0, 0.5, 0.37};
+    	for(String resource : resources) {
+	    	Raster raster = new Raster(fileFromResource(resource));
+	    	double xl = raster.getParams().getxlCorner(), yl = raster.getParams().getylCorner();
+	        myHeight = 1.5;
+	        
+	        for(double offset : offsets) {
+	        	easting = xl + 3 + offset;
+	        	northing = yl + 4 + offset;
+		        for(bearing = 0; bearing < 360; bearing += 22.5) {
+		        	for(tilt = -5; tilt < 90; tilt += 10) {
+		        		LineOfSight grid = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+		        		LineOfSight hierarchical = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+		        		grid.setTraversal(LineOfSight.Traversal.GRID);
+		        		hierarchical.setTraversal(LineOfSight.Traversal.HIERARCHICAL);
+		        		assertEquals(outcome(grid), outcome(hierarchical));
+		        	}
+		        }
+	        }
+    	}
+    }
+    
+    /**
+     * Tests the bilinear traversal against a coarse raster of a sloping plane,
+     * which the interpolated surface reproduces exactly away from the edges
+     * 
+     * @throws IntersectionException If we did not intersect the surface model
+     */
+    public void testBilinearTraversalOnPlane() throws IntersectionException {
+    	int size = 20;
+    	double cellSize = 5;
+    	double[][] heights = new double[size][size];
+    	for(int row = 0; row < size; row++)
+    		for(int col = 0; col < size; col++)
+    			heights[row][col] = 0.2 * cellSize * col;		// rises 0.2m per metre east
+    	Raster raster = new Raster(new Parameters(cellSize, size, size, 0, 0, -9999), heights);
+    	
+    	easting = 31;
+    	northing = 52.5;
+    	bearing = 90;
+    	tilt = -3;
+    	myHeight = 1.5;
+    	los = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+    	los.setTraversal(LineOfSight.Traversal.BILINEAR);
+    	double[] result = los.calculateLOS();
+    	
+    	double surface = 0.2 * (easting - cellSize / 2);	// the plane through the cell centres
+    	double expectedDistance = myHeight / (0.2 - Math.tan(Math.toRadians(-tilt)));
+    	assertEquals(surface + myHeight, result[1], 1e-9);
+    	assertEquals(expectedDistance, result[0], 1e-9);
+    	assertEquals(easting + expectedDistance, result[2], 1e-9);
+    	assertEquals(northing, result[3], 1e-9);
+    	assertEquals(0.2 * (result[2] - cellSize / 2), result[4], 1e-9);
+    }
+    
+    /**
+     * Tests the bilinear traversal finds the first intersection with the
+     * interpolated surface, found independently by sampling it finely
+     * 
+     * @throws IntersectionException If we did not intersect the surface model
+     */
+    public void testBilinearMatchesFineSampling() throws IntersectionException {
+    	int size = 21;
+    	double cellSize = 5;
+    	double[][] heights = new double[size][size];
+    	for(int row = 0; row < size; row++)
+    		for(int col = 0; col < size; col++)
+    			heights[row][col] = 20 * Math.exp(-((col - 15) * (col - 15) + (row - 6) * (row - 6)) / 6.0) + (col * 7 + row * 3) % 4;
+    	Raster raster = new Raster(new Parameters(cellSize, size, size, 0, 0, -9999), heights);
+    	
+    	easting = 21.3;
+    	northing = 22.8;
+    	myHeight = 1.5;
+    	int hits = 0;
+    	for(bearing = 0; bearing < 360; bearing += 7.5) {
+    		for(tilt = -2; tilt < 60; tilt += 6) {
+    			los = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+    			los.setTraversal(LineOfSight.Traversal.BILINEAR);
+    			double expected = sampleBilinear(heights, cellSize, easting, northing, bearing, tilt, myHeight);
+    			try {
+    				double[] result = los.calculateLOS();
+    				assertEquals("bearing " + bearing + " tilt " + tilt, expected, result[0], 0.002);
+    				double rayHeight = result[1] - result[0] * Math.tan(Math.toRadians(tilt));
+    				if(result[0] > myHeight)
+    					assertEquals(rayHeight, result[4], 1e-6);		// crosses the surface
+    				else
+    					assertTrue(rayHeight <= result[4]);				// already below it at the start
+    				hits++;
+    			} catch (ReachedSurfaceBoundsException e) {
+    				assertTrue("bearing " + bearing + " tilt " + tilt, Double.isNaN(expected));
+    			}
+    		}
+    	}
+    	assertTrue(hits > 100);
+    }
+    
+    /**
+     * Steps down a ray in millimetres to find where it first meets the bilinear
+     * interpolation of the cell centres, NaN if it leaves the raster first
+     */
+    private static double sampleBilinear(double[][] heights, double cellSize, double easting, double northing, double bearing, double tilt, double userHeight) {
+    	int size = heights.length;
+    	double eyeHeight = bilinear(heights, easting / cellSize - 0.5, size - northing / cellSize - 0.5) + userHeight;
+    	for(double distance = userHeight; ; distance += 0.001) {
+    		double x = easting + Math.sin(Math.toRadians(bearing)) * distance;
+    		double y = northing + Math.cos(Math.toRadians(bearing)) * distance;
+    		if(x < 0 || y < 0 || x >= size * cellSize || y >= size * cellSize)
+    			return Double.NaN;
+    		if(eyeHeight - distance * Math.tan(Math.toRadians(tilt)) <= bilinear(heights, x / cellSize - 0.5, size - y / cellSize - 0.5))
+    			return distance;
+    	}
+    }
+    
+    private static double bilinear(double[][] heights, double col, double row) {
+    	int size = heights.length;
+    	col = Math.min(Math.max(col, 0), size - 1);
+    	row = Math.min(Math.max(row, 0), size - 1);
+    	int left = Math.min((int) col, size - 2), top = Math.min((int) row, size - 2);
+    	double a = col - left, b = row - top;
+    	return heights[top][left] * (1 - a) * (1 - b) + heights[top][left + 1] * a * (1 - b)
+    			+ heights[top + 1][left] * (1 - a) * b + heights[top + 1][left + 1] * a * b;
+    }
+    
+    /**
+     * Tests the adaptive traversal against a flat surface, where it should
+     * find the exact intersection to within the tolerance with a coarse step
+     * 
+     * @throws IntersectionException If we did not intersect the surface model
+     */
+    public void testAdaptiveTraversalWithFlatSurface() throws IntersectionException {
+    	int size = 200;
+    	double[][] heights = new double[size][size];
+    	for(int row = 0; row < size; row++)
+    		for(int col = 0; col < size; col++)
+    			heights[row][col] = 1.0;
+    	Raster raster = new Raster(new Parameters(1, size, size, 0, 0, -9999), heights);
+    	
+    	easting = 20.3;
+    	northing = 30.7;
+    	bearing = 45;
+    	tilt = 2;
+    	myHeight = 2;
+    	los = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+    	los.setTraversal(LineOfSight.Traversal.ADAPTIVE);
+    	los.setStepSize(1);
+    	los.setTolerance(0.001);
+    	double[] result = los.calculateLOS();
+    	
+    	double expected = myHeight / Math.tan(Math.toRadians(tilt));
+    	assertTrue(result[0] >= expected);
+    	assertEquals(expected, result[0], 0.001);
+    	assertEquals(3.0, result[1]);
+    	assertEquals(1.0, result[4]);
+    }
+    
+    /**
+     * Tests the adaptive traversal against a fine stepped traversal on rough
+     * ground. It can't report a point above the surface, and should find the
+     * same crossing to within the tolerance unless the stepped traversal hits
+     * a corner of a cell too small for the adaptive step.
+     * 
+     * @throws StartPositionOutOfBoundsException If the test position is not in the raster
+     */
+    public void testAdaptiveMatchesFineSteps() throws StartPositionOutOfBoundsException {
+    	int size = 80;
+    	double[][] heights = new double[size][size];
+    	for(int row = 0; row < size; row++)
+    		for(int col = 0; col < size; col++)
+    			heights[row][col] = 15 * Math.exp(-((col - 60) * (col - 60) + (row - 20) * (row - 20)) / 50.0) + (col * 7 + row * 3) % 5 * 0.3;
+    	Raster raster = new Raster(new Parameters(1, size, size, 0, 0, -9999), heights);
+    	
+    	easting = 30.25;
+    	northing = 40.6;
+    	myHeight = 1.5;
+    	int same = 0, count = 0;
+    	for(bearing = 0; bearing < 360; bearing += 10) {
+    		for(tilt = -1; tilt < 30; tilt += 4) {
+    			LineOfSight stepped = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+    			LineOfSight adaptive = new LineOfSight(raster, easting, northing, bearing, tilt, myHeight);
+    			stepped.setStepSize(0.001);
+    			adaptive.setTraversal(LineOfSight.Traversal.ADAPTIVE);
+    			double[] steppedResult, adaptiveResult;
+    			try {
+    				steppedResult = stepped.calculateLOS();
+    				adaptiveResult = adaptive.calculateLOS();
+    			} catch (NoIntersectionException | ReachedSurfaceBoundsException e) {
+    				continue;
+    			}
+    			count++;
+    			assertEquals(steppedResult[1], adaptiveResult[1]);
+    			assertTrue(adaptiveResult[1] - adaptiveResult[0] * Math.tan(Math.toRadians(tilt)) <= adaptiveResult[4] + 1e-9);
+    			assertTrue(adaptiveResult[0] >= steppedResult[0] - 0.001);
+    			if(adaptiveResult[0] <= steppedResult[0] + LineOfSight.TOLERANCE + 0.001)
+    				same++;
+    		}
+    	}
+    	assertTrue(count > 100);
+    	assertTrue(same + " of " + count, same >= count * 0.95);
+    }
+    
+    /**
+     * Runs a Line of Sight calculation, summarising the result or exception as a string
+     */
+    private static String outcome(LineOfSight los) {
+    	try {
+    		return LineOfSight.resultAsString(los.calculateLOS());
+    	} catch (IntersectionException e) {
+    		return e.getClass().getName() + ": " + e.getMessage();
+    	}
+    }
+    
     private void printStartingConditions(String testName) {
     	if(DEBUG) {
 	    	System.out.println(testName);
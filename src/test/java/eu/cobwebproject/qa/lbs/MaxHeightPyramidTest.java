@@ -0,0 +1,57 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the max-height pyramid
+ */
+public class MaxHeightPyramidTest extends TestCase {
+	private static final String SMALL_RECTANGLE_RESOURCE = "surfaceModel_tiny_rectangle.asc"; //Small 8 cols, 10 rows file for debugging
+	
+	/**
+	 * Tests each level holds the maximum of the surface cells under it,
+	 * including the partial blocks on the edges of a raster that isn't a
+	 * power of two across
+	 * 
+	 * @throws IOException If there was a problem reading the surface model
+	 */
+	@Test
+	public void testBlockMaxima() throws IOException {
+		Raster raster = new Raster(TestResources.path(SMALL_RECTANGLE_RESOURCE));
+		MaxHeightPyramid pyramid = raster.getMaxHeightPyramid();
+		assertSame(pyramid, raster.getMaxHeightPyramid());
+		assertEquals(4, pyramid.getLevels());		// 4x5, 2x3, 1x2 then 1x1
+		
+		for(int level = 0; level <= pyramid.getLevels(); level++) {
+			int size = 1 << level;
+			for(int y = 0; y << level < 10; y++) {
+				for(int x = 0; x << level < 8; x++) {
+					double expected = Double.NEGATIVE_INFINITY;
+					for(int row = y * size; row < Math.min((y + 1) * size, 10); row++) {
+						for(int col = x * size; col < Math.min((x + 1) * size, 8); col++) {
+							expected = Math.max(expected, raster.getXY(col, row));
+						}
+					}
+					assertEquals(expected, pyramid.getMax(level, x, y));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests block maxima that aren't floats are rounded up, never down
+	 */
+	@Test
+	public void testRoundsUp() {
+		double height = 100.123456789;
+		Raster raster = new Raster(new Parameters(1, 2, 1, 0, 0, -9999), new double[][] {{1, height}});
+		MaxHeightPyramid pyramid = new MaxHeightPyramid(raster);
+		assertEquals(1, pyramid.getLevels());
+		assertTrue(pyramid.getMax(1, 0, 0) >= height);
+		assertEquals(height, pyramid.getMax(1, 0, 0), 1e-5);
+	}
+}
@@ -0,0 +1,67 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the max slope blocks
+ */
+public class MaxSlopeBlocksTest extends TestCase {
+	
+	/**
+	 * Tests each block holds the largest step between neighbouring cells in
+	 * it, and not steps to cells of the next block, including the partial
+	 * blocks on the edges of a raster that isn't a multiple of the block size
+	 */
+	@Test
+	public void testBlockSteps() {
+		int cols = 37, rows = 21;
+		double[][] heights = new double[rows][cols];
+		Random random = new Random(3);
+		for(int row = 0; row < rows; row++)
+			for(int col = 0; col < cols; col++)
+				heights[row][col] = random.nextInt(100) / 4.0;
+		Raster raster = new Raster(new Parameters(1, cols, rows, 0, 0, -9999), heights);
+		MaxSlopeBlocks slopes = raster.getMaxSlopeBlocks();
+		assertSame(slopes, raster.getMaxSlopeBlocks());
+		
+		int size = MaxSlopeBlocks.BLOCK_SIZE;
+		for(int y = 0; y * size < rows; y++) {
+			for(int x = 0; x * size < cols; x++) {
+				double expected = 0;
+				for(int row = y * size; row < Math.min((y + 1) * size, rows); row++) {
+					for(int col = x * size; col < Math.min((x + 1) * size, cols); col++) {
+						for(int r = row; r < Math.min(row + 2, Math.min((y + 1) * size, rows)); r++) {
+							for(int c = Math.max(col - 1, x * size); c < Math.min(col + 2, Math.min((x + 1) * size, cols)); c++) {
+								expected = Math.max(expected, Math.abs(heights[r][c] - heights[row][col]));
+							}
+						}
+					}
+				}
+				assertEquals(expected, slopes.getMaxStep(x * size + size - 1, y * size));
+			}
+		}
+	}
+	
+	/**
+	 * Tests a flat block has no step, and a step across a block edge is not counted
+	 */
+	@Test
+	public void testBlockEdges() {
+		int size = MaxSlopeBlocks.BLOCK_SIZE;
+		double[][] heights = new double[1][2 * size];
+		for(int col = size; col < 2 * size; col++)
+			heights[0][col] = 10;
+		MaxSlopeBlocks slopes = new MaxSlopeBlocks(new Raster(new Parameters(1, 2 * size, 1, 0, 0, -9999), heights));
+		assertEquals(0.0, slopes.getMaxStep(0, 0));
+		assertEquals(0.0, slopes.getMaxStep(size, 0));
+		
+		heights[0][3] = 0.1;		// not a float, rounded up
+		slopes = new MaxSlopeBlocks(new Raster(new Parameters(1, 2 * size, 1, 0, 0, -9999), heights));
+		assertTrue(slopes.getMaxStep(0, 0) >= 0.1);
+		assertEquals(0.1, slopes.getMaxStep(0, 0), 1e-7);
+	}
+}
@@ -0,0 +1,228 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for reading and storing rasters
+ */
+public class RasterTest extends TestCase {
+	private static final String SMALL_RESOURCE = "surfaceModel_tiny.asc"; //Small 10x10 file for debugging
+	private static final String SMALL_RECTANGLE_RESOURCE = "surfaceModel_tiny_rectangle.asc"; //Small 8 cols, 10 rows file for debugging
+	
+	/**
+	 * Tests the cells of the small rectangular raster are where we expect,
+	 * through each of the accessors
+	 * 
+	 * @throws IOException If there was a problem reading the surface model
+	 */
+	@Test
+	public void testRectangleCells() throws IOException {
+		Raster raster = new Raster(TestResources.path(SMALL_RECTANGLE_RESOURCE));
+		assertEquals(8, raster.getParams().getnCols());
+		assertEquals(10, raster.getParams().getnRows());
+		
+		assertEquals(7.0, raster.getXY(7, 0));		// top right
+		assertEquals(18.0, raster.getXY(3, 5));
+		assertEquals(10.0, raster.getXY(0, 9));		// bottom left
+		assertEquals(3.0, raster.getXY(7, 9));		// bottom right
+		assertEquals(raster.getXY(3, 5), raster.getUnchecked(5 * 8 + 3));
+		assertEquals(raster.getXY(3, 5), raster.getCell(3, 5));
+		assertEquals(18.0, raster.getHeight(265003.5, 289004.5));	// row 5 is the 5th row up from the bottom
+		
+		double[][] model = raster.getSurfaceModel();
+		assertEquals(10, model.length);
+		assertEquals(8, model[0].length);
+		assertEquals(18.0, model[5][3]);
+		assertSame(model, raster.getSurfaceModel());
+		
+		try {
+			raster.getXY(8, 0);
+			fail("Expected column 8 to be out of bounds");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			assertEquals("Surface X out of bounds: 8", e.getMessage());
+		}
+		try {
+			raster.getXY(0, 10);
+			fail("Expected row 10 to be out of bounds");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			assertEquals("Surface Y out of bounds: 10", e.getMessage());
+		}
+		try {
+			raster.getHeight(265008.5, 289004.5);
+			fail("Expected easting to be out of bounds");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			assertEquals("Surface X out of bounds: 8", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Tests a raster built from an array copies it, so it does not follow
+	 * later changes to the array, and gives back its own copy
+	 */
+	@Test
+	public void testArrayIsCopied() {
+		double[][] heights = {{1, 2}, {3, 4}};
+		Raster raster = new Raster(new Parameters(1, 2, 2, 0, 0, -9999), heights);
+		heights[1][0] = 30;
+		assertEquals(3.0, raster.getXY(0, 1));
+		double[][] model = raster.getSurfaceModel();
+		assertNotSame(heights, model);
+		assertEquals(3.0, model[1][0]);
+		assertEquals(4.0, model[1][1]);
+	}
+	
+	/**
+	 * Tests an array raster with more cells than an int can count is rejected before anything is allocated
+	 */
+	@Test
+	public void testArrayTooLarge() {
+		try {
+			new Raster(new Parameters(1, 65536, 32768, 0, 0, -9999), new double[0][]);
+			fail("Expected 65536x32768 cells to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("65536x32768"));
+		}
+	}
+	
+	/**
+	 * Tests the compact cell encodings store the same surface, to their precision
+	 * 
+	 * @throws IOException If there was a problem reading the surface model
+	 */
+	@Test
+	public void testCellTypes() throws IOException {
+		Raster doubles = new Raster(TestResources.path(SMALL_RESOURCE));
+		Raster floats = new Raster(TestResources.path(SMALL_RESOURCE), CellBuffer.Type.FLOAT);
+		Raster shorts = new Raster(TestResources.path(SMALL_RESOURCE), CellBuffer.Type.SHORT);
+		assertEquals(CellBuffer.Type.DOUBLE, doubles.getCells().getType());
+		assertEquals(CellBuffer.Type.FLOAT, floats.getCells().getType());
+		assertEquals(CellBuffer.Type.SHORT, shorts.getCells().getType());
+		
+		for(int row = 0; row < 10; row++) {
+			for(int col = 0; col < 10; col++) {
+				assertEquals(doubles.getXY(col, row), floats.getXY(col, row), 1e-6);
+				assertEquals(doubles.getXY(col, row), shorts.getXY(col, row), CellBuffer.DEFAULT_SHORT_SCALE / 2);
+			}
+		}
+	}
+	
+	/**
+	 * Tests short cells keep the no data value and reject values out of their range
+	 */
+	@Test
+	public void testShortCells() {
+		CellBuffer cells = CellBuffer.allocateShort(3, 0.01, 100, -9999);
+		cells.set(0, 123.456);
+		cells.set(1, -9999);
+		assertEquals(123.46, cells.get(0), 1e-9);
+		assertEquals(-9999.0, cells.get(1));
+		try {
+			cells.set(2, 1000);
+			fail("Expected 1000 to be out of range");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	/**
+	 * Tests the header can have its keys in any order and case, with any 
+	 * whitespace, the centre form of the origin and no NODATA_value
+	 * 
+	 * @throws IOException If there was a problem writing or reading the surface model
+	 */
+	@Test
+	public void testHeaderVariants() throws IOException {
+		File file = writeTempGrid("CELLSIZE\t2\r\n  yllcenter 101\r\nNCOLS 3\nxllcenter   11\nnrows 2\n1 2\n3\t4 5.5e1\n  -6.25\n");
+		try {
+			Raster raster = new Raster(file.getPath());
+			Parameters params = raster.getParams();
+			assertEquals(3, params.getnCols());
+			assertEquals(2, params.getnRows());
+			assertEquals(2.0, params.getcellSize());
+			assertEquals(10.0, params.getxlCorner());
+			assertEquals(100.0, params.getylCorner());
+			assertEquals(-9999.0, params.getnoData());
+			assertEquals(55.0, raster.getXY(1, 1));
+			assertEquals(-6.25, raster.getXY(2, 1));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests a grid without enough cells is rejected
+	 * 
+	 * @throws IOException If there was a problem writing the surface model
+	 */
+	@Test
+	public void testTooFewCells() throws IOException {
+		File file = writeTempGrid("ncols 2\nnrows 2\nxllcorner 0\nyllcorner 0\ncellsize 1\n1 2\n3\n");
+		try {
+			new Raster(file.getPath());
+			fail("Expected the grid to be rejected");
+		} catch (IOException e) {
+			assertEquals("Expected 4 cells in ascii grid but found 3", e.getMessage());
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests a negative number of columns is rejected
+	 * 
+	 * @throws IOException If there was a problem writing the surface model
+	 */
+	@Test
+	public void testNegativeColumns() throws IOException {
+		assertHeaderRejected("ncols -5\nnrows 2\nxllcorner 0\nyllcorner 0\ncellsize 1\n", "ncols");
+	}
+	
+	/**
+	 * Tests a number of rows beyond Integer.MAX_VALUE is rejected rather than saturated
+	 * 
+	 * @throws IOException If there was a problem writing the surface model
+	 */
+	@Test
+	public void testTooManyRows() throws IOException {
+		assertHeaderRejected("ncols 2\nnrows 3e9\nxllcorner 0\nyllcorner 0\ncellsize 1\n", "nrows");
+	}
+	
+	/**
+	 * Tests a fractional number of columns is rejected rather than truncated
+	 * 
+	 * @throws IOException If there was a problem writing the surface model
+	 */
+	@Test
+	public void testFractionalColumns() throws IOException {
+		assertHeaderRejected("ncols 2.5\nnrows 2\nxllcorner 0\nyllcorner 0\ncellsize 1\n1 2 3 4 5\n", "ncols");
+	}
+	
+	private static void assertHeaderRejected(String contents, String key) throws IOException {
+		File file = writeTempGrid(contents);
+		try {
+			new Raster(file.getPath());
+			fail("Expected the " + key + " to be rejected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Ascii grid " + key + " must be"));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private static File writeTempGrid(String contents) throws IOException {
+		File file = File.createTempFile("raster", ".asc");
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,32 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import junit.framework.AssertionFailedError;
+
+/**
+ * Finds the test rasters on disk
+ */
+final class TestResources {
+	private TestResources() {
+	}
+
+	/**
+	 * Gets the path of a resource in this package, failing the test if it can't be found
+	 *
+	 * @param name The name of the resource
+	 * @return The path of the resource file
+	 */
+	static String path(String name) {
+		URL url = TestResources.class.getResource(name);
+		if(url == null)
+			throw new AssertionFailedError("No test resource " + name);
+		try {
+			return new File(url.toURI()).getPath();
+		} catch (URISyntaxException e) {
+			throw new AssertionFailedError("Could not parse resource URL " + url + ": " + e.getMessage());
+		}
+	}
+}
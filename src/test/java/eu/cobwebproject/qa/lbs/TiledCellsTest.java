@@ -0,0 +1,409 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for reading binary rasters through the tile cache
+ */
+public class TiledCellsTest extends TestCase {
+	private static final String SMALL_RECTANGLE_RESOURCE = "surfaceModel_tiny_rectangle.asc"; //Small 8 cols, 10 rows file for debugging
+	private static final String FLAT_RESOURCE = "surfaceModel_flat_1m.asc";	// sample flat dataset
+	
+	/**
+	 * Tests every cell reads back through small tiles, including the partial tiles at the edges
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 */
+	@Test
+	public void testCells() throws IOException {
+		Raster ascii = new Raster(TestResources.path(SMALL_RECTANGLE_RESOURCE));
+		
+		for(CellBuffer.Type type : CellBuffer.Type.values()) {
+			File file = File.createTempFile("raster", ".bin");
+			TiledCells tiles = null;
+			try {
+				BinaryRasterFile.write(ascii, file, type);
+				tiles = TiledCells.open(file, 4, 0);
+				Raster tiled = tiles.getRaster();
+				assertEquals(type, tiles.getType());
+				assertEquals(file.getPath(), tiled.toString());
+				for(int row = 0; row < 10; row++) {
+					for(int col = 0; col < 8; col++) {
+						assertEquals(ascii.getXY(col, row), tiled.getXY(col, row), CellBuffer.DEFAULT_SHORT_SCALE / 2);
+					}
+				}
+			} finally {
+				if(tiles != null)
+					tiles.close();
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Tests the cache stays within its budget and reuses tiles
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 */
+	@Test
+	public void testCacheBudget() throws IOException {
+		Raster ascii = new Raster(TestResources.path(SMALL_RECTANGLE_RESOURCE));
+		File file = File.createTempFile("raster", ".bin");
+		TiledCells tiles = null;
+		try {
+			BinaryRasterFile.write(ascii, file, CellBuffer.Type.DOUBLE);
+			tiles = TiledCells.open(file, 4, 2 * 4 * 4 * 8);	// two full tiles
+			Raster tiled = tiles.getRaster();
+			
+			tiled.getXY(0, 0);
+			tiled.getXY(3, 3);
+			tiled.getXY(4, 0);
+			tiled.getXY(0, 0);
+			assertEquals(2, tiles.getTileLoads());
+			
+			tiled.getXY(0, 4);			// evicts the tile at (4, 0)
+			assertTrue(tiles.getCachedBytes() <= 2 * 4 * 4 * 8);
+			tiled.getXY(0, 0);
+			assertEquals(3, tiles.getTileLoads());
+			tiled.getXY(4, 0);
+			assertEquals(4, tiles.getTileLoads());
+		} finally {
+			if(tiles != null)
+				tiles.close();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests Line Of Sight gives the same result through the tile cache
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 * @throws IntersectionException If we did not intersect the surface model
+	 */
+	@Test
+	public void testLineOfSightOnTiledRaster() throws IOException, IntersectionException {
+		Raster ascii = new Raster(TestResources.path(FLAT_RESOURCE));
+		File file = File.createTempFile("raster", ".bin");
+		TiledCells tiles = null;
+		try {
+			BinaryRasterFile.write(ascii, file, CellBuffer.Type.DOUBLE);
+			tiles = TiledCells.open(file, 16, 16 * 16 * 8 * 4);
+			
+			double[] expected = LineOfSight.Calculate(ascii, 265547.050156, 289498.392446, 45, 20, 2);
+			double[] result = LineOfSight.Calculate(tiles.getRaster(), 265547.050156, 289498.392446, 45, 20, 2);
+			for(int i = 0; i < 5; i++)
+				assertEquals(expected[i], result[i]);
+		} finally {
+			if(tiles != null)
+				tiles.close();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests the pyramid built per tile matches the pyramid of the whole raster up to the tile size
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 */
+	@Test
+	public void testPyramid() throws IOException {
+		Raster ascii = new Raster(TestResources.path(SMALL_RECTANGLE_RESOURCE));
+		MaxHeightPyramid expected = ascii.getMaxHeightPyramid();
+		File file = File.createTempFile("raster", ".bin");
+		TiledCells tiles = null;
+		try {
+			BinaryRasterFile.write(ascii, file, CellBuffer.Type.DOUBLE);
+			tiles = TiledCells.open(file, 4, 4 * 4 * 8);	// a single tile
+			MaxHeightPyramid pyramid = tiles.getRaster().getMaxHeightPyramid();
+			assertEquals(2, pyramid.getLevels());
+			
+			for(int level = 0; level <= 2; level++) {
+				for(int y = 0; y << level < 10; y++) {
+					for(int x = 0; x << level < 8; x++) {
+						assertEquals(expected.getMax(level, x, y), pyramid.getMax(level, x, y));
+					}
+				}
+			}
+			assertTrue(tiles.getCachedBytes() <= 4 * 4 * 8);
+		} finally {
+			if(tiles != null)
+				tiles.close();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests a HIERARCHICAL ray only loads the tiles along it, no more than a GRID
+	 * ray does, and gets the same result as on the whole raster
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 * @throws IntersectionException If we did not intersect the surface model
+	 */
+	@Test
+	public void testHierarchicalTileLoads() throws IOException, IntersectionException {
+		Raster ascii = new Raster(TestResources.path(FLAT_RESOURCE));
+		File file = File.createTempFile("raster", ".bin");
+		try {
+			BinaryRasterFile.write(ascii, file, CellBuffer.Type.FLOAT);
+			long[] loads = new long[2];
+			LineOfSight.Traversal[] traversals = {LineOfSight.Traversal.GRID, LineOfSight.Traversal.HIERARCHICAL};
+			for(int i = 0; i < traversals.length; i++) {
+				TiledCells tiles = TiledCells.open(file, 16, 1 << 20);
+				try {
+					LineOfSight expected = new LineOfSight(ascii, 265100.5, 289100.5, 45, 1, 2);
+					LineOfSight result = new LineOfSight(tiles.getRaster(), 265100.5, 289100.5, 45, 1, 2);
+					expected.setTraversal(LineOfSight.Traversal.GRID);
+					result.setTraversal(traversals[i]);
+					double[] expectedResult = expected.calculateLOS();
+					double[] tiledResult = result.calculateLOS();
+					for(int j = 0; j < 5; j++)
+						assertEquals(expectedResult[j], tiledResult[j], 1e-3);
+					loads[i] = tiles.getTileLoads();
+				} finally {
+					tiles.close();
+				}
+			}
+			assertTrue(loads[1] > 1);
+			assertTrue(loads[1] <= loads[0]);
+			assertTrue(loads[1] < 63 * 63 / 100);		// the raster is 63x63 tiles
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests the max slope blocks built per tile match the blocks of the whole raster
+	 * 
+	 * @throws IOException If there was a problem writing the raster
+	 */
+	@Test
+	public void testMaxSlopeBlocks() throws IOException {
+		int cols = 37, rows = 21;
+		double[][] heights = new double[rows][cols];
+		Random random = new Random(3);
+		for(int row = 0; row < rows; row++)
+			for(int col = 0; col < cols; col++)
+				heights[row][col] = random.nextInt(100) / 4.0;
+		Raster raster = new Raster(new Parameters(1, cols, rows, 0, 0, -9999), heights);
+		File file = File.createTempFile("raster", ".bin");
+		TiledCells tiles = null;
+		try {
+			BinaryRasterFile.write(raster, file, CellBuffer.Type.DOUBLE);
+			tiles = TiledCells.open(file, 16, 1 << 20);
+			MaxSlopeBlocks slopes = tiles.getRaster().getMaxSlopeBlocks();
+			for(int row = 0; row < rows; row++) {
+				for(int col = 0; col < cols; col++) {
+					assertEquals(raster.getMaxSlopeBlocks().getMaxStep(col, row), slopes.getMaxStep(col, row));
+				}
+			}
+		} finally {
+			if(tiles != null)
+				tiles.close();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests an ADAPTIVE ray only loads the tiles along it and gets the same result as on the whole raster
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 * @throws IntersectionException If we did not intersect the surface model
+	 */
+	@Test
+	public void testAdaptiveTileLoads() throws IOException, IntersectionException {
+		Raster ascii = new Raster(TestResources.path(FLAT_RESOURCE));
+		File file = File.createTempFile("raster", ".bin");
+		TiledCells tiles = null;
+		try {
+			BinaryRasterFile.write(ascii, file, CellBuffer.Type.DOUBLE);
+			tiles = TiledCells.open(file, 16, 1 << 20);
+			LineOfSight expected = new LineOfSight(ascii, 265100.5, 289100.5, 45, 1, 2);
+			LineOfSight result = new LineOfSight(tiles.getRaster(), 265100.5, 289100.5, 45, 1, 2);
+			expected.setTraversal(LineOfSight.Traversal.ADAPTIVE);
+			result.setTraversal(LineOfSight.Traversal.ADAPTIVE);
+			double[] expectedResult = expected.calculateLOS();
+			double[] tiledResult = result.calculateLOS();
+			for(int i = 0; i < 5; i++)
+				assertEquals(expectedResult[i], tiledResult[i]);
+			assertTrue(tiles.getTileLoads() > 1);
+			assertTrue(tiles.getTileLoads() < 63 * 63 / 100);		// the raster is 63x63 tiles
+		} finally {
+			if(tiles != null)
+				tiles.close();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests every cell reads back while several threads share the cache
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 * @throws InterruptedException If interrupted waiting for the threads
+	 */
+	@Test
+	public void testThreads() throws IOException, InterruptedException {
+		final Raster ascii = new Raster(TestResources.path(SMALL_RECTANGLE_RESOURCE));
+		File file = File.createTempFile("raster", ".bin");
+		TiledCells tiles = null;
+		try {
+			BinaryRasterFile.write(ascii, file, CellBuffer.Type.DOUBLE);
+			tiles = TiledCells.open(file, 2, 3 * 2 * 2 * 8);	// fewer tiles than threads
+			final Raster tiled = tiles.getRaster();
+			final AtomicReference<String> failure = new AtomicReference<String>();
+			
+			Thread[] threads = new Thread[4];
+			for(int i = 0; i < threads.length; i++) {
+				final int start = i * 20;
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						for(int n = 0; n < 2000; n++) {
+							int cell = (start + n * 7) % 80;
+							int col = cell % 8, row = cell / 8;
+							if(ascii.getXY(col, row) != tiled.getXY(col, row))
+								failure.compareAndSet(null, "Wrong value at " + col + ", " + row);
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for(Thread thread : threads)
+				thread.join();
+			assertNull(failure.get());
+			assertTrue(tiles.getCachedBytes() <= 3 * 2 * 2 * 8);
+		} finally {
+			if(tiles != null)
+				tiles.close();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests closed cells can't be read on any thread, and a thread that read them doesn't keep them alive
+	 * 
+	 * @throws IOException If there was a problem reading or writing the rasters
+	 * @throws InterruptedException If interrupted waiting for the reader
+	 */
+	@Test
+	public void testClose() throws IOException, InterruptedException {
+		Raster ascii = new Raster(TestResources.path(SMALL_RECTANGLE_RESOURCE));
+		File file = File.createTempFile("raster", ".bin");
+		final CountDownLatch read = new CountDownLatch(1), closed = new CountDownLatch(1);
+		final CountDownLatch checked = new CountDownLatch(1), done = new CountDownLatch(1);
+		Thread reader = null;
+		try {
+			BinaryRasterFile.write(ascii, file, CellBuffer.Type.DOUBLE);
+			final AtomicReference<TiledCells> shared = new AtomicReference<TiledCells>(TiledCells.open(file, 2, 1 << 20));
+			final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+			reader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						shared.get().getCell(0, 0);		// leaves the tile in this thread's cursor
+						read.countDown();
+						closed.await();
+						try {
+							shared.getAndSet(null).getCell(0, 0);
+						} catch (RuntimeException e) {
+							failure.set(e);
+						}
+						checked.countDown();
+						done.await();		// stays alive like a pool thread
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			reader.start();
+			read.await();
+
+			WeakReference<TiledCells> tiles = new WeakReference<TiledCells>(shared.get());
+			tiles.get().close();
+			try {
+				tiles.get().getCell(0, 0);
+				fail("Closed cells were read");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			closed.countDown();
+			checked.await();
+			assertTrue(failure.get() instanceof IllegalStateException);
+
+			for(int i = 0; i < 50 && tiles.get() != null; i++) {
+				System.gc();
+				Thread.sleep(10);
+			}
+			assertNull("Closed cells kept alive by the reader's cursor", tiles.get());
+		} finally {
+			done.countDown();
+			if(reader != null)
+				reader.join();
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Tests cells past Integer.MAX_VALUE are reached, using a sparse file so nothing large is written
+	 * 
+	 * @throws IOException If there was a problem writing the file
+	 */
+	@Test
+	public void testMoreCellsThanInteger() throws IOException {
+		int size = 46341;		// size * size is just over Integer.MAX_VALUE
+		long cellCount = (long) size * size;
+		File file = File.createTempFile("raster", ".bin");
+		TiledCells tiles = null;
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			ByteBuffer header = ByteBuffer.allocate(BinaryRasterFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0, BinaryRasterFile.MAGIC);
+			header.putInt(4, BinaryRasterFile.VERSION);
+			header.putInt(8, CellBuffer.Type.SHORT.ordinal());
+			header.putInt(12, size);
+			header.putInt(16, size);
+			header.putDouble(24, 1);
+			header.putDouble(48, -9999);
+			header.putDouble(56, 1);	// scale, the offset is 0
+			out.write(header.array());
+			out.setLength(BinaryRasterFile.HEADER_SIZE + cellCount * 2);
+			out.seek(BinaryRasterFile.HEADER_SIZE + (size - 1) * 2L);
+			out.write(new byte[] {7, 0});			// last cell of the first row
+			out.seek(BinaryRasterFile.HEADER_SIZE + (cellCount - 1) * 2);
+			out.write(new byte[] {(byte) 0xd2, 4});	// last cell, 1234
+			out.close();
+			
+			try {
+				BinaryRasterFile.map(file);
+				fail("Expected the file to be too large to map");
+			} catch (IOException e) {
+				assertEquals(file + " has too many cells to map, open it with TiledCells", e.getMessage());
+			}
+			
+			tiles = TiledCells.open(file, TiledCells.DEFAULT_TILE_SIZE, 1 << 20);
+			Raster tiled = tiles.getRaster();
+			assertEquals(cellCount, tiles.size());
+			assertEquals(0.0, tiled.getXY(0, 0));
+			assertEquals(7.0, tiled.getXY(size - 1, 0));
+			assertEquals(1234.0, tiled.getXY(size - 1, size - 1));
+			assertEquals(1234.0, tiled.getHeight(size - 0.5, 0.5));
+			assertEquals(3, tiles.getTileLoads());
+		} finally {
+			out.close();
+			if(tiles != null)
+				tiles.close();
+			file.delete();
+		}
+	}
+}
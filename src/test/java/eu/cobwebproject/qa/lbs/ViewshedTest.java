@@ -0,0 +1,143 @@
+package eu.cobwebproject.qa.lbs;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the viewshed calculation
+ */
+public class ViewshedTest extends TestCase {
+	private static final String FLAT_RESOURCE = "surfaceModel_flat_1m.asc";	// sample flat dataset
+	private static final int SIZE = 21;
+	
+	/**
+	 * Tests everything is visible on a flat surface, and nothing beyond the maximum radius
+	 * 
+	 * @throws IOException If there was a problem reading the surface model
+	 * @throws StartPositionOutOfBoundsException If the observer is not in the raster
+	 */
+	@Test
+	public void testFlatSurface() throws IOException, StartPositionOutOfBoundsException {
+		Raster flatSurface = new Raster(TestResources.path(FLAT_RESOURCE));
+		int nCols = flatSurface.getParams().getnCols();
+		
+		BitSet visible = Viewshed.Calculate(flatSurface, 265547.5, 289498.5, 2);
+		assertEquals(nCols * flatSurface.getParams().getnRows(), visible.cardinality());
+		
+		Viewshed viewshed = new Viewshed(flatSurface);
+		viewshed.setMaxRadius(10);
+		visible = viewshed.calculate(265547.5, 289498.5, 2);
+		int observerCol = 547, observerRow = 1000 - 499;
+		for(int row = observerRow - 12; row <= observerRow + 12; row++) {
+			for(int col = observerCol - 12; col <= observerCol + 12; col++) {
+				double distance = Math.hypot(col - observerCol, row - observerRow);
+				assertEquals(distance <= 10, visible.get(row * nCols + col));
+			}
+		}
+		assertEquals(visible.cardinality(), visible.get(0, nCols * 1000).cardinality());
+	}
+	
+	/**
+	 * Tests a wall hides the ground behind it, but not the wall itself or the ground in front
+	 * 
+	 * @throws StartPositionOutOfBoundsException If the observer is not in the raster
+	 */
+	@Test
+	public void testWall() throws StartPositionOutOfBoundsException {
+		double[][] heights = new double[SIZE][SIZE];
+		for(int row = 0; row < SIZE; row++)
+			heights[row][15] = 10;
+		Raster raster = new Raster(new Parameters(1, SIZE, SIZE, 0, 0, -9999), heights);
+		
+		BitSet visible = Viewshed.Calculate(raster, 10.5, 10.5, 1.5);	// centre of col 10, row 10
+		for(int row = 0; row < SIZE; row++) {
+			for(int col = 0; col < SIZE; col++) {
+				assertEquals("col " + col + " row " + row, col <= 15, visible.get(row * SIZE + col));
+			}
+		}
+	}
+	
+	/**
+	 * Tests the viewshed agrees with Line of Sight rays cast towards a hill
+	 * 
+	 * @throws IntersectionException If the observer is not in the raster or a ray misses
+	 */
+	@Test
+	public void testAgreesWithLineOfSight() throws IntersectionException {
+		double[][] heights = new double[SIZE][SIZE];
+		for(int row = 0; row < SIZE; row++)
+			for(int col = 0; col < SIZE; col++)
+				heights[row][col] = 5 * Math.exp(-((col - 15) * (col - 15) + (row - 5) * (row - 5)) / 8.0);
+		Raster raster = new Raster(new Parameters(1, SIZE, SIZE, 0, 0, -9999), heights);
+		
+		BitSet visible = Viewshed.Calculate(raster, 3.5, 17.5, 1.5);
+		// the near face of the hill is visible and the ground directly behind it is not
+		assertTrue(visible.get(5 * SIZE + 13));
+		assertFalse(visible.get(2 * SIZE + 19));
+		
+		// a ray aimed at the visible cell reaches it, one aimed at the hidden cell stops on the hill
+		assertEquals(13 + 5 * SIZE, cellHitAiming(raster, 3.5, 17.5, 1.5, 13, 5));
+		assertTrue(cellHitAiming(raster, 3.5, 17.5, 1.5, 19, 2) != 19 + 2 * SIZE);
+	}
+	
+	/**
+	 * Casts a Line of Sight ray from the observer at the centre of a cell's surface
+	 * 
+	 * @return the index of the cell the ray hit
+	 */
+	private static int cellHitAiming(Raster raster, double easting, double northing, double userHeight, int col, int row) throws IntersectionException {
+		double eyeHeight = raster.getHeight(easting, northing) + userHeight;
+		double targetEasting = col + 0.5, targetNorthing = SIZE - row - 0.5;
+		double bearing = Math.toDegrees(Math.atan2(targetEasting - easting, targetNorthing - northing));
+		double distance = Math.hypot(targetEasting - easting, targetNorthing - northing);
+		double tilt = Math.toDegrees(Math.atan2(eyeHeight - raster.getXY(col, row), distance));
+		
+		LineOfSight los = new LineOfSight(raster, easting, northing, bearing, tilt, userHeight);
+		los.setTraversal(LineOfSight.Traversal.GRID);
+		double[] result = los.calculateLOS();
+		return (SIZE - (int) Math.ceil(result[3])) * SIZE + (int) Math.floor(result[2]);
+	}
+	
+	/**
+	 * Tests an observer outside the raster is rejected
+	 */
+	@Test
+	public void testStartOutOfBounds() {
+		Raster raster = new Raster(new Parameters(1, SIZE, SIZE, 0, 0, -9999), new double[SIZE][SIZE]);
+		try {
+			Viewshed.Calculate(raster, -1, 5, 1.5);
+			fail("Expected the observer to be out of bounds");
+		} catch (StartPositionOutOfBoundsException e) {
+			assertEquals("Position -1.0,5.0 is out of bounds of the heightmap", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Tests a view reaching further than a BitSet can index is rejected unless the radius is limited
+	 * 
+	 * @throws StartPositionOutOfBoundsException If the observer is not in the raster
+	 */
+	@Test
+	public void testMaxRings() throws StartPositionOutOfBoundsException {
+		int length = Viewshed.MAX_RINGS + 2;
+		Raster raster = new Raster(new Parameters(1, length, 1, 0, 0, -9999), new double[1][length]);
+		try {
+			Viewshed.Calculate(raster, 0.5, 0.5, 1.5);
+			fail("Expected the view to reach too far");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Viewshed reaches " + (length - 1) + " cells from the observer, set a max radius of at most "
+						 + Viewshed.MAX_RINGS + " cells", e.getMessage());
+		}
+		
+		Viewshed viewshed = new Viewshed(raster);
+		viewshed.setMaxRadius(Viewshed.MAX_RINGS);
+		BitSet visible = viewshed.calculate(0.5, 0.5, 1.5);
+		assertEquals(Viewshed.MAX_RINGS + 1, visible.cardinality());
+		assertTrue(visible.get(Viewshed.MAX_RINGS));
+		assertFalse(visible.get(Viewshed.MAX_RINGS + 1));
+	}
+}
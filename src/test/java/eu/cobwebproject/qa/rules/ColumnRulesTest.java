@@ -0,0 +1,95 @@
+package eu.cobwebproject.qa.rules;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.cobwebproject.qa.automaticvalidation.ValRange;
+import eu.cobwebproject.qa.lbs.SpatialAccuracy;
+import junit.framework.TestCase;
+
+/**
+ * Test the column rules agree with the checks they apply to every row
+ */
+public class ColumnRulesTest extends TestCase {
+	private static final int ROWS = 1000;	// not a whole number of words
+
+	private final double[] values = new double[ROWS];
+	private final double[] accuracy = new double[ROWS];
+	private final int[] satellites = new int[ROWS];
+
+	@Override
+	protected void setUp() {
+		Random random = new Random(7);
+		for(int i = 0; i < ROWS; i++) {
+			values[i] = random.nextGaussian() * 30;
+			accuracy[i] = random.nextDouble() * 20;
+			satellites[i] = random.nextInt(12) - 1;
+		}
+		double[] edges = {-40, 50, Double.NaN, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, -0.0};
+		for(int i = 0; i < edges.length; i++) {
+			values[i * 97] = edges[i];
+			accuracy[i * 89] = edges[i] == -40 ? 10 : edges[i];
+		}
+		satellites[5] = Integer.MIN_VALUE;
+		satellites[6] = Integer.MAX_VALUE;
+	}
+
+	@Test
+	public void testRange() {
+		BitSet passed = new RangeRule(-40, 50).apply(values);
+		for(int i = 0; i < ROWS; i++)
+			assertEquals("row " + i + " " + values[i], ValRange.valueInRange(values[i], -40, 50), passed.get(i));
+		assertTrue(passed.get(0));		// bounds are inclusive
+		assertTrue(passed.get(97));
+		assertFalse(passed.get(194));	// NaN
+		assertTrue(passed.length() <= ROWS);
+	}
+
+	@Test
+	public void testAccuracy() {
+		SpatialAccuracy check = new SpatialAccuracy();
+		AccuracyRule rule = new AccuracyRule(10, 4);
+		BitSet accurate = rule.apply(accuracy);
+		BitSet withSatellites = rule.apply(accuracy, satellites);
+		for(int i = 0; i < ROWS; i++) {
+			assertEquals("row " + i, check.isAccurate(accuracy[i], 10), accurate.get(i));
+			assertEquals("row " + i, check.isAccurate(accuracy[i], 10, satellites[i], 4), withSatellites.get(i));
+		}
+		assertFalse(accurate.get(0));		// at the threshold
+		assertTrue(accurate.get(178));		// NaN passes, as SpatialAccuracy
+	}
+
+	/**
+	 * Test only the rows asked for are checked, so columns can be reused for batches
+	 */
+	@Test
+	public void testRows() {
+		BitSet all = new RangeRule(-40, 50).apply(values);
+		BitSet first = new RangeRule(-40, 50).apply(values, 130);
+		assertEquals(all.get(0, 130), first);
+		assertEquals(new BitSet(), new AccuracyRule(10, 4).apply(accuracy, satellites, 0));
+		try {
+			new AccuracyRule(10, 4).apply(accuracy, new int[ROWS - 1]);
+			fail("Columns differ in length");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void testCombine() {
+		BitSet inRange = new RangeRule(-40, 50).apply(values);
+		BitSet accurate = new AccuracyRule(10, 4).apply(accuracy, satellites);
+		BitSet both = Columns.all(inRange, accurate);
+		BitSet either = Columns.any(inRange, accurate);
+		BitSet outOfRange = Columns.failed(inRange, ROWS);
+		for(int i = 0; i < ROWS; i++) {
+			assertEquals(inRange.get(i) && accurate.get(i), both.get(i));
+			assertEquals(inRange.get(i) || accurate.get(i), either.get(i));
+			assertEquals(!inRange.get(i), outOfRange.get(i));
+		}
+		assertEquals(ROWS, inRange.cardinality() + outOfRange.cardinality());
+		assertEquals(new RangeRule(-40, 50).apply(values), inRange);		// arguments are left alone
+	}
+}
@@ -0,0 +1,114 @@
+package eu.cobwebproject.qa.rules;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.cobwebproject.qa.lbs.Parameters;
+import eu.cobwebproject.qa.lbs.Raster;
+import junit.framework.TestCase;
+
+/**
+ * Test observations streamed through the validator are annotated as the checks would annotate them one at a time
+ */
+public class ObservationValidatorTest extends TestCase {
+	private static final int SIZE = 21;
+	private static final String CSV = "id,easting,northing,bearing,tilt,eye,temperature,accuracy,satellites\r\n"
+			+ "1,2.5,10.5,90,45,1.5,20,5,8\r\n"
+			+ "\"2, quoted\",2.5,10.5,90,-10,1.5,60,15,8\r\n"
+			+ "\r\n"
+			+ "\"3 \"\"multi\r\nline\"\"\",100,10.5,90,45,1.5,-40,5,2\r\n"
+			+ "4,2.5,10.5,90,45,1.5,,,\r\n"
+			+ "5,2.5,10.5,90,45,1.5,abc,5,4";
+
+	/**
+	 * Tests range, accuracy and Line of Sight annotations across chunk boundaries
+	 *
+	 * @throws IOException If the CSV can't be read
+	 */
+	@Test
+	public void testCsv() throws IOException {
+		Raster flat = new Raster(new Parameters(1, SIZE, SIZE, 0, 0, -9999), new double[SIZE][SIZE]);
+		ObservationValidator validator = new ObservationValidator();
+		validator.setRange("temperature", -40, 50);
+		validator.setAccuracy("accuracy", 10, "satellites", 4);
+		validator.setLineOfSight(flat, "bearing", "tilt", "eye");
+		validator.setChunkSize(2);
+
+		StringWriter out = new StringWriter();
+		assertEquals(5, validator.validateCsv(new StringReader(CSV), out));
+		List<List<String>> records = read(out.toString());
+		assertEquals(6, records.size());
+		assertEquals(16, records.get(0).size());
+		assertEquals(ObservationValidator.QA_IN_RANGE, records.get(0).get(9));
+		assertEquals(ObservationValidator.QA_LOS_HEIGHT, records.get(0).get(15));
+
+		List<String> hit = records.get(1);
+		assertEquals("true", hit.get(9));
+		assertEquals("true", hit.get(10));
+		assertEquals("HIT", hit.get(11));
+		assertEquals(1.5, Double.parseDouble(hit.get(12)), 0.15);	// 45 degrees down from 1.5m, within a step
+		assertEquals(4.0, Double.parseDouble(hit.get(13)), 0.15);
+		assertEquals(10.5, Double.parseDouble(hit.get(14)), 0.1);
+
+		List<String> sky = records.get(2);
+		assertEquals("2, quoted", sky.get(0));
+		assertEquals("false", sky.get(9));
+		assertEquals("false", sky.get(10));
+		assertFalse("HIT".equals(sky.get(11)));
+		assertEquals("", sky.get(12));
+
+		List<String> outside = records.get(3);
+		assertEquals("3 \"multi\r\nline\"", outside.get(0));
+		assertEquals("true", outside.get(9));		// bounds are inclusive
+		assertEquals("false", outside.get(10));		// too few satellites
+		assertEquals("START_OUT_OF_BOUNDS", outside.get(11));
+
+		List<String> missing = records.get(4);
+		assertEquals("false", missing.get(9));		// as NaN
+		assertEquals("false", missing.get(10));		// no satellites
+		assertEquals("HIT", missing.get(11));
+		assertEquals("false", records.get(5).get(9));
+		assertEquals("true", records.get(5).get(10));
+	}
+
+	/**
+	 * Tests only the checks that are set add annotations, and a missing column is reported
+	 *
+	 * @throws IOException If the CSV can't be read
+	 */
+	@Test
+	public void testColumns() throws IOException {
+		ObservationValidator validator = new ObservationValidator();
+		validator.setAccuracy("accuracy", 10, null, 0);
+		StringWriter out = new StringWriter();
+		assertEquals(5, validator.validateCsv(new StringReader(CSV), out));
+		List<List<String>> records = read(out.toString());
+		assertEquals(ObservationValidator.QA_ACCURATE, records.get(0).get(9));
+		assertEquals(10, records.get(0).size());
+		assertEquals("true", records.get(3).get(9));	// satellites not checked
+
+		validator.setRange("humidity", 0, 100);
+		try {
+			validator.validateCsv(new StringReader(CSV), new StringWriter());
+			fail("Missing column not reported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("humidity"));
+		}
+	}
+
+	private static List<List<String>> read(String csv) throws IOException {
+		CsvRecords in = new CsvRecords(new StringReader(csv));
+		List<List<String>> records = new ArrayList<List<String>>();
+		List<String> record = new ArrayList<String>();
+		while (in.read(record)) {
+			records.add(record);
+			record = new ArrayList<String>();
+		}
+		return records;
+	}
+}